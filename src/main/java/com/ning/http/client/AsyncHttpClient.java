@@ -20,12 +20,15 @@ import com.ning.http.client.Request.EntityWriter;
 import com.ning.http.client.logging.LogManager;
 import com.ning.http.client.logging.Logger;
 import com.ning.http.client.providers.jdk.JDKAsyncHttpProvider;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProvider;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * This class support asynchronous and synchronous HTTP request.
@@ -139,6 +142,8 @@ public class AsyncHttpClient {
     private final static String DEFAULT_PROVIDER = "com.ning.http.client.providers.netty.NettyAsyncHttpProvider";
     private final AsyncHttpProvider<?> httpProvider;
     private final AsyncHttpClientConfig config;
+    private final RequestCoalescer requestCoalescer;
+    private final RequestHedger requestHedger;
     private final static Logger logger = LogManager.getLogger(AsyncHttpClient.class);
 
     /**
@@ -183,6 +188,8 @@ public class AsyncHttpClient {
     public AsyncHttpClient(AsyncHttpProvider<?> httpProvider, AsyncHttpClientConfig config) {
         this.config = config;
         this.httpProvider = httpProvider;
+        this.requestCoalescer = config.isRequestCoalescingEnabled() ? new RequestCoalescer(httpProvider) : null;
+        this.requestHedger = new RequestHedger(httpProvider, config);
     }
 
     /**
@@ -194,6 +201,8 @@ public class AsyncHttpClient {
     public AsyncHttpClient(String providerClass, AsyncHttpClientConfig config) {
         this.config = new AsyncHttpClientConfig.Builder().build();
         this.httpProvider = loadDefaultProvider(providerClass,config);
+        this.requestCoalescer = config.isRequestCoalescingEnabled() ? new RequestCoalescer(httpProvider) : null;
+        this.requestHedger = new RequestHedger(httpProvider, config);
     }
 
     public class BoundRequestBuilder extends RequestBuilderBase<BoundRequestBuilder> {
@@ -447,7 +456,40 @@ public class AsyncHttpClient {
     }
 
     /**
-     * Execute an HTTP request.
+     * Open connections to the host of the url and keep them in the connections pool, so the first requests
+     * sent to that host don't pay the connect and SSL handshake cost. The returned {@link Future} can be used to
+     * wait until the pool is warm, and its value is the number of connections that have been pooled.
+     *
+     * Only the {@link com.ning.http.client.providers.netty.NettyAsyncHttpProvider} supports warming up connections:
+     * with other providers, the returned {@link Future} is already complete with 0 pooled connections.
+     *
+     * @param url         A well formed URL. Only the scheme, host and port are used.
+     * @param connections the number of connections to open.
+     * @return a {@link Future} of the number of pooled connections.
+     * @throws IOException
+     */
+    public Future<Integer> warmUp(String url, int connections) throws IOException {
+        if (!(httpProvider instanceof NettyAsyncHttpProvider)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("%s doesn't support warming up connections, %s is left cold",
+                        httpProvider.getClass().getName(), url));
+            }
+            FutureTask<Integer> none = new FutureTask<Integer>(new Callable<Integer>() {
+                public Integer call() {
+                    return 0;
+                }
+            });
+            none.run();
+            return none;
+        }
+        return ((NettyAsyncHttpProvider) httpProvider).warmUp(url, connections);
+    }
+
+    /**
+     * Execute an HTTP request. When {@link AsyncHttpClientConfig#isRequestCoalescingEnabled()} is true, an idempotent
+     * request identical to one already in flight will share its response instead of being sent again. When
+     * {@link PerRequestConfig#getHedgeDelayInMs()} is set, an idempotent request is sent a second time if its
+     * response status hasn't been received after that delay.
      * @param request {@link Request}
      * @param handler an instance of {@link AsyncHandler}
      * @param <T> Type of the value that will be returned by the associated {@link java.util.concurrent.Future}
@@ -455,6 +497,12 @@ public class AsyncHttpClient {
      * @throws IOException
      */
     public <T> Future<T> executeRequest(Request request, AsyncHandler<T> handler) throws IOException {
+        if (RequestHedger.isHedgeable(request)) {
+            return requestHedger.execute(request, handler);
+        }
+        if (requestCoalescer != null && RequestCoalescer.isCoalescable(request)) {
+            return requestCoalescer.execute(request, handler);
+        }
         return httpProvider.execute(request, handler);
     }
 
@@ -465,7 +513,7 @@ public class AsyncHttpClient {
      * @throws IOException
      */
     public Future<Response> executeRequest(Request request) throws IOException {
-        return httpProvider.execute(request, new AsyncCompletionHandlerBase());
+        return executeRequest(request, new AsyncCompletionHandlerBase());
     }
 
     @SuppressWarnings("unchecked")
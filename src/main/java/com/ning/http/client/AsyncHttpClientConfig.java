@@ -15,14 +15,21 @@
  */
 package com.ning.http.client;
 
+import com.ning.http.client.loadbalancer.LoadBalancer;
+import com.ning.http.util.AsyncHttpProviderUtils;
+
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 
+import java.net.InetSocketAddress;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
 
 /**
  * Configuration class to use with a {@link AsyncHttpClient}. System property can be also used to configure this
@@ -39,11 +46,22 @@ import java.util.concurrent.ThreadFactory;
  * -Dcom.ning.http.client.AsyncHttpClientConfig.defaultRequestTimeoutInMS
  * -Dcom.ning.http.client.AsyncHttpClientConfig.defaultRedirectsEnabled
  * -Dcom.ning.http.client.AsyncHttpClientConfig.defaultMaxRedirects
+ * -Dcom.ning.http.client.AsyncHttpClientConfig.requestCoalescingEnabled
+ * -Dcom.ning.http.client.AsyncHttpClientConfig.circuitBreakerFailureThreshold
+ * -Dcom.ning.http.client.AsyncHttpClientConfig.circuitBreakerOpenDurationInMs
+ * -Dcom.ning.http.client.AsyncHttpClientConfig.rateLimitPerSecond
+ * -Dcom.ning.http.client.AsyncHttpClientConfig.maxQueuedRequests
+ * -Dcom.ning.http.client.AsyncHttpClientConfig.expectContinueEnabled
+ * -Dcom.ning.http.client.AsyncHttpClientConfig.requestCompression
+ * -Dcom.ning.http.client.AsyncHttpClientConfig.virtualThreadsEnabled
+ * -Dcom.ning.http.client.AsyncHttpClientConfig.maxHedgedRequestsPercent
  */
 public class AsyncHttpClientConfig {
 
     private final static String ASYNC_CLIENT = AsyncHttpClientConfig.class.getName() + ".";
 
+    private final static int DEFAULT_MAX_PLATFORM_THREADS = 256;
+
     private final int maxTotalConnections;
     private final int maxConnectionPerHost;
     private final int connectionTimeOutInMs;
@@ -61,6 +79,25 @@ public class AsyncHttpClientConfig {
     private final SSLEngineFactory sslEngineFactory;
     private final AsyncHttpProviderConfig<?, ?> providerConfig;
     private final ConnectionsPool<?, ?> connectionsPool;
+    private final boolean requestCoalescingEnabled;
+    private final Map<String, Integer> minIdleConnectionsPerHost;
+    private final int idleConnectionsMaintenanceIntervalInMs;
+    private final int minIdleConnectionsTTLInMs;
+    private final LoadBalancer loadBalancer;
+    private final Map<String, List<InetSocketAddress>> endpoints;
+    private final int circuitBreakerFailureThreshold;
+    private final int circuitBreakerOpenDurationInMs;
+    private final RetryPolicy retryPolicy;
+    private final int rateLimitPerSecond;
+    private final Map<String, Integer> rateLimitsPerSecondPerHost;
+    private final int maxQueuedRequests;
+    private final int queuedRequestAgingInMs;
+    private final boolean expectContinueEnabled;
+    private final int expectContinueTimeoutInMs;
+    private final String requestCompression;
+    private final boolean deferredDecompression;
+    private final boolean virtualThreadsEnabled;
+    private final int maxHedgedRequestsPercent;
 
     private AsyncHttpClientConfig(int maxTotalConnections,
                                   int maxConnectionPerHost,
@@ -78,7 +115,26 @@ public class AsyncHttpClientConfig {
                                   SSLContext sslContext,
                                   SSLEngineFactory sslEngineFactory,
                                   AsyncHttpProviderConfig<?,?> providerConfig,
-                                  ConnectionsPool<?, ?> connectionsPool) {
+                                  ConnectionsPool<?, ?> connectionsPool,
+                                  boolean requestCoalescingEnabled,
+                                  Map<String, Integer> minIdleConnectionsPerHost,
+                                  int idleConnectionsMaintenanceIntervalInMs,
+                                  int minIdleConnectionsTTLInMs,
+                                  LoadBalancer loadBalancer,
+                                  Map<String, List<InetSocketAddress>> endpoints,
+                                  int circuitBreakerFailureThreshold,
+                                  int circuitBreakerOpenDurationInMs,
+                                  RetryPolicy retryPolicy,
+                                  int rateLimitPerSecond,
+                                  Map<String, Integer> rateLimitsPerSecondPerHost,
+                                  int maxQueuedRequests,
+                                  int queuedRequestAgingInMs,
+                                  boolean expectContinueEnabled,
+                                  int expectContinueTimeoutInMs,
+                                  String requestCompression,
+                                  boolean deferredDecompression,
+                                  boolean virtualThreadsEnabled,
+                                  int maxHedgedRequestsPercent) {
 
         this.maxTotalConnections = maxTotalConnections;
         this.maxConnectionPerHost = maxConnectionPerHost;
@@ -94,21 +150,39 @@ public class AsyncHttpClientConfig {
         this.sslEngineFactory = sslEngineFactory;
         this.providerConfig = providerConfig;
         this.connectionsPool = connectionsPool;
+        this.requestCoalescingEnabled = requestCoalescingEnabled;
+        this.minIdleConnectionsPerHost = Collections.unmodifiableMap(new HashMap<String, Integer>(minIdleConnectionsPerHost));
+        this.idleConnectionsMaintenanceIntervalInMs = idleConnectionsMaintenanceIntervalInMs;
+        this.minIdleConnectionsTTLInMs = minIdleConnectionsTTLInMs;
+        this.loadBalancer = loadBalancer;
 
-        if (reaper == null) {
-            this.reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
-                public Thread newThread(Runnable r) {
-                    return new Thread(r,"AsyncHttpClient-Reaper");
-                }
-            });
-        } else {
-            this.reaper = reaper;
+        Map<String, List<InetSocketAddress>> e = new HashMap<String, List<InetSocketAddress>>();
+        for (Map.Entry<String, List<InetSocketAddress>> entry : endpoints.entrySet()) {
+            e.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<InetSocketAddress>(entry.getValue())));
         }
+        this.endpoints = Collections.unmodifiableMap(e);
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+        this.circuitBreakerOpenDurationInMs = circuitBreakerOpenDurationInMs;
+        this.retryPolicy = retryPolicy;
+        this.rateLimitPerSecond = rateLimitPerSecond;
+        this.rateLimitsPerSecondPerHost = Collections.unmodifiableMap(new HashMap<String, Integer>(rateLimitsPerSecondPerHost));
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.queuedRequestAgingInMs = queuedRequestAgingInMs;
+        this.expectContinueEnabled = expectContinueEnabled;
+        this.expectContinueTimeoutInMs = expectContinueTimeoutInMs;
+        this.requestCompression = requestCompression;
+        this.deferredDecompression = deferredDecompression;
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+        this.maxHedgedRequestsPercent = maxHedgedRequestsPercent;
 
-        if (applicationThreadPool == null) {
-            this.applicationThreadPool = Executors.newCachedThreadPool();
-        } else {
+        this.reaper = reaper != null ? reaper : SharedExecutors.reaper();
+        if (applicationThreadPool != null) {
             this.applicationThreadPool = applicationThreadPool;
+        } else if (virtualThreadsEnabled) {
+            this.applicationThreadPool = VirtualThreads.newExecutor(
+                    maxTotalConnections > 0 ? maxTotalConnections : DEFAULT_MAX_PLATFORM_THREADS);
+        } else {
+            this.applicationThreadPool = SharedExecutors.applicationThreadPool();
         }
         this.proxyServer = proxyServer;
     }
@@ -212,6 +286,35 @@ public class AsyncHttpClientConfig {
         return compressionEnabled;
     }
 
+    /**
+     * Return true if compressed response bodies are handed as is to the {@link AsyncHandler}, and only decompressed
+     * when read from the {@link Response}.
+     *
+     * @return true if the decompression of response bodies is left to the consumer.
+     */
+    public boolean isDeferredDecompression() {
+        return deferredDecompression;
+    }
+
+    /**
+     * Return true if the {@link #executorService()} runs each task on a virtual thread, or on a bounded pool of
+     * platform threads when the runtime doesn't support them.
+     *
+     * @return true if the {@link #executorService()} runs each task on a virtual thread.
+     */
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    /**
+     * Return the maximum share, in percent, of the requests to a host that are hedged.
+     *
+     * @return the maximum percentage of hedged requests per host.
+     */
+    public int getMaxHedgedRequestsPercent() {
+        return maxHedgedRequestsPercent;
+    }
+
     /**
      * Return the {@link java.util.concurrent.ExecutorService} an {@link AsyncHttpClient} use for handling
      * asynchronous response.
@@ -279,6 +382,157 @@ public class AsyncHttpClientConfig {
         return providerConfig;
     }
 
+    /**
+     * Is request coalescing enabled. When enabled, concurrent and identical GET or HEAD requests share a single
+     * upstream exchange.
+     *
+     * @return true if request coalescing is enabled
+     */
+    public boolean isRequestCoalescingEnabled() {
+        return requestCoalescingEnabled;
+    }
+
+    /**
+     * Return the minimum number of idle connections to keep in the {@link ConnectionsPool}, keyed by url.
+     *
+     * @return the minimum number of idle connections to keep in the {@link ConnectionsPool}, keyed by url.
+     */
+    public Map<String, Integer> getMinIdleConnectionsPerHost() {
+        return minIdleConnectionsPerHost;
+    }
+
+    /**
+     * Return the interval in millisecond between two checks of the minimum number of idle connections.
+     *
+     * @return the interval in millisecond between two checks of the minimum number of idle connections.
+     */
+    public int getIdleConnectionsMaintenanceIntervalInMs() {
+        return idleConnectionsMaintenanceIntervalInMs;
+    }
+
+    /**
+     * Return the time in millisecond a host configured with {@link #getMinIdleConnectionsPerHost()} can stay
+     * unused before its idle connections stop being maintained. -1 means forever.
+     *
+     * @return the time in millisecond a host can stay unused before its idle connections stop being maintained.
+     */
+    public int getMinIdleConnectionsTTLInMs() {
+        return minIdleConnectionsTTLInMs;
+    }
+
+    /**
+     * Return the {@link LoadBalancer} selecting the endpoint of a host requests are sent to, or null.
+     *
+     * @return the {@link LoadBalancer}, or null if requests are sent to the first address of the host.
+     */
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    /**
+     * Return the endpoints configured for a host, keyed by the scheme, host and port of the host.
+     *
+     * @return the endpoints configured for a host.
+     */
+    public Map<String, List<InetSocketAddress>> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Return the number of consecutive failures after which requests to a host fail fast, or 0 if the
+     * {@link CircuitBreaker} is disabled.
+     *
+     * @return the number of consecutive failures opening the {@link CircuitBreaker} of a host.
+     */
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * Return the time in millisecond the {@link CircuitBreaker} of a host stays open before a probe request is sent.
+     *
+     * @return the time in millisecond the {@link CircuitBreaker} of a host stays open.
+     */
+    public int getCircuitBreakerOpenDurationInMs() {
+        return circuitBreakerOpenDurationInMs;
+    }
+
+    /**
+     * Return the {@link RetryPolicy} of failed requests, or null if they are never retried.
+     *
+     * @return the {@link RetryPolicy}, or null if failed requests are never retried.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Return the number of tokens per second shared by all the requests, or -1 if requests aren't rate limited.
+     *
+     * @return the number of tokens per second shared by all the requests.
+     */
+    public int getRateLimitPerSecond() {
+        return rateLimitPerSecond;
+    }
+
+    /**
+     * Return the number of tokens per second of the requests sent to a host, keyed by url.
+     *
+     * @return the number of tokens per second of the requests sent to a host, keyed by url.
+     */
+    public Map<String, Integer> getRateLimitsPerSecondPerHost() {
+        return rateLimitsPerSecondPerHost;
+    }
+
+    /**
+     * Return the maximum number of requests waiting for a connection when {@link #getMaxTotalConnections()} or
+     * {@link #getMaxConnectionPerHost()} is reached, 0 if such requests fail right away.
+     *
+     * @return the maximum number of requests waiting for a connection.
+     */
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * Return the time in millisecond after which a waiting request is served before requests of a higher
+     * {@link PerRequestConfig.Priority}.
+     *
+     * @return the time in millisecond after which a waiting request is served whatever its priority.
+     */
+    public int getQueuedRequestAgingInMs() {
+        return queuedRequestAgingInMs;
+    }
+
+    /**
+     * Return true if the body of POST and PUT requests is only sent once the server answered
+     * <tt>Expect: 100-continue</tt>.
+     *
+     * @return true if <tt>Expect: 100-continue</tt> is sent with request bodies.
+     */
+    public boolean isExpectContinueEnabled() {
+        return expectContinueEnabled;
+    }
+
+    /**
+     * Return the time in millisecond to wait for the 100 (Continue) response before sending the body anyway.
+     *
+     * @return the time in millisecond to wait for the 100 (Continue) response.
+     */
+    public int getExpectContinueTimeoutInMs() {
+        return expectContinueTimeoutInMs;
+    }
+
+    /**
+     * Return the <tt>Content-Encoding</tt> used to compress request bodies, <tt>gzip</tt> or <tt>deflate</tt>, or
+     * null if they are sent as is.
+     *
+     * @return the <tt>Content-Encoding</tt> used to compress request bodies, or null.
+     */
+    public String getRequestCompression() {
+        return requestCompression;
+    }
+
     /**
      * Builder for an {@link AsyncHttpClient}
      */
@@ -293,18 +547,32 @@ public class AsyncHttpClientConfig {
         private boolean compressionEnabled = Boolean.getBoolean(ASYNC_CLIENT + "compressionEnabled");
         private String userAgent = System.getProperty(ASYNC_CLIENT + "userAgent", "NING/1.0");
         private boolean keepAlive = true;
-        private ScheduledExecutorService reaper = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(),
-                new ThreadFactory() {
-                    public Thread newThread(Runnable r) {
-                        return new Thread(r, "AsyncHttpClient-Reaper");
-                    }
-                });
-        private ExecutorService applicationThreadPool = Executors.newCachedThreadPool();
+        private ScheduledExecutorService reaper;
+        private ExecutorService applicationThreadPool;
         private ProxyServer proxyServer = null;
         private SSLContext sslContext;
         private SSLEngineFactory sslEngineFactory;
         private AsyncHttpProviderConfig<?,?> providerConfig;
         private ConnectionsPool<?, ?> connectionsPool;
+        private boolean requestCoalescingEnabled = Boolean.getBoolean(ASYNC_CLIENT + "requestCoalescingEnabled");
+        private final Map<String, Integer> minIdleConnectionsPerHost = new HashMap<String, Integer>();
+        private int idleConnectionsMaintenanceIntervalInMs = 1000;
+        private int minIdleConnectionsTTLInMs = 5 * 60 * 1000;
+        private LoadBalancer loadBalancer;
+        private final Map<String, List<InetSocketAddress>> endpoints = new HashMap<String, List<InetSocketAddress>>();
+        private int circuitBreakerFailureThreshold = Integer.getInteger(ASYNC_CLIENT + "circuitBreakerFailureThreshold", 0);
+        private int circuitBreakerOpenDurationInMs = Integer.getInteger(ASYNC_CLIENT + "circuitBreakerOpenDurationInMs", 30 * 1000);
+        private RetryPolicy retryPolicy;
+        private int rateLimitPerSecond = Integer.getInteger(ASYNC_CLIENT + "rateLimitPerSecond", -1);
+        private final Map<String, Integer> rateLimitsPerSecondPerHost = new HashMap<String, Integer>();
+        private int maxQueuedRequests = Integer.getInteger(ASYNC_CLIENT + "maxQueuedRequests", 0);
+        private int queuedRequestAgingInMs = 1000;
+        private boolean expectContinueEnabled = Boolean.getBoolean(ASYNC_CLIENT + "expectContinueEnabled");
+        private int expectContinueTimeoutInMs = 1000;
+        private String requestCompression = System.getProperty(ASYNC_CLIENT + "requestCompression");
+        private boolean deferredDecompression;
+        private boolean virtualThreadsEnabled = Boolean.getBoolean(ASYNC_CLIENT + "virtualThreadsEnabled");
+        private int maxHedgedRequestsPercent = Integer.getInteger(ASYNC_CLIENT + "maxHedgedRequestsPercent", 10);
 
         public Builder() {
         }
@@ -398,6 +666,46 @@ public class AsyncHttpClientConfig {
             return this;
         }
 
+        /**
+         * Hand compressed response bodies as is to the {@link AsyncHandler}, with their <tt>Content-Encoding</tt>
+         * header, instead of decompressing them as they are received. The {@link Response} decompresses its body when
+         * it's read, and a handler storing or forwarding the body never pays for it.
+         *
+         * @param deferredDecompression true to leave the decompression of response bodies to the consumer.
+         * @return a {@link Builder}
+         */
+        public Builder setDeferredDecompression(boolean deferredDecompression) {
+            this.deferredDecompression = deferredDecompression;
+            return this;
+        }
+
+        /**
+         * Unless an {@link ExecutorService} is set, run the blocking work of the providers, like the requests of the
+         * JDK provider and their {@link AsyncHandler}, on a new virtual thread per task. When the runtime doesn't
+         * support virtual threads, a pool of as many platform threads as the maximum number of connections, or 256
+         * without limit, is used instead.
+         *
+         * @param virtualThreadsEnabled true to use virtual threads.
+         * @return a {@link Builder}
+         */
+        public Builder setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+            this.virtualThreadsEnabled = virtualThreadsEnabled;
+            return this;
+        }
+
+        /**
+         * Set the maximum share, in percent, of the requests to a host that are hedged, 10 by default. Once it's
+         * reached, a request whose response status is late isn't sent a second time, so a slow host doesn't get
+         * twice the load, and the adaptive hedge delay can't feed on the latency its own hedges cause.
+         *
+         * @param maxHedgedRequestsPercent the maximum percentage of hedged requests per host, 100 for no limit.
+         * @return a {@link Builder}
+         */
+        public Builder setMaxHedgedRequestsPercent(int maxHedgedRequestsPercent) {
+            this.maxHedgedRequestsPercent = maxHedgedRequestsPercent;
+            return this;
+        }
+
         /**
          * Set the USER_AGENT header value
          *
@@ -421,7 +729,8 @@ public class AsyncHttpClientConfig {
         }
 
         /**
-         * Set the{@link ScheduledExecutorService} used to expire idle connections.
+         * Set the{@link ScheduledExecutorService} used to expire idle connections. By default, the clients share a pool
+         * started when first needed, and shut down once the last client using it is closed.
          *
          * @param reaper the{@link ScheduledExecutorService} used to expire idle connections.
          * @return a {@link Builder}
@@ -434,7 +743,8 @@ public class AsyncHttpClientConfig {
 
         /**
          * Set the {@link java.util.concurrent.ExecutorService} an {@link AsyncHttpClient} use for handling
-         * asynchronous response.
+         * asynchronous response. By default, the clients share a pool started when first needed, and shut down once
+         * the last client using it is closed.
          *
          * @param applicationThreadPool the {@link java.util.concurrent.ExecutorService} an {@link AsyncHttpClient} use for handling
          *                              asynchronous response.
@@ -506,6 +816,214 @@ public class AsyncHttpClientConfig {
             return this;
         }
 
+        /**
+         * Enable request coalescing. Concurrent GET or HEAD requests without a body that share the same url, headers
+         * and cookies will be served by a single upstream exchange, and the response fanned out to every
+         * {@link AsyncHandler}.
+         *
+         * @param requestCoalescingEnabled true to enable request coalescing
+         * @return a {@link Builder}
+         */
+        public Builder setRequestCoalescingEnabled(boolean requestCoalescingEnabled) {
+            this.requestCoalescingEnabled = requestCoalescingEnabled;
+            return this;
+        }
+
+        /**
+         * Keep at least <tt>connections</tt> idle connections to the host of the url in the {@link ConnectionsPool}.
+         * Missing connections are re-opened in the background, at a limited rate, as long as the host has been used
+         * within {@link #setMinIdleConnectionsTTLInMs(int)}.
+         *
+         * @param url         a url, only its scheme, host and port are used.
+         * @param connections the minimum number of idle connections.
+         * @return a {@link Builder}
+         */
+        public Builder addMinIdleConnectionsPerHost(String url, int connections) {
+            this.minIdleConnectionsPerHost.put(url, connections);
+            return this;
+        }
+
+        /**
+         * Set the interval in millisecond between two checks of the minimum number of idle connections.
+         *
+         * @param idleConnectionsMaintenanceIntervalInMs the interval in millisecond between two checks.
+         * @return a {@link Builder}
+         */
+        public Builder setIdleConnectionsMaintenanceIntervalInMs(int idleConnectionsMaintenanceIntervalInMs) {
+            this.idleConnectionsMaintenanceIntervalInMs = idleConnectionsMaintenanceIntervalInMs;
+            return this;
+        }
+
+        /**
+         * Set the time in millisecond a host can stay unused before its idle connections stop being maintained.
+         * Use -1 to always maintain them.
+         *
+         * @param minIdleConnectionsTTLInMs the time in millisecond a host can stay unused.
+         * @return a {@link Builder}
+         */
+        public Builder setMinIdleConnectionsTTLInMs(int minIdleConnectionsTTLInMs) {
+            this.minIdleConnectionsTTLInMs = minIdleConnectionsTTLInMs;
+            return this;
+        }
+
+        /**
+         * Set the {@link LoadBalancer} used to spread the requests sent to a host over its endpoints. The endpoints
+         * are the ones added using {@link #addEndpoint(String, String, int)}, or all the addresses the host
+         * resolves to.
+         *
+         * @param loadBalancer a {@link LoadBalancer}
+         * @return a {@link Builder}
+         */
+        public Builder setLoadBalancer(LoadBalancer loadBalancer) {
+            this.loadBalancer = loadBalancer;
+            return this;
+        }
+
+        /**
+         * Add an endpoint serving the requests sent to the host of the url. Requests keep using the url for
+         * everything but the address the connection is opened to. Only used when a {@link LoadBalancer} is set.
+         *
+         * @param url  a url, only its scheme, host and port are used.
+         * @param host the host name or address of the endpoint.
+         * @param port the port of the endpoint.
+         * @return a {@link Builder}
+         */
+        public Builder addEndpoint(String url, String host, int port) {
+            String baseUrl = AsyncHttpProviderUtils.getBaseUrl(AsyncHttpProviderUtils.createUri(url));
+            List<InetSocketAddress> list = endpoints.get(baseUrl);
+            if (list == null) {
+                list = new ArrayList<InetSocketAddress>();
+                endpoints.put(baseUrl, list);
+            }
+            list.add(new InetSocketAddress(host, port));
+            return this;
+        }
+
+        /**
+         * Set the number of consecutive failures (connection errors, timeouts and 5xx responses) after which
+         * requests to a host fail fast with a {@link CircuitOpenException}. 0 disables the {@link CircuitBreaker}.
+         *
+         * @param circuitBreakerFailureThreshold the number of consecutive failures opening the circuit.
+         * @return a {@link Builder}
+         */
+        public Builder setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+            this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+            return this;
+        }
+
+        /**
+         * Set the time in millisecond the {@link CircuitBreaker} of a host stays open before a single probe request
+         * is let through.
+         *
+         * @param circuitBreakerOpenDurationInMs the time in millisecond the circuit stays open.
+         * @return a {@link Builder}
+         */
+        public Builder setCircuitBreakerOpenDurationInMs(int circuitBreakerOpenDurationInMs) {
+            this.circuitBreakerOpenDurationInMs = circuitBreakerOpenDurationInMs;
+            return this;
+        }
+
+        /**
+         * Set the {@link RetryPolicy} deciding which failed requests are sent again. Failed requests aren't
+         * retried by default.
+         *
+         * @param retryPolicy a {@link RetryPolicy}
+         * @return a {@link Builder}
+         */
+        public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Limit the rate of all the requests to <tt>tokens</tt> per second. Every request consumes
+         * {@link PerRequestConfig#getRateLimitCost()} tokens; requests exceeding the limit are delayed, never
+         * rejected, and the calling thread never blocks. -1 disables the limit.
+         *
+         * @param tokens the number of tokens per second, and the largest burst.
+         * @return a {@link Builder}
+         */
+        public Builder setRateLimitPerSecond(int tokens) {
+            this.rateLimitPerSecond = tokens;
+            return this;
+        }
+
+        /**
+         * Limit the rate of the requests sent to the host of the url to <tt>tokens</tt> per second, on top of
+         * {@link #setRateLimitPerSecond(int)}.
+         *
+         * @param url    a url, only its scheme, host and port are used.
+         * @param tokens the number of tokens per second, and the largest burst.
+         * @return a {@link Builder}
+         */
+        public Builder addRateLimitPerSecondPerHost(String url, int tokens) {
+            this.rateLimitsPerSecondPerHost.put(url, tokens);
+            return this;
+        }
+
+        /**
+         * Set the maximum number of requests waiting for a connection when the connection limits are reached.
+         * Waiting requests are served by {@link PerRequestConfig.Priority}, then in order, as connections get
+         * freed. 0, the default, makes such requests fail right away.
+         *
+         * @param maxQueuedRequests the maximum number of requests waiting for a connection.
+         * @return a {@link Builder}
+         */
+        public Builder setMaxQueuedRequests(int maxQueuedRequests) {
+            this.maxQueuedRequests = maxQueuedRequests;
+            return this;
+        }
+
+        /**
+         * Set the time in millisecond after which a waiting request is served before requests of a higher
+         * {@link PerRequestConfig.Priority}, so low priority requests are never starved.
+         *
+         * @param queuedRequestAgingInMs the time in millisecond after which a waiting request is served first.
+         * @return a {@link Builder}
+         */
+        public Builder setQueuedRequestAgingInMs(int queuedRequestAgingInMs) {
+            this.queuedRequestAgingInMs = queuedRequestAgingInMs;
+            return this;
+        }
+
+        /**
+         * Send <tt>Expect: 100-continue</tt> with the body of POST and PUT requests, and only send the body once
+         * the server answered 100 (Continue), so a rejected upload (401, 413...) doesn't transfer its body. A request
+         * setting the header itself gets the same behavior.
+         *
+         * @param expectContinueEnabled true to wait for the 100 (Continue) response before sending request bodies.
+         * @return a {@link Builder}
+         */
+        public Builder setExpectContinueEnabled(boolean expectContinueEnabled) {
+            this.expectContinueEnabled = expectContinueEnabled;
+            return this;
+        }
+
+        /**
+         * Set the time in millisecond to wait for the 100 (Continue) response before sending the body anyway, for
+         * servers ignoring <tt>Expect: 100-continue</tt>.
+         *
+         * @param expectContinueTimeoutInMs the time in millisecond to wait for the 100 (Continue) response.
+         * @return a {@link Builder}
+         */
+        public Builder setExpectContinueTimeoutInMs(int expectContinueTimeoutInMs) {
+            this.expectContinueTimeoutInMs = expectContinueTimeoutInMs;
+            return this;
+        }
+
+        /**
+         * Compress the body of POST and PUT requests, and send it with the corresponding <tt>Content-Encoding</tt>
+         * and <tt>Transfer-Encoding: chunked</tt>. The server must be able to decode it. See
+         * {@link com.ning.http.client.PerRequestConfig#setRequestCompression(String)} to change it per request.
+         *
+         * @param requestCompression <tt>gzip</tt>, <tt>deflate</tt>, or null to send request bodies as is.
+         * @return a {@link Builder}
+         */
+        public Builder setRequestCompression(String requestCompression) {
+            this.requestCompression = requestCompression;
+            return this;
+        }
+
         /**
          * Build an {@link AsyncHttpClientConfig}
          *
@@ -528,7 +1046,26 @@ public class AsyncHttpClientConfig {
                     sslContext,
                     sslEngineFactory,
                     providerConfig,
-                    connectionsPool);
+                    connectionsPool,
+                    requestCoalescingEnabled,
+                    minIdleConnectionsPerHost,
+                    idleConnectionsMaintenanceIntervalInMs,
+                    minIdleConnectionsTTLInMs,
+                    loadBalancer,
+                    endpoints,
+                    circuitBreakerFailureThreshold,
+                    circuitBreakerOpenDurationInMs,
+                    retryPolicy,
+                    rateLimitPerSecond,
+                    rateLimitsPerSecondPerHost,
+                    maxQueuedRequests,
+                    queuedRequestAgingInMs,
+                    expectContinueEnabled,
+                    expectContinueTimeoutInMs,
+                    requestCompression,
+                    deferredDecompression,
+                    virtualThreadsEnabled,
+                    maxHedgedRequestsPercent);
         }
 
     }
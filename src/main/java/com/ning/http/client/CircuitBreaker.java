@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.ning.http.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A per host circuit breaker. Consecutive failures (connection errors, timeouts and 5xx responses) are counted and,
+ * once {@link AsyncHttpClientConfig#getCircuitBreakerFailureThreshold()} is reached, the circuit opens: requests to
+ * that host fail fast with a {@link CircuitOpenException}, or are steered to other endpoints when a
+ * {@link com.ning.http.client.loadbalancer.LoadBalancer} is used. After
+ * {@link AsyncHttpClientConfig#getCircuitBreakerOpenDurationInMs()} the circuit is half-open and a single probe
+ * request is let through: its success closes the circuit, its failure opens it again.
+ * <p/>
+ * The state of each host only uses atomic variables, so no lock is taken on the request path.
+ */
+public final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openDurationInMs;
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+    /**
+     * Create a {@link CircuitBreaker}
+     *
+     * @param failureThreshold the number of consecutive failures opening the circuit.
+     * @param openDurationInMs the time in millisecond the circuit stays open before a probe is let through.
+     */
+    public CircuitBreaker(int failureThreshold, long openDurationInMs) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationInMs = openDurationInMs;
+    }
+
+    /**
+     * Return true if a request can be sent to the host. When the circuit is half-open, only the first caller gets
+     * true and its request is the probe.
+     *
+     * @param host the host
+     * @return true if a request can be sent to the host.
+     */
+    public boolean allowRequest(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            return true;
+        }
+
+        long openedAt = circuit.openedAt.get();
+        if (openedAt == 0) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - openedAt < openDurationInMs) {
+            return false;
+        }
+
+        // Half-open. A probe that never reported is given up after the open duration.
+        long probe = circuit.probeStartedAt.get();
+        if (probe != 0 && now - probe < openDurationInMs) {
+            return false;
+        }
+        return circuit.probeStartedAt.compareAndSet(probe, now);
+    }
+
+    /**
+     * Return true if requests to the host are currently refused, without claiming the half-open probe.
+     *
+     * @param host the host
+     * @return true if requests to the host are currently refused.
+     */
+    public boolean isOpen(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            return false;
+        }
+
+        long openedAt = circuit.openedAt.get();
+        if (openedAt == 0) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - openedAt < openDurationInMs) {
+            return true;
+        }
+        long probe = circuit.probeStartedAt.get();
+        return probe != 0 && now - probe < openDurationInMs;
+    }
+
+    /**
+     * Record a successful exchange with the host, closing its circuit.
+     *
+     * @param host the host
+     */
+    public void onSuccess(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit != null) {
+            circuit.failures.set(0);
+            circuit.probeStartedAt.set(0);
+            circuit.openedAt.set(0);
+        }
+    }
+
+    /**
+     * Record a failed exchange with the host.
+     *
+     * @param host the host
+     */
+    public void onFailure(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit();
+            Circuit previous = circuits.putIfAbsent(host, circuit);
+            if (previous != null) {
+                circuit = previous;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        long openedAt = circuit.openedAt.get();
+        if (openedAt != 0) {
+            // The half-open probe failed, open again.
+            if (circuit.probeStartedAt.get() != 0) {
+                circuit.openedAt.set(now);
+                circuit.probeStartedAt.set(0);
+            }
+            return;
+        }
+
+        if (circuit.failures.incrementAndGet() >= failureThreshold) {
+            circuit.openedAt.compareAndSet(0, now);
+        }
+    }
+
+    /**
+     * Return the number of consecutive failures recorded for a host.
+     *
+     * @param host the host
+     * @return the number of consecutive failures recorded for a host.
+     */
+    public int getConsecutiveFailures(String host) {
+        Circuit circuit = circuits.get(host);
+        return circuit == null ? 0 : circuit.failures.get();
+    }
+
+    private final static class Circuit {
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicLong openedAt = new AtomicLong();
+        private final AtomicLong probeStartedAt = new AtomicLong();
+    }
+}
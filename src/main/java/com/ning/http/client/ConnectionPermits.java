@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.ning.http.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for the connections opened by an {@link AsyncHttpProvider}. A permit must be acquired, for
+ * the host the connection is opened to, before connecting, and released exactly once when the connection gets
+ * closed. Both {@link AsyncHttpClientConfig#getMaxTotalConnections()} and
+ * {@link AsyncHttpClientConfig#getMaxConnectionPerHost()} are enforced using compare-and-set only, so the limits
+ * hold exactly under concurrency without a global lock.
+ */
+public final class ConnectionPermits {
+
+    /**
+     * Value of a per host counter that has been removed from the map. A thread finding it must look the counter up again.
+     */
+    private final static int RETIRED = -1;
+
+    private final int maxTotalConnections;
+    private final int maxConnectionPerHost;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ConcurrentHashMap<String, AtomicInteger> perHost = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Create a {@link ConnectionPermits}
+     *
+     * @param maxTotalConnections  the maximum number of connections, -1 for no limit.
+     * @param maxConnectionPerHost the maximum number of connections per host, -1 for no limit.
+     */
+    public ConnectionPermits(int maxTotalConnections, int maxConnectionPerHost) {
+        this.maxTotalConnections = maxTotalConnections;
+        this.maxConnectionPerHost = maxConnectionPerHost;
+    }
+
+    /**
+     * Create a {@link ConnectionPermits} enforcing the limits of an {@link AsyncHttpClientConfig}
+     *
+     * @param config an {@link AsyncHttpClientConfig}
+     */
+    public ConnectionPermits(AsyncHttpClientConfig config) {
+        this(config.getMaxTotalConnections(), config.getMaxConnectionPerHost());
+    }
+
+    /**
+     * Try to acquire a permit for opening a connection to a host.
+     *
+     * @param host the host, usually the scheme, host and port of the uri.
+     * @return true if the connection can be opened, false if a limit has been reached.
+     */
+    public boolean tryAcquire(String host) {
+        if (!increment(total, maxTotalConnections)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        for (;;) {
+            AtomicInteger counter = perHost.get(host);
+            if (counter == null) {
+                counter = new AtomicInteger();
+                AtomicInteger previous = perHost.putIfAbsent(host, counter);
+                if (previous != null) {
+                    counter = previous;
+                }
+            }
+
+            int count = counter.get();
+            if (count == RETIRED) {
+                perHost.remove(host, counter);
+                continue;
+            }
+
+            if (maxConnectionPerHost != -1 && count >= maxConnectionPerHost) {
+                total.decrementAndGet();
+                rejected.incrementAndGet();
+                return false;
+            }
+
+            if (counter.compareAndSet(count, count + 1)) {
+                acquired.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release a permit acquired using {@link #tryAcquire(String)}.
+     *
+     * @param host the host used when acquiring the permit.
+     */
+    public void release(String host) {
+        AtomicInteger counter = perHost.get(host);
+        if (counter != null && counter.decrementAndGet() == 0 && counter.compareAndSet(0, RETIRED)) {
+            perHost.remove(host, counter);
+        }
+        total.decrementAndGet();
+    }
+
+    /**
+     * Return the number of connections currently holding a permit.
+     *
+     * @return the number of connections currently holding a permit.
+     */
+    public int getOpenConnections() {
+        return total.get();
+    }
+
+    /**
+     * Return the number of connections to a host currently holding a permit.
+     *
+     * @param host the host
+     * @return the number of connections to a host currently holding a permit.
+     */
+    public int getOpenConnections(String host) {
+        AtomicInteger counter = perHost.get(host);
+        if (counter == null) {
+            return 0;
+        }
+        return Math.max(counter.get(), 0);
+    }
+
+    /**
+     * Return the number of permits granted since this instance has been created.
+     *
+     * @return the number of permits granted.
+     */
+    public long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * Return the number of permits refused because a limit has been reached.
+     *
+     * @return the number of permits refused.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private static boolean increment(AtomicInteger counter, int max) {
+        for (;;) {
+            int count = counter.get();
+            if (max != -1 && count >= max) {
+                return false;
+            }
+            if (counter.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+}
@@ -21,8 +21,24 @@ package com.ning.http.client;
  * @author Hubert Iwaniuk
  */
 public class PerRequestConfig {
+
+    /**
+     * The priority class of a request waiting for a connection, see
+     * {@link AsyncHttpClientConfig#getMaxQueuedRequests()}.
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
     private final ProxyServer proxyServer;
     private int requestTimeoutInMs;
+    private int hedgeDelayInMs;
+    private boolean adaptiveHedgeDelay;
+    private int rateLimitCost = 1;
+    private Priority priority = Priority.NORMAL;
+    private String requestCompression;
 
     public PerRequestConfig() {
         this(null, 0);
@@ -44,4 +60,104 @@ public class PerRequestConfig {
     public void setRequestTimeoutInMs(int requestTimeoutInMs) {
         this.requestTimeoutInMs = requestTimeoutInMs;
     }
+
+    /**
+     * Return the delay in millisecond after which an idempotent request that hasn't received its response status is
+     * sent a second time, 0 if hedging is disabled.
+     *
+     * @return the hedge delay in millisecond.
+     */
+    public int getHedgeDelayInMs() {
+        return hedgeDelayInMs;
+    }
+
+    /**
+     * Send a second, identical, GET or HEAD request when the response status of the first one hasn't been received
+     * after <tt>hedgeDelayInMs</tt>. The first response wins, the other request is cancelled and its connection
+     * closed. 0 disables hedging.
+     *
+     * @param hedgeDelayInMs the hedge delay in millisecond.
+     */
+    public void setHedgeDelayInMs(int hedgeDelayInMs) {
+        this.hedgeDelayInMs = hedgeDelayInMs;
+    }
+
+    /**
+     * Return true if the hedge delay is the live 95th percentile of the time to the response status of the host.
+     *
+     * @return true if the hedge delay is derived from the observed latency of the host.
+     */
+    public boolean isAdaptiveHedgeDelay() {
+        return adaptiveHedgeDelay;
+    }
+
+    /**
+     * Use the live 95th percentile of the time to the response status of the host as the hedge delay. Until
+     * enough responses have been observed, {@link #getHedgeDelayInMs()} is used.
+     *
+     * @param adaptiveHedgeDelay true to derive the hedge delay from the observed latency of the host.
+     */
+    public void setAdaptiveHedgeDelay(boolean adaptiveHedgeDelay) {
+        this.adaptiveHedgeDelay = adaptiveHedgeDelay;
+    }
+
+    /**
+     * Return the number of tokens the request consumes from the rate limits, 1 by default.
+     *
+     * @return the number of tokens the request consumes.
+     */
+    public int getRateLimitCost() {
+        return rateLimitCost;
+    }
+
+    /**
+     * Set the number of tokens the request consumes from the rate limits, so expensive calls count more
+     * against a quota than cheap ones. A cost larger than a limit consumes all of its tokens.
+     *
+     * @param rateLimitCost the number of tokens the request consumes.
+     */
+    public void setRateLimitCost(int rateLimitCost) {
+        this.rateLimitCost = rateLimitCost;
+    }
+
+    /**
+     * Return the priority class of the request, {@link Priority#NORMAL} by default.
+     *
+     * @return the priority class of the request.
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Set the priority class of the request. When all the connections are in use, a freed connection goes to the
+     * waiting request of the highest class, so interactive calls don't wait behind batch calls sharing the same
+     * client.
+     *
+     * @param priority the priority class of the request.
+     */
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Return the <tt>Content-Encoding</tt> used to compress the request body, or null to use
+     * {@link AsyncHttpClientConfig#getRequestCompression()}.
+     *
+     * @return the <tt>Content-Encoding</tt> used to compress the request body, or null.
+     */
+    public String getRequestCompression() {
+        return requestCompression;
+    }
+
+    /**
+     * Compress the request body with <tt>gzip</tt> or <tt>deflate</tt>, or send it as is with <tt>identity</tt>,
+     * whatever {@link AsyncHttpClientConfig#getRequestCompression()} is.
+     *
+     * @param requestCompression <tt>gzip</tt>, <tt>deflate</tt>, <tt>identity</tt>, or null to use the client
+     *                           configuration.
+     */
+    public void setRequestCompression(String requestCompression) {
+        this.requestCompression = requestCompression;
+    }
 }
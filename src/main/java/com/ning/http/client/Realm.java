@@ -16,7 +16,6 @@
  */
 package com.ning.http.client;
 
-import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -25,8 +24,6 @@ import java.security.NoSuchAlgorithmException;
  */
 public class Realm {
 
-    private static final String NC = "00000001";
-
     private final String principal;
     private final String password;
     private final AuthScheme scheme;
@@ -43,6 +40,12 @@ public class Realm {
 
     private final String domain;
 
+    /**
+     * The first hash of the Digest responses, computed on demand by the {@link RealmBuilder}s cloning this realm: the
+     * realms built for each request from the same realm compute it once per challenge realm name.
+     */
+    private volatile Ha1 ha1;
+
     public enum AuthScheme {
         DIGEST,
         BASIC,
@@ -62,7 +65,8 @@ public class Realm {
                   String uri,
                   String method,
                   boolean usePreemptiveAuth,
-                  String domain) {
+                  String domain,
+                  Ha1 ha1) {
 
         this.principal = principal;
         this.password = password;
@@ -78,6 +82,7 @@ public class Realm {
         this.methodName = method;
         this.usePreemptiveAuth = usePreemptiveAuth;
         this.domain = domain;
+        this.ha1 = ha1;
     }
 
     public String getPrincipal() {
@@ -205,6 +210,109 @@ public class Realm {
         return result;
     }
 
+    /**
+     * Return the first hash of the Digest responses computed for this realm, which only depends on its credentials
+     * and on the realm name of the challenge, or null if it hasn't been computed for that realm name yet.
+     */
+    private Ha1 ha1(String principal, String password, String realmName) {
+        Ha1 h = ha1;
+        if (h == null || !h.realmName.equals(realmName) || !hasCredentials(principal, password)) {
+            return null;
+        }
+        return h;
+    }
+
+    private boolean hasCredentials(String principal, String password) {
+        return String.valueOf(this.principal).equals(String.valueOf(principal))
+                && String.valueOf(this.password).equals(String.valueOf(password));
+    }
+
+    /**
+     * The first hash of the Digest responses, and the realm name it has been computed for.
+     */
+    private final static class Ha1 {
+        private final String realmName;
+        private final String value;
+
+        private Ha1(String realmName, String value) {
+            this.realmName = realmName;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A MD5 {@link MessageDigest} per thread, fed with the ISO-8859-1 bytes of strings through a reusable buffer, and
+     * whose digests are hex encoded through a reusable <tt>char[]</tt>.
+     */
+    private final static class Md5 {
+        private final static ThreadLocal<Md5> INSTANCES = new ThreadLocal<Md5>() {
+            @Override
+            protected Md5 initialValue() {
+                try {
+                    return new Md5(MessageDigest.getInstance("MD5"));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new SecurityException(e);
+                }
+            }
+        };
+
+        private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+        private final MessageDigest md;
+        private byte[] bytes = new byte[64];
+        private final char[] hex = new char[32];
+
+        private Md5(MessageDigest md) {
+            this.md = md;
+        }
+
+        static Md5 get() {
+            return INSTANCES.get();
+        }
+
+        Md5 update(String s) {
+            if (s == null) {
+                s = "null";
+            }
+            int length = s.length();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            int n = 0;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c <= 0xff) {
+                    bytes[n++] = (byte) c;
+                } else {
+                    // Unmappable, a surrogate pair being a single character.
+                    bytes[n++] = (byte) '?';
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        i++;
+                    }
+                }
+            }
+            md.update(bytes, 0, n);
+            return this;
+        }
+
+        Md5 update(char c) {
+            md.update((byte) c);
+            return this;
+        }
+
+        /**
+         * Complete the digest and reset it.
+         */
+        String digestHex() {
+            byte[] digest = md.digest();
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX[(digest[i] >> 4) & 0x0f];
+                hex[2 * i + 1] = HEX[digest[i] & 0x0f];
+            }
+            return new String(hex, 0, 2 * digest.length);
+        }
+    }
+
     /**
      * A builder for {@link Realm}
      */
@@ -229,6 +337,8 @@ public class Realm {
         private String methodName = "GET";
         private boolean usePreemptive = false;
         private String domain = "";
+        private Realm cloned;
+        private Ha1 ha1;
 
         public String getDomain() {
             return domain;
@@ -367,17 +477,12 @@ public class Realm {
             setScheme(clone.getScheme());
             setUri(clone.getUri());
             setUsePreemptiveAuth(clone.getUsePreemptiveAuth());
+            cloned = clone;
             return this;
         }
 
         private void newCnonce() {
-            try {
-                MessageDigest md = MessageDigest.getInstance("MD5");
-                byte[] b = md.digest(String.valueOf(System.currentTimeMillis()).getBytes("ISO-8859-1"));
-                cnonce = toHexString(b);
-            } catch (Exception e) {
-                 throw new SecurityException(e);
-            }
+            cnonce = Md5.get().update(String.valueOf(System.currentTimeMillis())).digestHex();
         }
 
         /**
@@ -395,67 +500,31 @@ public class Realm {
             return value.startsWith("\"") ? value.substring(1) : value;
         }
 
-        private void newResponse() throws UnsupportedEncodingException {
-            MessageDigest md = null;
-            try {
-                md = MessageDigest.getInstance("MD5");
-            } catch (NoSuchAlgorithmException e) {
-                throw new SecurityException(e);
+        private void newResponse() {
+            String realmName = String.valueOf(this.realmName);
+            ha1 = cloned != null ? cloned.ha1(principal, password, realmName) : null;
+            Md5 md = Md5.get();
+            if (ha1 == null) {
+                ha1 = new Ha1(realmName,
+                        md.update(principal).update(':').update(realmName).update(':').update(password).digestHex());
+                if (cloned != null && cloned.hasCredentials(principal, password)) {
+                    cloned.ha1 = ha1;
+                }
             }
-            md.update(new StringBuilder(principal)
-                        .append(":")
-                        .append(realmName)
-                        .append(":")
-                        .append(password)
-                        .toString().getBytes("ISO-8859-1"));
-            byte[] ha1 = md.digest();
-
-            md.reset();
-            md.update(new StringBuilder(methodName)
-                        .append(':')
-                        .append(uri).toString().getBytes("ISO-8859-1"));
-            byte[] ha2 = md.digest();
-
-            md.update(new StringBuilder(toBase16(ha1))
-                        .append(':')
-                        .append(nonce)
-                        .append(':')
-                        .append(NC)
-                        .append(':')
-                        .append(cnonce)
-                        .append(':')
-                        .append(qop)
-                        .append(':')
-                        .append(toBase16(ha2)).toString().getBytes("ISO-8859-1"));
-            byte[] digest = md.digest();
 
-            response = toHexString(digest);
-        }
+            String ha2 = md.update(methodName).update(':').update(uri).digestHex();
 
-        private static String toHexString(byte[] data) {
-            StringBuilder buffer = new StringBuilder();
-            for (int i = 0; i < data.length; i++) {
-                buffer.append(Integer.toHexString((data[i] & 0xf0) >>> 4));
-                buffer.append(Integer.toHexString(data[i] & 0x0f));
-            }
-            return buffer.toString();
-        }
-
-        private static String toBase16(byte[] bytes) {
-            int base = 16;
-            StringBuilder buf = new StringBuilder();
-            for (byte b : bytes) {
-                int bi = 0xff & b;
-                int c = '0' + (bi / base) % base;
-                if (c > '9')
-                    c = 'a' + (c - '0' - 10);
-                buf.append((char) c);
-                c = '0' + bi % base;
-                if (c > '9')
-                    c = 'a' + (c - '0' - 10);
-                buf.append((char) c);
-            }
-            return buf.toString();
+            response = md.update(ha1.value)
+                    .update(':')
+                    .update(nonce)
+                    .update(':')
+                    .update(nc)
+                    .update(':')
+                    .update(cnonce)
+                    .update(':')
+                    .update(qop)
+                    .update(':')
+                    .update(ha2).digestHex();
         }
 
         /**
@@ -467,11 +536,7 @@ public class Realm {
             // Avoid generating
             if (nonce != null && !nonce.equals("")) {
                 newCnonce();
-                try {
-                    newResponse();
-                } catch (UnsupportedEncodingException e) {
-                    throw new RuntimeException(e);
-                }
+                newResponse();
             }
 
             return new Realm(scheme,
@@ -487,7 +552,8 @@ public class Realm {
                     uri,
                     methodName,
                     usePreemptive,
-                    domain);
+                    domain,
+                    ha1);
         }
     }
 
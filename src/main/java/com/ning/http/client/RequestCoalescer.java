@@ -0,0 +1,521 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client;
+
+import com.ning.http.client.logging.LogManager;
+import com.ning.http.client.logging.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collapse concurrent, identical and idempotent requests into a single upstream exchange. The first request
+ * for a given key is executed by the {@link AsyncHttpProvider}; every identical request issued while that
+ * exchange is in flight joins it, and the status, headers and body parts are fanned out to all the
+ * {@link AsyncHandler}s. A request joining late gets the already received status and headers replayed first; once
+ * the body has started to flow, identical requests start a new exchange instead of joining.
+ *
+ * Two requests are considered identical when they share the same method, url, virtual host, headers and cookies,
+ * so any header a server could list in its <tt>Vary</tt> response header is part of the key.
+ */
+final class RequestCoalescer {
+
+    private final static Logger log = LogManager.getLogger(RequestCoalescer.class);
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    private final AsyncHttpProvider<?> provider;
+
+    RequestCoalescer(AsyncHttpProvider<?> provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Return true if the {@link Request} can safely share its response with other identical requests.
+     *
+     * @param request a {@link Request}
+     * @return true if the {@link Request} can be coalesced.
+     */
+    static boolean isCoalescable(Request request) {
+        String method = request.getReqType();
+        if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+            return false;
+        }
+        return request.getByteData() == null
+                && request.getStringData() == null
+                && request.getStreamData() == null
+                && request.getEntityWriter() == null
+                && request.getFile() == null
+                && request.getParts() == null
+                && request.getParams() == null
+                && request.getRealm() == null
+                && request.getProxyServer() == null;
+    }
+
+    <T> Future<T> execute(Request request, AsyncHandler<T> handler) throws IOException {
+        String key = computeKey(request);
+        for (;;) {
+            Flight flight = flights.get(key);
+            if (flight != null) {
+                CoalescedFuture<T> future = flight.join(handler);
+                if (future != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Coalescing request %s with an in-flight exchange", request.getUrl()));
+                    }
+                    return future;
+                }
+                // The exchange completed while we were joining it.
+                flights.remove(key, flight);
+                continue;
+            }
+
+            flight = new Flight(key);
+            CoalescedFuture<T> future = flight.join(handler);
+            if (flights.putIfAbsent(key, flight) != null) {
+                continue;
+            }
+
+            try {
+                flight.setUpstream(provider.execute(request, flight));
+            } catch (IOException ex) {
+                flight.failToStart(future, ex);
+                throw ex;
+            } catch (RuntimeException ex) {
+                flight.failToStart(future, ex);
+                throw ex;
+            }
+            return future;
+        }
+    }
+
+    private static String computeKey(Request request) {
+        StringBuilder key = new StringBuilder(request.getReqType().toUpperCase())
+                .append(' ').append(request.getUrl());
+
+        if (request.getVirtualHost() != null) {
+            key.append("\nhost:").append(request.getVirtualHost());
+        }
+
+        key.append("\nredirect:").append(request.isRedirectEnabled());
+
+        FluentCaseInsensitiveStringsMap headers = request.getHeaders();
+        if (headers != null) {
+            List<String> names = new ArrayList<String>();
+            for (String name : headers.keySet()) {
+                names.add(name.toLowerCase());
+            }
+            Collections.sort(names);
+            for (String name : names) {
+                key.append('\n').append(name).append(':').append(headers.getJoinedValue(name, ","));
+            }
+        }
+
+        if (request.getCookies() != null) {
+            for (Cookie cookie : request.getCookies()) {
+                key.append("\ncookie:").append(cookie.getName()).append('=').append(cookie.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * A single upstream exchange shared by several {@link AsyncHandler}. The monitor only guards the membership and
+     * the replayed status and headers: the handlers are always invoked outside of it, each {@link Member} serializing
+     * its own callbacks.
+     */
+    private final class Flight implements AsyncHandler<Object> {
+
+        private final String key;
+        private final List<Member<?>> members = new ArrayList<Member<?>>();
+        private final List<HttpContent> received = new ArrayList<HttpContent>();
+        private boolean closed;
+        private boolean streaming;
+        private Future<?> upstream;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        <T> CoalescedFuture<T> join(AsyncHandler<T> handler) {
+            Member<T> member = new Member<T>(this, handler);
+            HttpContent[] replay;
+            synchronized (this) {
+                if (closed || streaming) {
+                    return null;
+                }
+                members.add(member);
+                replay = received.toArray(new HttpContent[received.size()]);
+                // Held until the replay is over so parts dispatched meanwhile are delivered after it.
+                member.lock.lock();
+            }
+
+            try {
+                for (HttpContent content : replay) {
+                    if (!member.deliver(content)) {
+                        break;
+                    }
+                }
+            } finally {
+                member.lock.unlock();
+            }
+            return member.future;
+        }
+
+        void setUpstream(Future<?> upstream) {
+            synchronized (this) {
+                this.upstream = upstream;
+                if (!closed || activeMembers() != 0) {
+                    return;
+                }
+            }
+            upstream.cancel(true);
+        }
+
+        void failToStart(CoalescedFuture<?> leader, Throwable t) {
+            Member<?>[] members;
+            synchronized (this) {
+                close();
+                members = snapshot();
+            }
+
+            for (Member<?> member : members) {
+                if (member.future == leader) {
+                    member.active = false;
+                    leader.cancelled = true;
+                    leader.latch.countDown();
+                } else {
+                    member.fail(t);
+                }
+            }
+        }
+
+        /* @Override */
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            synchronized (this) {
+                received.add(responseStatus);
+            }
+            return dispatch(responseStatus);
+        }
+
+        /* @Override */
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            synchronized (this) {
+                received.add(headers);
+            }
+            return dispatch(headers);
+        }
+
+        /* @Override */
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            synchronized (this) {
+                // Late requests would need the whole body replayed: let them start their own exchange.
+                if (!streaming) {
+                    streaming = true;
+                    flights.remove(key, this);
+                    received.clear();
+                }
+            }
+            return dispatch(bodyPart);
+        }
+
+        /* @Override */
+        public Object onCompleted() throws Exception {
+            for (Member<?> member : closeAndSnapshot()) {
+                member.complete();
+            }
+            return null;
+        }
+
+        /* @Override */
+        public void onThrowable(Throwable t) {
+            for (Member<?> member : closeAndSnapshot()) {
+                member.fail(t);
+            }
+        }
+
+        private STATE dispatch(HttpContent content) {
+            Member<?>[] members;
+            synchronized (this) {
+                members = snapshot();
+            }
+
+            // The bytes of a body part can only be read once: each member gets its own part over a single copy.
+            byte[] bytes = null;
+            if (content instanceof HttpResponseBodyPart) {
+                bytes = ((HttpResponseBodyPart) content).getBodyPartBytes();
+            }
+
+            for (Member<?> member : members) {
+                if (member.active) {
+                    member.deliver(bytes == null ? content
+                            : new CoalescedBodyPart(content.getUrl(), content.provider(), bytes));
+                }
+            }
+
+            synchronized (this) {
+                if (activeMembers() == 0) {
+                    close();
+                    return STATE.ABORT;
+                }
+            }
+            return STATE.CONTINUE;
+        }
+
+        void leave(Member<?> member) {
+            Future<?> upstream;
+            synchronized (this) {
+                member.active = false;
+                if (activeMembers() != 0) {
+                    return;
+                }
+                close();
+                upstream = this.upstream;
+            }
+
+            if (upstream != null) {
+                upstream.cancel(true);
+            }
+        }
+
+        private synchronized Member<?>[] closeAndSnapshot() {
+            close();
+            received.clear();
+            return snapshot();
+        }
+
+        private void close() {
+            closed = true;
+            flights.remove(key, this);
+        }
+
+        private int activeMembers() {
+            int count = 0;
+            for (Member<?> member : members) {
+                if (member.active) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private Member<?>[] snapshot() {
+            return members.toArray(new Member<?>[members.size()]);
+        }
+    }
+
+    /**
+     * An {@link AsyncHandler} waiting on a {@link Flight}
+     */
+    private final static class Member<T> {
+
+        private final Flight flight;
+        private final AsyncHandler<T> handler;
+        private final CoalescedFuture<T> future;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile boolean active = true;
+
+        private Member(Flight flight, AsyncHandler<T> handler) {
+            this.flight = flight;
+            this.handler = handler;
+            this.future = new CoalescedFuture<T>(this);
+        }
+
+        /**
+         * Deliver a part of the response.
+         *
+         * @return false if the handler doesn't want to receive more parts.
+         */
+        boolean deliver(HttpContent content) {
+            lock.lock();
+            try {
+                if (!active) {
+                    return false;
+                }
+
+                AsyncHandler.STATE state;
+                if (content instanceof HttpResponseStatus) {
+                    state = handler.onStatusReceived((HttpResponseStatus) content);
+                } else if (content instanceof HttpResponseHeaders) {
+                    state = handler.onHeadersReceived((HttpResponseHeaders) content);
+                } else {
+                    state = handler.onBodyPartReceived((HttpResponseBodyPart) content);
+                }
+
+                if (state != AsyncHandler.STATE.CONTINUE) {
+                    complete();
+                    return false;
+                }
+                return true;
+            } catch (Throwable t) {
+                fail(t);
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void complete() {
+            lock.lock();
+            try {
+                if (!active) {
+                    return;
+                }
+                active = false;
+                try {
+                    future.done(handler.onCompleted());
+                } catch (Throwable t) {
+                    abort(t);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void fail(Throwable t) {
+            lock.lock();
+            try {
+                if (!active) {
+                    return;
+                }
+                active = false;
+                abort(t);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void abort(Throwable t) {
+            try {
+                handler.onThrowable(t);
+            } finally {
+                future.abort(t);
+            }
+        }
+    }
+
+    /**
+     * A copy of a body part handed to a single {@link Member}.
+     */
+    private final static class CoalescedBodyPart extends HttpResponseBodyPart {
+
+        private final byte[] bytes;
+
+        private CoalescedBodyPart(URI uri, AsyncHttpProvider<?> provider, byte[] bytes) {
+            super(uri, provider);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public byte[] getBodyPartBytes() {
+            return bytes;
+        }
+
+        @Override
+        public int writeTo(OutputStream outputStream) throws IOException {
+            outputStream.write(bytes);
+            return bytes.length;
+        }
+
+        @Override
+        public ByteBuffer getBodyByteBuffer() {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * The {@link Future} returned to every request that shares a {@link Flight}
+     */
+    private final static class CoalescedFuture<V> implements Future<V> {
+
+        private final Member<V> member;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile V content;
+        private volatile Throwable exception;
+        private volatile boolean cancelled;
+
+        private CoalescedFuture(Member<V> member) {
+            this.member = member;
+        }
+
+        void done(V content) {
+            this.content = content;
+            latch.countDown();
+        }
+
+        void abort(Throwable t) {
+            this.exception = t;
+            latch.countDown();
+        }
+
+        /* @Override */
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (latch.getCount() == 0) {
+                return false;
+            }
+            cancelled = true;
+            member.flight.leave(member);
+            latch.countDown();
+            return true;
+        }
+
+        /* @Override */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /* @Override */
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        /* @Override */
+        public V get() throws InterruptedException, ExecutionException {
+            latch.await();
+            return getContent();
+        }
+
+        /* @Override */
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!latch.await(timeout, unit)) {
+                throw new TimeoutException("No response received");
+            }
+            return getContent();
+        }
+
+        private V getContent() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (exception != null) {
+                throw new ExecutionException(exception);
+            }
+            return content;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client;
+
+import com.ning.http.client.logging.LogManager;
+import com.ning.http.client.logging.Logger;
+import com.ning.http.util.AsyncHttpProviderUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Send idempotent requests a second time when their response status hasn't been received after
+ * {@link PerRequestConfig#getHedgeDelayInMs()}. The first of the two exchanges receiving its status wins and is
+ * the only one the {@link AsyncHandler} sees; the other one is cancelled, which closes its connection. At most
+ * {@link AsyncHttpClientConfig#getMaxHedgedRequestsPercent()} of the requests to a host are hedged.
+ */
+final class RequestHedger {
+
+    private final static Logger log = LogManager.getLogger(RequestHedger.class);
+
+    /**
+     * The number of responses observed before the adaptive hedge delay is used.
+     */
+    private final static int MIN_SAMPLES = 20;
+
+    private final AsyncHttpProvider<?> provider;
+    private final AsyncHttpClientConfig config;
+    private final ConcurrentHashMap<String, LatencyTracker> latencies = new ConcurrentHashMap<String, LatencyTracker>();
+
+    RequestHedger(AsyncHttpProvider<?> provider, AsyncHttpClientConfig config) {
+        this.provider = provider;
+        this.config = config;
+    }
+
+    /**
+     * Return true if the {@link Request} asks for hedging and can safely be sent twice.
+     *
+     * @param request a {@link Request}
+     * @return true if the {@link Request} can be hedged.
+     */
+    static boolean isHedgeable(Request request) {
+        PerRequestConfig perRequestConfig = request.getPerRequestConfig();
+        if (perRequestConfig == null || perRequestConfig.getHedgeDelayInMs() <= 0) {
+            return false;
+        }
+
+        String method = request.getReqType();
+        if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+            return false;
+        }
+        return request.getByteData() == null
+                && request.getStringData() == null
+                && request.getStreamData() == null
+                && request.getEntityWriter() == null
+                && request.getFile() == null
+                && request.getParts() == null
+                && request.getParams() == null;
+    }
+
+    <T> Future<T> execute(final Request request, AsyncHandler<T> handler) throws IOException {
+        String host = AsyncHttpProviderUtils.getBaseUrl(AsyncHttpProviderUtils.createUri(request.getUrl()));
+        LatencyTracker tracker = latencies.get(host);
+        if (tracker == null) {
+            tracker = new LatencyTracker();
+            LatencyTracker previous = latencies.putIfAbsent(host, tracker);
+            if (previous != null) {
+                tracker = previous;
+            }
+        }
+
+        final Hedge<T> hedge = new Hedge<T>(handler, tracker);
+        tracker.requestSent();
+        hedge.started(0, provider.execute(request, hedge.new Exchange(0)));
+
+        long delay = hedgeDelay(request.getPerRequestConfig(), tracker);
+        try {
+            hedge.timer = config.reaper().schedule(new Runnable() {
+                public void run() {
+                    if (hedge.shouldHedge() && hedge.tracker.tryHedge(config.getMaxHedgedRequestsPercent())) {
+                        if (log.isDebugEnabled()) {
+                            log.debug(String.format("Hedging request %s", request.getUrl()));
+                        }
+                        hedge.launch(1, request);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // The client is closing, the first request is left alone.
+        }
+        return hedge.future;
+    }
+
+    private static long hedgeDelay(PerRequestConfig perRequestConfig, LatencyTracker tracker) {
+        if (perRequestConfig.isAdaptiveHedgeDelay()) {
+            long p95 = tracker.percentile(95);
+            if (p95 != -1) {
+                return p95;
+            }
+        }
+        return perRequestConfig.getHedgeDelayInMs();
+    }
+
+    /**
+     * The two exchanges of a hedged request.
+     */
+    private final class Hedge<T> {
+
+        private final AsyncHandler<T> handler;
+        private final LatencyTracker tracker;
+        private final HedgedFuture<T> future = new HedgedFuture<T>(this);
+        private final Future<?>[] exchanges = new Future<?>[2];
+        private final long[] startedAt = new long[2];
+        private int winner = -1;
+        private int launched;
+        private int failed;
+        private boolean cancelled;
+        private volatile Future<?> timer;
+
+        /**
+         * Create the {@link Hedge} of a request whose first exchange is about to be sent.
+         */
+        private Hedge(AsyncHandler<T> handler, LatencyTracker tracker) {
+            this.handler = handler;
+            this.tracker = tracker;
+            this.startedAt[0] = System.currentTimeMillis();
+            this.launched = 1;
+        }
+
+        synchronized void started(int index, Future<?> exchange) {
+            exchanges[index] = exchange;
+            if (winner != -1 && winner != index || cancelled) {
+                exchange.cancel(true);
+            }
+        }
+
+        void launch(int index, Request request) {
+            synchronized (this) {
+                launched++;
+                startedAt[index] = System.currentTimeMillis();
+            }
+
+            try {
+                started(index, provider.execute(request, new Exchange(index)));
+            } catch (Throwable t) {
+                new Exchange(index).onThrowable(t);
+            }
+        }
+
+        synchronized boolean shouldHedge() {
+            return winner == -1 && !cancelled && failed < launched;
+        }
+
+        /**
+         * @return true if the exchange is the one the {@link AsyncHandler} sees.
+         */
+        synchronized boolean claim(int index) {
+            if (winner == -1 && !cancelled) {
+                winner = index;
+                // The latency the caller sees, whichever exchange wins: the latency of a hedge alone would hide the
+                // hedge delay, and lower the adaptive hedge delay each time a hedge wins.
+                tracker.record(System.currentTimeMillis() - startedAt[0]);
+                Future<?> loser = exchanges[1 - index];
+                if (loser != null) {
+                    loser.cancel(true);
+                }
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+            return winner == index;
+        }
+
+        synchronized boolean isWinner(int index) {
+            return winner == index;
+        }
+
+        /**
+         * @return true if the failure must be reported to the {@link AsyncHandler}
+         */
+        synchronized boolean fail(int index) {
+            if (winner == index) {
+                return true;
+            }
+            if (winner != -1 || cancelled) {
+                return false;
+            }
+
+            // Hedging isn't retrying: the failure is reported once every exchange sent has failed.
+            failed++;
+            if (failed < launched) {
+                return false;
+            }
+            winner = index;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            return true;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            for (Future<?> exchange : exchanges) {
+                if (exchange != null) {
+                    exchange.cancel(true);
+                }
+            }
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+
+        /**
+         * The {@link AsyncHandler} of one of the two exchanges.
+         */
+        private final class Exchange implements AsyncHandler<T> {
+
+            private final int index;
+
+            private Exchange(int index) {
+                this.index = index;
+            }
+
+            /* @Override */
+            public void onThrowable(Throwable t) {
+                if (fail(index)) {
+                    try {
+                        handler.onThrowable(t);
+                    } finally {
+                        future.abort(t);
+                    }
+                }
+            }
+
+            /* @Override */
+            public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+                return isWinner(index) ? handler.onBodyPartReceived(bodyPart) : STATE.ABORT;
+            }
+
+            /* @Override */
+            public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+                return claim(index) ? handler.onStatusReceived(responseStatus) : STATE.ABORT;
+            }
+
+            /* @Override */
+            public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+                return isWinner(index) ? handler.onHeadersReceived(headers) : STATE.ABORT;
+            }
+
+            /* @Override */
+            public T onCompleted() throws Exception {
+                if (!isWinner(index)) {
+                    return null;
+                }
+                try {
+                    T content = handler.onCompleted();
+                    future.done(content);
+                    return content;
+                } catch (Exception ex) {
+                    future.abort(ex);
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * The {@link Future} returned for a hedged request.
+     */
+    private final static class HedgedFuture<V> implements Future<V> {
+
+        private final Hedge<V> hedge;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile V content;
+        private volatile Throwable exception;
+        private volatile boolean cancelled;
+
+        private HedgedFuture(Hedge<V> hedge) {
+            this.hedge = hedge;
+        }
+
+        void done(V content) {
+            this.content = content;
+            latch.countDown();
+        }
+
+        void abort(Throwable t) {
+            this.exception = t;
+            latch.countDown();
+        }
+
+        /* @Override */
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (latch.getCount() == 0) {
+                return false;
+            }
+            cancelled = true;
+            hedge.cancel();
+            latch.countDown();
+            return true;
+        }
+
+        /* @Override */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /* @Override */
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        /* @Override */
+        public V get() throws InterruptedException, ExecutionException {
+            latch.await();
+            return getContent();
+        }
+
+        /* @Override */
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!latch.await(timeout, unit)) {
+                throw new TimeoutException("No response received");
+            }
+            return getContent();
+        }
+
+        private V getContent() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (exception != null) {
+                throw new ExecutionException(exception);
+            }
+            return content;
+        }
+    }
+
+    /**
+     * The time to the response status of the last responses received from a host, and the share of its recent
+     * requests that have been hedged.
+     */
+    private final static class LatencyTracker {
+
+        /**
+         * The number of requests after which the counts are halved, so the share of hedged requests is recent.
+         */
+        private final static int HEDGE_WINDOW = 1000;
+
+        private final AtomicLongArray samples = new AtomicLongArray(128);
+        private final AtomicInteger count = new AtomicInteger();
+        private int requests;
+        private int hedged;
+
+        synchronized void requestSent() {
+            if (++requests >= HEDGE_WINDOW) {
+                requests /= 2;
+                hedged /= 2;
+            }
+        }
+
+        /**
+         * @return true if the request can be hedged without exceeding the share of hedged requests.
+         */
+        synchronized boolean tryHedge(int maxPercent) {
+            if (hedged * 100 >= maxPercent * requests) {
+                return false;
+            }
+            hedged++;
+            return true;
+        }
+
+        void record(long latencyInMs) {
+            samples.set((count.getAndIncrement() & Integer.MAX_VALUE) % samples.length(), latencyInMs);
+        }
+
+        /**
+         * @return the percentile of the recorded latencies, or -1 if not enough responses have been observed.
+         */
+        long percentile(int percentile) {
+            int size = Math.min(count.get(), samples.length());
+            if (size < MIN_SAMPLES) {
+                return -1;
+            }
+
+            long[] sorted = new long[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = samples.get(i);
+            }
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, size * percentile / 100)];
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit the retries of an {@link AsyncHttpProvider} to a percentage of the requests it sends. Every request
+ * deposits a fraction of a retry, every retry withdraws a whole one. The balance never exceeds the minimum number
+ * of retries, so a burst of failures following a quiet period can't be retried more than that, and a failing
+ * host keeps receiving at most {@link RetryPolicy#getBudgetPercent()} percent more requests than without retries.
+ */
+public final class RetryBudget {
+
+    /**
+     * The balance is kept in hundredth of a retry.
+     */
+    private final static int RETRY = 100;
+
+    private final int percent;
+    private final long maxBalance;
+    private final AtomicLong balance;
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Create a {@link RetryBudget}
+     *
+     * @param percent    the number of retries allowed for every hundred requests.
+     * @param minRetries the number of retries allowed regardless of the traffic.
+     */
+    public RetryBudget(int percent, int minRetries) {
+        this.percent = percent;
+        this.maxBalance = Math.max(minRetries, 1) * (long) RETRY;
+        this.balance = new AtomicLong(minRetries * (long) RETRY);
+    }
+
+    /**
+     * Create a {@link RetryBudget} configured by a {@link RetryPolicy}
+     *
+     * @param retryPolicy a {@link RetryPolicy}
+     */
+    public RetryBudget(RetryPolicy retryPolicy) {
+        this(retryPolicy.getBudgetPercent(), retryPolicy.getBudgetMinRetries());
+    }
+
+    /**
+     * Record a request, other than a retry, has been sent.
+     */
+    public void onRequest() {
+        for (;;) {
+            long b = balance.get();
+            if (b >= maxBalance) {
+                return;
+            }
+            if (balance.compareAndSet(b, Math.min(b + percent, maxBalance))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Try to withdraw a retry from the budget.
+     *
+     * @return true if the request can be retried.
+     */
+    public boolean tryRetry() {
+        for (;;) {
+            long b = balance.get();
+            if (b < RETRY) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (balance.compareAndSet(b, b - RETRY)) {
+                retried.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return the number of retries granted since this instance has been created.
+     *
+     * @return the number of retries granted.
+     */
+    public long getRetryCount() {
+        return retried.get();
+    }
+
+    /**
+     * Return the number of retries refused because the budget was exhausted.
+     *
+     * @return the number of retries refused.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Describe when a failed request is sent again, and how long to wait before doing so. Requests are only replayed
+ * when their body can be produced again. A request that may have reached the server (reset before the response,
+ * or a retryable status code) is only replayed when its method is idempotent; a request whose connection couldn't
+ * be opened is replayed whatever its method.
+ * <p/>
+ * The backoff before the n-th retry is a random value between 0 and
+ * min({@link #getMaxBackoffInMs()}, {@link #getBackoffInMs()} * 2^(n-1)), so clients failing together don't
+ * retry together. Retries are also limited by a {@link RetryBudget}, so they cannot amplify an outage.
+ */
+public final class RetryPolicy {
+
+    private final int maxRetries;
+    private final int backoffInMs;
+    private final int maxBackoffInMs;
+    private final boolean retryOnConnectFailure;
+    private final boolean retryOnResetBeforeResponse;
+    private final Set<Integer> retryableStatusCodes;
+    private final int budgetPercent;
+    private final int budgetMinRetries;
+    private final Random random = new Random();
+
+    private RetryPolicy(int maxRetries,
+                        int backoffInMs,
+                        int maxBackoffInMs,
+                        boolean retryOnConnectFailure,
+                        boolean retryOnResetBeforeResponse,
+                        Set<Integer> retryableStatusCodes,
+                        int budgetPercent,
+                        int budgetMinRetries) {
+        this.maxRetries = maxRetries;
+        this.backoffInMs = backoffInMs;
+        this.maxBackoffInMs = maxBackoffInMs;
+        this.retryOnConnectFailure = retryOnConnectFailure;
+        this.retryOnResetBeforeResponse = retryOnResetBeforeResponse;
+        this.retryableStatusCodes = Collections.unmodifiableSet(new HashSet<Integer>(retryableStatusCodes));
+        this.budgetPercent = budgetPercent;
+        this.budgetMinRetries = budgetMinRetries;
+    }
+
+    /**
+     * Return the maximum number of times a request is sent again.
+     *
+     * @return the maximum number of retries of a request.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Return the backoff in millisecond before the first retry, doubled for every following retry.
+     *
+     * @return the backoff in millisecond before the first retry.
+     */
+    public int getBackoffInMs() {
+        return backoffInMs;
+    }
+
+    /**
+     * Return the maximum backoff in millisecond before a retry.
+     *
+     * @return the maximum backoff in millisecond before a retry.
+     */
+    public int getMaxBackoffInMs() {
+        return maxBackoffInMs;
+    }
+
+    /**
+     * Return true if a request is retried when its connection can't be opened.
+     *
+     * @return true if a request is retried when its connection can't be opened.
+     */
+    public boolean isRetryOnConnectFailure() {
+        return retryOnConnectFailure;
+    }
+
+    /**
+     * Return true if a request is retried when its connection is closed before the response status is received.
+     *
+     * @return true if a request is retried when its connection is closed before the response status is received.
+     */
+    public boolean isRetryOnResetBeforeResponse() {
+        return retryOnResetBeforeResponse;
+    }
+
+    /**
+     * Return the response status codes causing a request to be retried.
+     *
+     * @return the response status codes causing a request to be retried.
+     */
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+
+    /**
+     * Return the number of retries allowed for every hundred requests sent.
+     *
+     * @return the percentage of the requests sent that can be retried.
+     */
+    public int getBudgetPercent() {
+        return budgetPercent;
+    }
+
+    /**
+     * Return the number of retries allowed regardless of the traffic, so clients sending few requests can retry.
+     *
+     * @return the number of retries allowed regardless of the traffic.
+     */
+    public int getBudgetMinRetries() {
+        return budgetMinRetries;
+    }
+
+    /**
+     * Return true if the response status code causes a request to be retried.
+     *
+     * @param statusCode a response status code.
+     * @return true if the response status code causes a request to be retried.
+     */
+    public boolean isRetryableStatus(int statusCode) {
+        return retryableStatusCodes.contains(statusCode);
+    }
+
+    /**
+     * Return true if the {@link Request} can be sent again.
+     *
+     * @param request a {@link Request}
+     * @param sent    false if the connection couldn't be opened, so the server hasn't seen the request.
+     * @return true if the {@link Request} can be sent again.
+     */
+    public boolean isReplayable(Request request, boolean sent) {
+        if (sent && !isIdempotent(request.getReqType())) {
+            return false;
+        }
+        // Streams are consumed and entities written by the application can't be assumed to be written twice.
+        return request.getStreamData() == null && request.getEntityWriter() == null;
+    }
+
+    /**
+     * Return the time in millisecond to wait before sending a request again.
+     *
+     * @param retry the number of the retry, starting at 1.
+     * @return the time in millisecond to wait before sending a request again.
+     */
+    public long backoffInMs(int retry) {
+        long ceiling = backoffInMs;
+        for (int i = 1; i < retry && ceiling < maxBackoffInMs; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, maxBackoffInMs);
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    private static boolean isIdempotent(String method) {
+        return "GET".equalsIgnoreCase(method)
+                || "HEAD".equalsIgnoreCase(method)
+                || "OPTIONS".equalsIgnoreCase(method)
+                || "TRACE".equalsIgnoreCase(method)
+                || "PUT".equalsIgnoreCase(method)
+                || "DELETE".equalsIgnoreCase(method);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "maxRetries=" + maxRetries +
+                ", backoffInMs=" + backoffInMs +
+                ", maxBackoffInMs=" + maxBackoffInMs +
+                ", retryOnConnectFailure=" + retryOnConnectFailure +
+                ", retryOnResetBeforeResponse=" + retryOnResetBeforeResponse +
+                ", retryableStatusCodes=" + retryableStatusCodes +
+                ", budgetPercent=" + budgetPercent +
+                ", budgetMinRetries=" + budgetMinRetries +
+                '}';
+    }
+
+    /**
+     * A builder for {@link RetryPolicy}
+     */
+    public static class RetryPolicyBuilder {
+
+        private int maxRetries = 2;
+        private int backoffInMs = 50;
+        private int maxBackoffInMs = 2000;
+        private boolean retryOnConnectFailure = true;
+        private boolean retryOnResetBeforeResponse = true;
+        private final Set<Integer> retryableStatusCodes = new HashSet<Integer>();
+        private int budgetPercent = 20;
+        private int budgetMinRetries = 10;
+
+        public RetryPolicyBuilder() {
+            retryableStatusCodes.add(502);
+            retryableStatusCodes.add(503);
+        }
+
+        public RetryPolicyBuilder setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public RetryPolicyBuilder setBackoffInMs(int backoffInMs) {
+            this.backoffInMs = backoffInMs;
+            return this;
+        }
+
+        public RetryPolicyBuilder setMaxBackoffInMs(int maxBackoffInMs) {
+            this.maxBackoffInMs = maxBackoffInMs;
+            return this;
+        }
+
+        public RetryPolicyBuilder setRetryOnConnectFailure(boolean retryOnConnectFailure) {
+            this.retryOnConnectFailure = retryOnConnectFailure;
+            return this;
+        }
+
+        public RetryPolicyBuilder setRetryOnResetBeforeResponse(boolean retryOnResetBeforeResponse) {
+            this.retryOnResetBeforeResponse = retryOnResetBeforeResponse;
+            return this;
+        }
+
+        /**
+         * Replace the response status codes causing a request to be retried, 502 and 503 by default.
+         *
+         * @param statusCodes the response status codes.
+         * @return a {@link RetryPolicyBuilder}
+         */
+        public RetryPolicyBuilder setRetryableStatusCodes(int... statusCodes) {
+            retryableStatusCodes.clear();
+            for (int statusCode : statusCodes) {
+                retryableStatusCodes.add(statusCode);
+            }
+            return this;
+        }
+
+        public RetryPolicyBuilder setBudgetPercent(int budgetPercent) {
+            this.budgetPercent = budgetPercent;
+            return this;
+        }
+
+        public RetryPolicyBuilder setBudgetMinRetries(int budgetMinRetries) {
+            this.budgetMinRetries = budgetMinRetries;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(maxRetries,
+                    backoffInMs,
+                    maxBackoffInMs,
+                    retryOnConnectFailure,
+                    retryOnResetBeforeResponse,
+                    retryableStatusCodes,
+                    budgetPercent,
+                    budgetMinRetries);
+        }
+    }
+}
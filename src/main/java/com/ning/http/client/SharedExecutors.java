@@ -0,0 +1,278 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The default executors of {@link AsyncHttpClientConfig}, shared by all the clients. Each config gets its own
+ * {@link ExecutorService} handle, which acquires the shared pool when the first task is submitted, and releases it
+ * when shut down: building a config starts no thread, and the pools are shut down once the last client using them is
+ * closed. The periodic tasks scheduled through a handle are cancelled when it's shut down, like they would be by a
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor}.
+ */
+final class SharedExecutors {
+
+    private final static Shared<ScheduledExecutorService> REAPER = new Shared<ScheduledExecutorService>() {
+        @Override
+        ScheduledExecutorService create() {
+            return Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "AsyncHttpClient-Reaper");
+                }
+            });
+        }
+    };
+
+    private final static Shared<ExecutorService> APPLICATION_THREAD_POOL = new Shared<ExecutorService>() {
+        @Override
+        ExecutorService create() {
+            return Executors.newCachedThreadPool();
+        }
+    };
+
+    private SharedExecutors() {
+    }
+
+    static ScheduledExecutorService reaper() {
+        return new ScheduledHandle(REAPER);
+    }
+
+    static ExecutorService applicationThreadPool() {
+        return new Handle<ExecutorService>(APPLICATION_THREAD_POOL);
+    }
+
+    private abstract static class Shared<E extends ExecutorService> {
+        private E executor;
+        private int references;
+
+        abstract E create();
+
+        synchronized E acquire() {
+            if (references++ == 0) {
+                executor = create();
+            }
+            return executor;
+        }
+
+        synchronized void release() {
+            if (--references == 0) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    private static class Handle<E extends ExecutorService> extends AbstractExecutorService {
+        private final Shared<E> shared;
+        private volatile E executor;
+        private volatile boolean shutdown;
+
+        Handle(Shared<E> shared) {
+            this.shared = shared;
+        }
+
+        E executor() {
+            E e = executor;
+            if (e == null) {
+                synchronized (this) {
+                    if (shutdown) {
+                        throw new RejectedExecutionException("Executor has been shut down");
+                    }
+                    if (executor == null) {
+                        executor = shared.acquire();
+                    }
+                    e = executor;
+                }
+            }
+            return e;
+        }
+
+        void onShutdown() {
+        }
+
+        /**
+         * Reject the tasks submitted once this handle is shut down, even though the shared executor keeps running.
+         */
+        void checkShutdown() {
+            if (shutdown) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+        }
+
+        /* @Override */
+        public void execute(Runnable command) {
+            checkShutdown();
+            executor().execute(command);
+        }
+
+        /* @Override */
+        public synchronized void shutdown() {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            onShutdown();
+            if (executor != null) {
+                shared.release();
+            }
+        }
+
+        /**
+         * Same as {@link #shutdown()}: the running tasks may belong to other clients, so they aren't interrupted.
+         */
+        /* @Override */
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            return Collections.emptyList();
+        }
+
+        /* @Override */
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        /**
+         * Unlike {@link ExecutorService#isTerminated()}, true as soon as this handle is shut down: the tasks already
+         * submitted may still be running on the shared executor.
+         */
+        /* @Override */
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        /**
+         * Unlike {@link ExecutorService#awaitTermination(long, TimeUnit)}, doesn't wait for the tasks already
+         * submitted, which may still be running on the shared executor: returns right away whether this handle is
+         * shut down.
+         */
+        /* @Override */
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return shutdown;
+        }
+    }
+
+    private final static class ScheduledHandle extends Handle<ScheduledExecutorService> implements ScheduledExecutorService {
+        private final ConcurrentHashMap<ScheduledFuture<?>, Boolean> periodicTasks =
+                new ConcurrentHashMap<ScheduledFuture<?>, Boolean>();
+
+        ScheduledHandle(Shared<ScheduledExecutorService> shared) {
+            super(shared);
+        }
+
+        /* @Override */
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            checkShutdown();
+            return executor().schedule(command, delay, unit);
+        }
+
+        /* @Override */
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            checkShutdown();
+            return executor().schedule(callable, delay, unit);
+        }
+
+        /* @Override */
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            checkShutdown();
+            return periodic(executor().scheduleAtFixedRate(command, initialDelay, period, unit));
+        }
+
+        /* @Override */
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            checkShutdown();
+            return periodic(executor().scheduleWithFixedDelay(command, initialDelay, delay, unit));
+        }
+
+        private ScheduledFuture<?> periodic(ScheduledFuture<?> future) {
+            PeriodicTask task = new PeriodicTask(future);
+            periodicTasks.put(task, Boolean.TRUE);
+            // Shut down while the task was being scheduled.
+            if (isShutdown()) {
+                task.cancel(false);
+            }
+            return task;
+        }
+
+        @Override
+        void onShutdown() {
+            for (ScheduledFuture<?> task : periodicTasks.keySet()) {
+                task.cancel(false);
+            }
+        }
+
+        /**
+         * Forget the task once it's cancelled.
+         */
+        private final class PeriodicTask implements ScheduledFuture<Object> {
+            private final ScheduledFuture<?> future;
+
+            private PeriodicTask(ScheduledFuture<?> future) {
+                this.future = future;
+            }
+
+            /* @Override */
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                periodicTasks.remove(this);
+                return future.cancel(mayInterruptIfRunning);
+            }
+
+            /* @Override */
+            public boolean isCancelled() {
+                return future.isCancelled();
+            }
+
+            /* @Override */
+            public boolean isDone() {
+                return future.isDone();
+            }
+
+            /* @Override */
+            public Object get() throws InterruptedException, ExecutionException {
+                return future.get();
+            }
+
+            /* @Override */
+            public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                return future.get(timeout, unit);
+            }
+
+            /* @Override */
+            public long getDelay(TimeUnit unit) {
+                return future.getDelay(unit);
+            }
+
+            /* @Override */
+            public int compareTo(Delayed o) {
+                return future.compareTo(o);
+            }
+        }
+    }
+}
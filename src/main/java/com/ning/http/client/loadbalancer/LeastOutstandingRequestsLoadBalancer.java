@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.ning.http.client.loadbalancer;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link LoadBalancer} sending requests to the endpoint processing the fewest requests. Ties are broken in a round
+ * robin fashion so idle endpoints are all used.
+ */
+public class LeastOutstandingRequestsLoadBalancer extends OutstandingRequestsLoadBalancer {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /* @Override */
+    public InetSocketAddress select(String baseUrl, List<InetSocketAddress> endpoints) {
+        int size = endpoints.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+
+        InetSocketAddress selected = null;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            InetSocketAddress endpoint = endpoints.get((start + i) % size);
+            int count = getOutstandingRequests(endpoint);
+            if (count < min) {
+                min = count;
+                selected = endpoint;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.ning.http.client.loadbalancer;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Choose, for every new request, which endpoint of a logical host the request is sent to. The endpoints are either
+ * the ones configured using {@link com.ning.http.client.AsyncHttpClientConfig.Builder#addEndpoint(String, String, int)}
+ * or all the addresses the host name resolves to. Each endpoint gets its own partition in the
+ * {@link com.ning.http.client.ConnectionsPool}, so a connection is only reused for the endpoint it was selected for.
+ */
+public interface LoadBalancer {
+
+    /**
+     * Select the endpoint a request to a host will be sent to.
+     *
+     * @param baseUrl   the scheme, host and port of the request uri.
+     * @param endpoints the endpoints available for that host, never empty.
+     * @return one of the endpoints.
+     */
+    public InetSocketAddress select(String baseUrl, List<InetSocketAddress> endpoints);
+
+    /**
+     * Invoked when a request starts being processed by an endpoint returned by {@link #select(String, List)}.
+     *
+     * @param endpoint the endpoint
+     */
+    public void onRequestStarted(InetSocketAddress endpoint);
+
+    /**
+     * Invoked once the request started using {@link #onRequestStarted(InetSocketAddress)} has completed, successfully
+     * or not.
+     *
+     * @param endpoint the endpoint
+     */
+    public void onRequestCompleted(InetSocketAddress endpoint);
+}
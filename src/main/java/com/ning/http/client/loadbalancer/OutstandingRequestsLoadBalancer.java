@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.ning.http.client.loadbalancer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base class for {@link LoadBalancer}s selecting endpoints based on the number of requests they are processing.
+ */
+public abstract class OutstandingRequestsLoadBalancer implements LoadBalancer {
+
+    private final ConcurrentHashMap<InetSocketAddress, AtomicInteger> outstanding =
+            new ConcurrentHashMap<InetSocketAddress, AtomicInteger>();
+
+    /**
+     * Return the number of requests an endpoint is currently processing.
+     *
+     * @param endpoint the endpoint
+     * @return the number of requests an endpoint is currently processing.
+     */
+    public int getOutstandingRequests(InetSocketAddress endpoint) {
+        AtomicInteger count = outstanding.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /* @Override */
+    public void onRequestStarted(InetSocketAddress endpoint) {
+        AtomicInteger count = outstanding.get(endpoint);
+        if (count == null) {
+            count = new AtomicInteger();
+            AtomicInteger previous = outstanding.putIfAbsent(endpoint, count);
+            if (previous != null) {
+                count = previous;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /* @Override */
+    public void onRequestCompleted(InetSocketAddress endpoint) {
+        AtomicInteger count = outstanding.get(endpoint);
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.ning.http.client.loadbalancer;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A {@link LoadBalancer} picking two endpoints at random and sending the request to the one processing the fewest
+ * requests. Unlike {@link LeastOutstandingRequestsLoadBalancer} it doesn't scan every endpoint, and doesn't make all
+ * concurrent callers pile up on the same least loaded endpoint.
+ */
+public class PowerOfTwoChoicesLoadBalancer extends OutstandingRequestsLoadBalancer {
+
+    private final Random random = new Random();
+
+    /* @Override */
+    public InetSocketAddress select(String baseUrl, List<InetSocketAddress> endpoints) {
+        int size = endpoints.size();
+        if (size == 1) {
+            return endpoints.get(0);
+        }
+
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        InetSocketAddress a = endpoints.get(first);
+        InetSocketAddress b = endpoints.get(second);
+        return getOutstandingRequests(a) <= getOutstandingRequests(b) ? a : b;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.ning.http.client.loadbalancer;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link LoadBalancer} sending requests to each endpoint in turn.
+ */
+public class RoundRobinLoadBalancer implements LoadBalancer {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /* @Override */
+    public InetSocketAddress select(String baseUrl, List<InetSocketAddress> endpoints) {
+        int index = (next.getAndIncrement() & Integer.MAX_VALUE) % endpoints.size();
+        return endpoints.get(index);
+    }
+
+    /* @Override */
+    public void onRequestStarted(InetSocketAddress endpoint) {
+    }
+
+    /* @Override */
+    public void onRequestCompleted(InetSocketAddress endpoint) {
+    }
+}
@@ -59,11 +59,35 @@ public class OAuthSignatureCalculator
     /**
      * To generate Nonce, need some (pseudo)randomness; no need for
      * secure variant here.
+     *
+     * @deprecated no longer used: each thread generates nonces with its own {@link Random}.
      */
+    @Deprecated
     protected final Random random;
 
+    /**
+     * @deprecated no longer used: each thread generates nonces with its own buffer.
+     */
+    @Deprecated
     protected final byte[] nonceBuffer = new byte[16];
 
+    /**
+     * The nonce generator and parameter set of each thread, so signing neither locks nor allocates them.
+     */
+    private final static ThreadLocal<Nonces> NONCES = new ThreadLocal<Nonces>() {
+        @Override
+        protected Nonces initialValue() {
+            return new Nonces();
+        }
+    };
+
+    private final static ThreadLocal<OAuthParameterSet> PARAMETERS = new ThreadLocal<OAuthParameterSet>() {
+        @Override
+        protected OAuthParameterSet initialValue() {
+            return new OAuthParameterSet();
+        }
+    };
+
     protected final ThreadSafeHMAC mac;
 
     protected final ConsumerKey consumerAuth;
@@ -121,7 +145,7 @@ public class OAuthSignatureCalculator
          * List of all query and form parameters added to this request; needed
          * for calculating request signature
          */
-        OAuthParameterSet allParameters = new OAuthParameterSet();
+        OAuthParameterSet allParameters = PARAMETERS.get().clear();
 
         // start with standard OAuth parameters we need
         allParameters.add(KEY_OAUTH_CONSUMER_KEY, consumerAuth.getKey());
@@ -183,11 +207,19 @@ public class OAuthSignatureCalculator
         return sb.toString();
     }
 
-    private synchronized String generateNonce() {
-        random.nextBytes(nonceBuffer);
-        // let's use base64 encoding over hex, slightly more compact than hex or decimals
-        return Base64.encode(nonceBuffer);
-//      return String.valueOf(Math.abs(random.nextLong()));
+    private String generateNonce() {
+        return NONCES.get().next();
+    }
+
+    private final static class Nonces {
+        private final Random random = new Random();
+        private final byte[] buffer = new byte[16];
+
+        String next() {
+            random.nextBytes(buffer);
+            // let's use base64 encoding over hex, slightly more compact than hex or decimals
+            return Base64.encode(buffer);
+        }
     }
 
     /**
@@ -201,9 +233,21 @@ public class OAuthSignatureCalculator
     final static class OAuthParameterSet {
         final private ArrayList<Parameter> allParameters = new ArrayList<Parameter>();
 
+        // Reused by sortAndConcat()
+        private Parameter[] params = new Parameter[16];
+        final private StringBuilder encodedParams = new StringBuilder(100);
+
         public OAuthParameterSet() {
         }
 
+        /**
+         * Remove the parameters, to reuse the set and its buffers.
+         */
+        public OAuthParameterSet clear() {
+            allParameters.clear();
+            return this;
+        }
+
         public OAuthParameterSet add(String key, String value) {
             Parameter p = new Parameter(UTF8UrlEncoder.encode(key), UTF8UrlEncoder.encode(value));
             allParameters.add(p);
@@ -212,17 +256,19 @@ public class OAuthSignatureCalculator
 
         public String sortAndConcat() {
             // then sort them (AFTER encoding, important)
-            Parameter[] params = allParameters.toArray(new Parameter[allParameters.size()]);
-            Arrays.sort(params);
+            int size = allParameters.size();
+            params = allParameters.toArray(params);
+            Arrays.sort(params, 0, size);
 
             // and build parameter section using pre-encoded pieces:
-            StringBuilder encodedParams = new StringBuilder(100);
-            for (Parameter param : params) {
-                if (encodedParams.length() > 0) {
+            encodedParams.setLength(0);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
                     encodedParams.append('&');
                 }
-                encodedParams.append(param.key()).append('=').append(param.value());
+                encodedParams.append(params[i].key()).append('=').append(params[i].value());
             }
+            Arrays.fill(params, 0, size, null);
             return encodedParams.toString();
         }
     }
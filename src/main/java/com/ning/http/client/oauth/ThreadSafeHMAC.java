@@ -22,11 +22,10 @@ import javax.crypto.spec.SecretKeySpec;
 import com.ning.http.util.UTF8Codec;
 
 /**
- * Since cloning (of MAC instances)  is not necessarily supported on all platforms
- * (and specifically seems to fail on MacOS), let's wrap synchronization/reuse details here.
- * Assumption is that this is bit more efficient (even considering synchronization)
- * than locating and reconstructing instance each time.
- * In future we may want to use soft references and thread local instance.
+ * Each thread signs with its own MAC instance, so signing doesn't serialize threads. The instances are cloned from
+ * the one initialized with the key; since cloning (of MAC instances) is not necessarily supported on all platforms
+ * (and specifically seems to fail on MacOS), they are otherwise created and initialized anew. Should that fail too,
+ * the shared instance is used, synchronized.
  * 
  * @author tatu (tatu.saloranta@iki.fi)
  */
@@ -34,12 +33,21 @@ public class ThreadSafeHMAC
 {
     private static final String HMAC_SHA1_ALGORITHM = "HmacSHA1";
     
+    private final SecretKeySpec signingKey;
+
     private final Mac mac;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            return newMac();
+        }
+    };
     
     public ThreadSafeHMAC(ConsumerKey consumerAuth, RequestToken userAuth)
     {
         byte[] keyBytes = UTF8Codec.toUTF8(consumerAuth.getSecret() + "&" + userAuth.getSecret());
-        SecretKeySpec signingKey = new SecretKeySpec(keyBytes, HMAC_SHA1_ALGORITHM);
+        signingKey = new SecretKeySpec(keyBytes, HMAC_SHA1_ALGORITHM);
         
         // Get an hmac_sha1 instance and initialize with the signing key
         try {
@@ -51,9 +59,36 @@ public class ThreadSafeHMAC
         
     }
 
-    public synchronized byte[] digest(byte[] message)
+    /**
+     * Return a new MAC instance initialized with the key, null if none can be created.
+     */
+    private Mac newMac()
     {
-        mac.reset();
-        return mac.doFinal(message);
+        try {
+            synchronized (mac) {
+                return (Mac) mac.clone();
+            }
+        } catch (CloneNotSupportedException e) {
+            try {
+                Mac m = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+                m.init(signingKey);
+                return m;
+            } catch (Exception e2) {
+                return null;
+            }
+        }
+    }
+
+    public byte[] digest(byte[] message)
+    {
+        Mac m = macs.get();
+        if (m == null) {
+            synchronized (mac) {
+                mac.reset();
+                return mac.doFinal(message);
+            }
+        }
+        // doFinal() resets the instance for the next message.
+        return m.doFinal(message);
     }
 }
@@ -20,6 +20,7 @@ import com.ning.http.client.AsyncHandler;
 import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.AsyncHttpProvider;
 import com.ning.http.client.AsyncHttpProviderConfig;
+import com.ning.http.client.ConnectionPermits;
 import com.ning.http.client.ConnectionsPool;
 import com.ning.http.client.FluentCaseInsensitiveStringsMap;
 import com.ning.http.client.HttpResponseBodyPart;
@@ -75,7 +76,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
 public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection> {
@@ -91,22 +91,40 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
 
     private final static int MAX_BUFFERED_BYTES = 8192;
 
-    private final AtomicInteger maxConnections = new AtomicInteger();
+    /**
+     * The number of bytes read from a response that isn't consumed, a redirect for instance, to keep its connection
+     * alive. A longer response is disconnected instead.
+     */
+    private final static int MAX_DRAINED_BYTES = 64 * 1024;
+
+    private final ConnectionPermits connectionPermits;
 
     private String jdkNtlmDomain;
 
     private Authenticator jdkAuthenticator;
 
     public JDKAsyncHttpProvider(AsyncHttpClientConfig config) {
+        // This is dangerous as we can't catch a wrong typed ConnectionsPool
+        this(config, (ConnectionsPool<String, URLConnection>) config.getConnectionsPool());
+    }
+
+    /**
+     * Create a provider using its own {@link ConnectionsPool}, rather than the one of the {@link AsyncHttpClientConfig}
+     * which may be meant for another provider.
+     *
+     * @param config         the {@link AsyncHttpClientConfig}
+     * @param connectionsPool the {@link ConnectionsPool} of the provider, null for a {@link JDKConnectionsPool}.
+     */
+    public JDKAsyncHttpProvider(AsyncHttpClientConfig config, ConnectionsPool<String, URLConnection> connectionsPool) {
 
         this.config = config;
 
-        // This is dangerous as we can't catch a wrong typed ConnectionsPool
-        ConnectionsPool<String, URLConnection> cp = (ConnectionsPool<String, URLConnection>) config.getConnectionsPool();
+        ConnectionsPool<String, URLConnection> cp = connectionsPool;
         if (cp == null) {
             cp = new JDKConnectionsPool(config);
         }
         this.connectionsPool = cp;
+        this.connectionPermits = new ConnectionPermits(config);
 
         AsyncHttpProviderConfig<?, ?> providerConfig = config.getAsyncHttpProviderConfig();
         if (providerConfig != null && JDKAsyncHttpProviderConfig.class.isAssignableFrom(providerConfig.getClass())) {
@@ -123,10 +141,6 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
             throw new IOException("Closed");
         }
 
-        if (config.getMaxTotalConnections() > -1 && (maxConnections.get() + 1) > config.getMaxTotalConnections()) {
-            throw new IOException(String.format("Too many connections %s", config.getMaxTotalConnections()));
-        }
-
         ProxyServer proxyServer = request.getProxyServer() != null ? request.getProxyServer() : config.getProxyServer();
         Proxy proxy = null;
         if (proxyServer != null || request.getRealm() != null) {
@@ -137,12 +151,27 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
             }
         }
 
-        HttpURLConnection urlConnection = createUrlConnection(request);
-        JDKFuture f = new JDKFuture<T>(handler, config.getRequestTimeoutInMs());
-        f.setInnerFuture(config.executorService().submit(new AsyncHttpUrlConnection(urlConnection, request, handler, f)));
-        maxConnections.incrementAndGet();
-        
-        return f;
+        String host = AsyncHttpProviderUtils.getBaseUrl(AsyncHttpProviderUtils.createUri(request.getUrl()));
+        if (!connectionPermits.tryAcquire(host)) {
+            if (config.getMaxConnectionPerHost() != -1
+                    && connectionPermits.getOpenConnections(host) >= config.getMaxConnectionPerHost()) {
+                throw new IOException(String.format("Too many connections per host %s", config.getMaxConnectionPerHost()));
+            }
+            throw new IOException(String.format("Too many connections %s", config.getMaxTotalConnections()));
+        }
+
+        try {
+            HttpURLConnection urlConnection = createUrlConnection(request);
+            JDKFuture f = new JDKFuture<T>(handler, config.getRequestTimeoutInMs());
+            f.setInnerFuture(config.executorService().submit(new AsyncHttpUrlConnection(urlConnection, request, handler, f, host)));
+            return f;
+        } catch (IOException ex) {
+            connectionPermits.release(host);
+            throw ex;
+        } catch (RuntimeException ex) {
+            connectionPermits.release(host);
+            throw ex;
+        }
     }
 
     private HttpURLConnection createUrlConnection(Request request) throws IOException {
@@ -189,6 +218,26 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
 
     public void close() {
         isClose.set(true);
+        connectionsPool.destroy();
+        config.executorService().shutdown();
+    }
+
+    /**
+     * Return the {@link ConnectionsPool} tracking the idle connections of this provider.
+     *
+     * @return the {@link ConnectionsPool} tracking the idle connections of this provider.
+     */
+    public ConnectionsPool<String, URLConnection> getConnectionsPool() {
+        return connectionsPool;
+    }
+
+    /**
+     * Return the {@link ConnectionPermits} tracking the connections opened by this provider.
+     *
+     * @return the {@link ConnectionPermits} tracking the connections opened by this provider.
+     */
+    public ConnectionPermits getConnectionPermits() {
+        return connectionPermits;
     }
 
     public Response prepareResponse(HttpResponseStatus status, HttpResponseHeaders headers, Collection<HttpResponseBodyPart> bodyParts) {
@@ -206,9 +255,12 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
         private AtomicBoolean isAuth = new AtomicBoolean(false);
         private byte[] cachedBytes;
         private int cachedBytesLenght;
+        private byte[] bodyBuffer;
+        private final String host;
 
-        public AsyncHttpUrlConnection(HttpURLConnection urlConnection, Request request, AsyncHandler<T> asyncHandler, JDKFuture future) {
+        public AsyncHttpUrlConnection(HttpURLConnection urlConnection, Request request, AsyncHandler<T> asyncHandler, JDKFuture future, String host) {
             this.urlConnection = urlConnection;
+            this.host = host;
             this.request = request;
             this.asyncHandler = asyncHandler;
             this.future = future;
@@ -216,7 +268,20 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
         }
 
         public T call() throws Exception {
+            try {
+                return doCall();
+            } finally {
+                // Redirects and authentication retries re-enter doCall, the permit is released only once.
+                connectionPermits.release(host);
+            }
+        }
+
+        private T doCall() throws Exception {
             AsyncHandler.STATE state = AsyncHandler.STATE.ABORT;
+            HttpURLConnection connection = urlConnection;
+            String poolKey = null;
+            boolean drained = false;
+            boolean released = false;
             try {
                 URI uri = null;
                 // Encoding with URLConnection is a bit bogus so we need to try both way before setting it
@@ -225,6 +290,8 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
                 } catch (IllegalArgumentException u) {
                     uri = AsyncHttpProviderUtils.createUri(request.getUrl());
                 }
+                poolKey = AsyncHttpProviderUtils.getBaseUrl(uri);
+                connectionsPool.removeConnection(poolKey);
 
                 configure(uri, urlConnection, request);
                 urlConnection.connect();
@@ -248,6 +315,9 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
                         if (!location.equals(uri.toString())) {
                             URI newUri = AsyncHttpProviderUtils.createUri(location);
 
+                            released = true;
+                            release(poolKey, connection, drain(connection));
+
                             RequestBuilder builder = new RequestBuilder(request);
                             String newUrl = newUri.toString();
 
@@ -256,7 +326,7 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
                             }
                             request = builder.setUrl(newUrl).build();
                             urlConnection = createUrlConnection(request);
-                            return call();
+                            return doCall();
                         }
                     } else {
                         throw new MaxRedirectException("Maximum redirect reached: " + config.getMaxRedirects());
@@ -278,10 +348,13 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
                             .setScheme(request.getRealm().getAuthScheme())
                             .setUsePreemptiveAuth(true)
                             .build();
+                    released = true;
+                    release(poolKey, connection, drain(connection));
+
                     RequestBuilder builder = new RequestBuilder(request);
                     request = builder.setRealm(realm).build();
                     urlConnection = createUrlConnection(request);
-                    return call();
+                    return doCall();
                 }
 
                 state = asyncHandler.onStatusReceived(new ResponseStatus(uri, urlConnection, JDKAsyncHttpProvider.this));
@@ -297,14 +370,21 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
                         is = new GZIPInputStream(is);
                     }
 
-                    int[] lengthWrapper = new int[1];
-                    byte[] bytes = AsyncHttpProviderUtils.readFully(is, lengthWrapper);
-                    if (lengthWrapper[0] > 0) {
-                        byte[] body = new byte[lengthWrapper[0]];
-                        System.arraycopy(bytes, 0, body, 0, lengthWrapper[0]);
-
-                        asyncHandler.onBodyPartReceived(new ResponseBodyPart(uri, body, JDKAsyncHttpProvider.this));
+                    if (bodyBuffer == null) {
+                        bodyBuffer = new byte[MAX_BUFFERED_BYTES];
                     }
+                    int read;
+                    while ((read = is.read(bodyBuffer)) != -1) {
+                        // The handler may keep the part, so it gets its own copy of the bytes.
+                        byte[] body = new byte[read];
+                        System.arraycopy(bodyBuffer, 0, body, 0, read);
+                        if (asyncHandler.onBodyPartReceived(new ResponseBodyPart(uri, body, JDKAsyncHttpProvider.this))
+                                == AsyncHandler.STATE.ABORT) {
+                            break;
+                        }
+                    }
+                    // The connection is only reusable if the body has been read to the end.
+                    drained = read == -1;
                 }
 
                 if (ProgressAsyncHandler.class.isAssignableFrom(asyncHandler.getClass())) {
@@ -324,10 +404,9 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
                     logger.error(t2);
                 }
             } finally {
-                if (config.getMaxTotalConnections() != -1) {
-                    maxConnections.decrementAndGet();
+                if (!released) {
+                    release(poolKey, connection, drained);
                 }
-                urlConnection.disconnect();
                 if (jdkNtlmDomain != null) {
                     System.setProperty(NTLM_DOMAIN, jdkNtlmDomain);
                 }
@@ -589,6 +668,47 @@ public class JDKAsyncHttpProvider implements AsyncHttpProvider<HttpURLConnection
         return proxy;
     }
 
+    /**
+     * Read what's left of a response, up to {@link #MAX_DRAINED_BYTES}.
+     *
+     * @return true if the response has been fully read.
+     */
+    private boolean drain(HttpURLConnection connection) {
+        try {
+            InputStream is = getInputStream(connection);
+            byte[] buffer = new byte[MAX_BUFFERED_BYTES];
+            int drained = 0;
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAINED_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Keep the connection alive if its response has been fully read and the pool accepts it, disconnect it
+     * otherwise.
+     */
+    private void release(String poolKey, HttpURLConnection connection, boolean drained) {
+        if (drained && poolKey != null && !"close".equalsIgnoreCase(connection.getHeaderField("Connection"))
+                && connectionsPool.addConnection(poolKey, connection)) {
+            try {
+                // Closing the stream hands the socket back to the JDK's keep-alive cache.
+                getInputStream(connection).close();
+                return;
+            } catch (IOException ex) {
+                connectionsPool.removeAllConnections(connection);
+            }
+        }
+        connection.disconnect();
+    }
+
     private InputStream getInputStream(HttpURLConnection urlConnection) throws IOException {
         if (urlConnection.getResponseCode() < 400) {
             return urlConnection.getInputStream();
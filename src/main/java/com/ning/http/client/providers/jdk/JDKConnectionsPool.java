@@ -19,35 +19,177 @@ package com.ning.http.client.providers.jdk;
 import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.ConnectionsPool;
 
+import java.net.HttpURLConnection;
 import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-
+/**
+ * The idle connections of the {@link JDKAsyncHttpProvider}. {@link HttpURLConnection} doesn't expose its sockets:
+ * once a response has been fully read and its stream closed, the socket is kept in the JDK's own keep-alive cache,
+ * and reused by the next request to the same host. This pool tracks those idle sockets, by the
+ * {@link URLConnection} they served, so their number per host and in total is bounded by
+ * {@link AsyncHttpClientConfig#getMaxConnectionPerHost()} and {@link AsyncHttpClientConfig#getMaxTotalConnections()}:
+ * a connection the pool refuses is disconnected instead of being kept alive.
+ * <p/>
+ * The JDK also bounds its cache, by the <tt>http.maxConnections</tt> system property, 5 by default, and expires the
+ * idle sockets itself, so the counts are an upper bound.
+ */
 public class JDKConnectionsPool implements ConnectionsPool<String, URLConnection> {
 
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<URLConnection>> connectionsPool =
+            new ConcurrentHashMap<String, ConcurrentLinkedQueue<URLConnection>>();
+    private final AsyncHttpClientConfig config;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
 
     public JDKConnectionsPool(AsyncHttpClientConfig config) {
+        this.config = config;
     }
 
+    /**
+     * {@inheritDoc}
+     */
     public boolean addConnection(String uri, URLConnection connection) {
-        return false;  
+        if (!config.getKeepAlive() || !canCacheConnection()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        ConcurrentLinkedQueue<URLConnection> idleConnections = connectionsPool.get(uri);
+        if (idleConnections == null) {
+            ConcurrentLinkedQueue<URLConnection> newPool = new ConcurrentLinkedQueue<URLConnection>();
+            idleConnections = connectionsPool.putIfAbsent(uri, newPool);
+            if (idleConnections == null) {
+                idleConnections = newPool;
+            }
+        }
+
+        if (config.getMaxConnectionPerHost() != -1 && idleConnections.size() >= config.getMaxConnectionPerHost()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        idleConnections.add(connection);
+        size.incrementAndGet();
+        return true;
     }
 
+    /**
+     * {@inheritDoc}
+     */
     public URLConnection getConnection(String uri) {
-        return null;  
+        ConcurrentLinkedQueue<URLConnection> idleConnections = connectionsPool.get(uri);
+        return idleConnections != null ? idleConnections.peek() : null;
     }
 
+    /**
+     * Take an idle connection before sending a request to <tt>uri</tt>, whose socket the JDK is then expected to
+     * reuse.
+     *
+     * @param uri the uri used when invoking addConnection
+     * @return the connection that served the last request, null if a new socket will be opened.
+     */
     public URLConnection removeConnection(String uri) {
-        return null;  
+        ConcurrentLinkedQueue<URLConnection> idleConnections = connectionsPool.get(uri);
+        URLConnection connection = idleConnections != null ? idleConnections.poll() : null;
+        if (connection != null) {
+            size.decrementAndGet();
+            reused.incrementAndGet();
+        } else {
+            opened.incrementAndGet();
+        }
+        return connection;
     }
 
+    /**
+     * {@inheritDoc}
+     */
     public boolean removeAllConnections(URLConnection connection) {
-        return false;  
+        boolean isRemoved = false;
+        for (ConcurrentLinkedQueue<URLConnection> idleConnections : connectionsPool.values()) {
+            if (idleConnections.remove(connection)) {
+                size.decrementAndGet();
+                isRemoved = true;
+            }
+        }
+        return isRemoved;
     }
 
+    /**
+     * {@inheritDoc}
+     */
     public boolean canCacheConnection() {
-       return false;
+        return config.getMaxTotalConnections() == -1 || size.get() < config.getMaxTotalConnections();
+    }
+
+    /**
+     * Return the number of idle connections to <tt>uri</tt>.
+     *
+     * @param uri the uri used when invoking addConnection
+     * @return the number of idle connections to <tt>uri</tt>.
+     */
+    public int size(String uri) {
+        ConcurrentLinkedQueue<URLConnection> idleConnections = connectionsPool.get(uri);
+        return idleConnections != null ? idleConnections.size() : 0;
+    }
+
+    /**
+     * Return the total number of idle connections.
+     *
+     * @return the total number of idle connections.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Return the number of requests sent on an idle connection.
+     *
+     * @return the number of requests sent on an idle connection.
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * Return the number of requests sent without an idle connection.
+     *
+     * @return the number of requests sent without an idle connection.
+     */
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * Return the number of connections closed because the pool was full, or keep-alive disabled.
+     *
+     * @return the number of connections the pool refused.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
     }
 
-    public void destroy() {        
+    /**
+     * {@inheritDoc}
+     */
+    public void destroy() {
+        for (Map.Entry<String, ConcurrentLinkedQueue<URLConnection>> e : connectionsPool.entrySet()) {
+            Iterator<URLConnection> i = e.getValue().iterator();
+            while (i.hasNext()) {
+                URLConnection connection = i.next();
+                i.remove();
+                size.decrementAndGet();
+                if (connection instanceof HttpURLConnection) {
+                    ((HttpURLConnection) connection).disconnect();
+                }
+            }
+        }
+        connectionsPool.clear();
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.logging.LogManager;
+import com.ning.http.client.logging.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The time spent in the {@link AsyncHandler} callbacks of the {@link NettyAsyncHttpProvider}. A callback taking
+ * longer than the <tt>slowCallbackThresholdInMs</tt> property of the {@link NettyAsyncHttpProviderConfig} is logged,
+ * with the class of its handler.
+ */
+public final class CallbackMetrics {
+
+    private final static Logger log = LogManager.getLogger(CallbackMetrics.class);
+
+    private final long slowThresholdInNanos;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong slowCount = new AtomicLong();
+    private volatile String slowest;
+
+    CallbackMetrics(long slowThresholdInMs) {
+        this.slowThresholdInNanos = slowThresholdInMs > 0 ? TimeUnit.MILLISECONDS.toNanos(slowThresholdInMs) : -1;
+    }
+
+    void record(AsyncHandler<?> handler, String callback, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        count.incrementAndGet();
+        totalNanos.addAndGet(elapsed);
+
+        long max;
+        while (elapsed > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, elapsed)) {
+                slowest = handler.getClass().getName() + "." + callback;
+                break;
+            }
+        }
+
+        if (slowThresholdInNanos != -1 && elapsed >= slowThresholdInNanos) {
+            slowCount.incrementAndGet();
+            log.warn(String.format("%s.%s took %d ms", handler.getClass().getName(), callback,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed)));
+        }
+    }
+
+    /**
+     * Return the number of callbacks invoked.
+     *
+     * @return the number of callbacks invoked.
+     */
+    public long getCallbackCount() {
+        return count.get();
+    }
+
+    /**
+     * Return the time spent in all the callbacks.
+     *
+     * @return the time spent in all the callbacks, in microseconds.
+     */
+    public long getTotalTimeInMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(totalNanos.get());
+    }
+
+    /**
+     * Return the time spent in the slowest callback.
+     *
+     * @return the time spent in the slowest callback, in microseconds.
+     */
+    public long getMaxTimeInMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+    }
+
+    /**
+     * Return the number of callbacks slower than the threshold.
+     *
+     * @return the number of callbacks slower than the threshold.
+     */
+    public long getSlowCallbackCount() {
+        return slowCount.get();
+    }
+
+    /**
+     * Return the slowest callback, as the class of its handler followed by the name of the method.
+     *
+     * @return the slowest callback, null if none has been invoked.
+     */
+    public String getSlowestCallback() {
+        return slowest;
+    }
+}
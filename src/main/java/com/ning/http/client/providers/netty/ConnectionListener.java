@@ -19,9 +19,11 @@ package com.ning.http.client.providers.netty;
 import com.ning.http.client.AsyncHandler;
 import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.Request;
+import com.ning.http.client.RetryPolicy;
 import com.ning.http.client.logging.LogManager;
 import com.ning.http.client.logging.Logger;
 import com.ning.http.util.AsyncHttpProviderUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.handler.codec.http.HttpRequest;
@@ -56,7 +58,10 @@ final class ConnectListener<T> implements ChannelFutureListener {
         try {
             future.provider().executeRequest(f.getChannel(), config, future, nettyRequest);
         } catch (ConnectException ex) {
-            future.abort(ex);
+            RetryPolicy retryPolicy = config.getRetryPolicy();
+            if (retryPolicy == null || !retryPolicy.isRetryOnConnectFailure() || !future.provider().retry(future, false, ex)) {
+                future.abort(ex);
+            }
         }
     }
 
@@ -87,10 +92,18 @@ final class ConnectListener<T> implements ChannelFutureListener {
 
         public ConnectListener<T> build() throws IOException {
             URI uri = AsyncHttpProviderUtils.createUri(request.getRawUrl().replace(" ", "%20"));
-            HttpRequest nettyRequest = NettyAsyncHttpProvider.buildRequest(config, request, uri, true, null);
+            ChannelBuffer buffer = null;
+            if (future != null && request.getStreamData() != null && future.getNettyRequest() != null) {
+                // The stream has already been read into the request of the future.
+                buffer = future.getNettyRequest().getContent();
+            }
+            HttpRequest nettyRequest = NettyAsyncHttpProvider.buildRequest(config, request, uri, true, buffer,
+                    provider.getBodyBufferFactory());
             if (future == null) {
                 future = new NettyResponseFuture<T>(uri, request, asyncHandler,
                         nettyRequest, NettyAsyncHttpProvider.requestTimeout(config, request.getPerRequestConfig()), provider);
+            } else {
+                future.holdPooledBody(nettyRequest);
             }
             return new ConnectListener<T>(config, future, nettyRequest);
         }
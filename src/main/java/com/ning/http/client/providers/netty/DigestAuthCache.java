@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import com.ning.http.client.Realm;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The last Digest challenge received for each realm of a host, so the requests with a
+ * {@link Realm.AuthScheme#DIGEST} realm send their credentials right away instead of waiting for a 401: the nonce of
+ * the challenge is reused with an incremented nonce count, until the server rejects it as stale and sends a new
+ * challenge. A request whose realm has no name uses the last challenge of the host, whatever its realm.
+ */
+final class DigestAuthCache {
+
+    private final ConcurrentHashMap<String, Challenge> challenges = new ConcurrentHashMap<String, Challenge>();
+    private final ConcurrentHashMap<String, Challenge> lastChallenges = new ConcurrentHashMap<String, Challenge>();
+
+    /**
+     * Remember the challenge received from a host.
+     *
+     * @param baseUrl the scheme, host and port of the host.
+     * @param realm   the realm parsed from the <tt>WWW-Authenticate</tt> header.
+     */
+    void challenged(String baseUrl, Realm realm) {
+        Challenge challenge = new Challenge(realm);
+        challenges.put(key(baseUrl, challenge.realmName), challenge);
+        lastChallenges.put(baseUrl, challenge);
+    }
+
+    /**
+     * Return the request with the credentials answering the last challenge of its host, or the request itself if it
+     * doesn't use Digest authentication or no challenge of its realm has been received.
+     */
+    Request authenticate(Request request, URI uri, String baseUrl) {
+        Realm realm = request.getRealm();
+        if (realm == null || realm.getAuthScheme() != Realm.AuthScheme.DIGEST) {
+            return request;
+        }
+
+        String realmName = realm.getRealmName();
+        Challenge challenge = realmName != null && !realmName.equals("")
+                ? challenges.get(key(baseUrl, realmName)) : lastChallenges.get(baseUrl);
+        if (challenge == null) {
+            return request;
+        }
+
+        Realm preemptive = new Realm.RealmBuilder().clone(realm)
+                .setRealmName(challenge.realmName)
+                .setNonce(challenge.nonce)
+                .setQop(challenge.qop)
+                .setAlgorithm(challenge.algorithm)
+                .setNc(String.format("%08x", challenge.nc.incrementAndGet()))
+                .setUri(uri.getPath())
+                .setMethodName(request.getReqType())
+                .setUsePreemptiveAuth(true)
+                .build();
+        return new RequestBuilder(request).setRealm(preemptive).build();
+    }
+
+    private static String key(String baseUrl, String realmName) {
+        return baseUrl + "#" + realmName;
+    }
+
+    private final static class Challenge {
+        private final String realmName;
+        private final String nonce;
+        private final String qop;
+        private final String algorithm;
+        private final AtomicInteger nc = new AtomicInteger();
+
+        private Challenge(Realm realm) {
+            realmName = realm.getRealmName();
+            nonce = realm.getNonce();
+            qop = realm.getQop();
+            algorithm = realm.getAlgorithm();
+        }
+    }
+}
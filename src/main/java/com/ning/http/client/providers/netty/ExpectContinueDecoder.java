@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import com.ning.http.client.logging.LogManager;
+import com.ning.http.client.logging.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.util.CharsetUtil;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Installed in front of the HTTP codec while a request sent with <tt>Expect: 100-continue</tt> waits for the
+ * server's answer. An interim 1xx response is swallowed, the HTTP codec expecting a single response per request,
+ * and the body is sent when it's a 100 (Continue). A final response means the server rejected the request: the body
+ * is never sent, and the connection isn't reused. If the server doesn't answer within
+ * {@link com.ning.http.client.AsyncHttpClientConfig#getExpectContinueTimeoutInMs()}, the body is sent anyway.
+ */
+final class ExpectContinueDecoder extends FrameDecoder implements TimerTask {
+
+    private final static Logger log = LogManager.getLogger(ExpectContinueDecoder.class);
+
+    final static String NAME = "expectContinue";
+
+    private final NettyAsyncHttpProvider provider;
+    private final Channel channel;
+    private final NettyResponseFuture<?> future;
+    private final ChannelBuffer body;
+    private final AtomicBoolean decided = new AtomicBoolean();
+    private volatile Timeout timeout;
+
+    ExpectContinueDecoder(NettyAsyncHttpProvider provider, Channel channel, NettyResponseFuture<?> future, ChannelBuffer body) {
+        this.provider = provider;
+        this.channel = channel;
+        this.future = future;
+        this.body = body;
+    }
+
+    void start(Timer timer, long timeoutInMs) {
+        timeout = timer.newTimeout(this, timeoutInMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        int start = buffer.readerIndex();
+        int eol = buffer.indexOf(start, buffer.writerIndex(), (byte) '\n');
+        if (eol == -1) {
+            return null;
+        }
+
+        int status = status(buffer.toString(start, eol - start, CharsetUtil.US_ASCII));
+        if (status >= 100 && status < 200) {
+            int end = endOfHeaders(buffer, eol);
+            if (end == -1) {
+                return null;
+            }
+            buffer.readerIndex(end);
+
+            if (status == 100) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("100 (Continue) received, sending the body of %s", future.getRequest().getUrl()));
+                }
+                sendBody();
+                ctx.getPipeline().remove(this);
+            }
+            return buffer.readable() ? buffer.readBytes(buffer.readableBytes()) : null;
+        }
+
+        if (decided.compareAndSet(false, true)) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Status %d received, not sending the body of %s", status, future.getRequest().getUrl()));
+            }
+            cancelTimeout();
+            future.setBodyWithheld(true);
+        }
+        ctx.getPipeline().remove(this);
+        return buffer.readBytes(buffer.readableBytes());
+    }
+
+    /* @Override */
+    public void run(Timeout timeout) throws Exception {
+        if (!decided.get() && log.isDebugEnabled()) {
+            log.debug(String.format("No 100 (Continue) received, sending the body of %s", future.getRequest().getUrl()));
+        }
+        sendBody();
+    }
+
+    private void sendBody() {
+        if (decided.compareAndSet(false, true)) {
+            cancelTimeout();
+            provider.writeBody(channel, future, body);
+        }
+    }
+
+    private void cancelTimeout() {
+        Timeout t = timeout;
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+    /**
+     * Parse the code of a status line, -1 if it isn't valid.
+     */
+    private static int status(String statusLine) {
+        int i = statusLine.indexOf(' ');
+        if (!statusLine.startsWith("HTTP/") || i == -1 || statusLine.length() < i + 4) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(statusLine.substring(i + 1, i + 4));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return the index following the empty line ending the headers of a response, -1 if it hasn't been received.
+     */
+    private static int endOfHeaders(ChannelBuffer buffer, int eol) {
+        int lineStart = eol + 1;
+        for (;;) {
+            int next = buffer.indexOf(lineStart, buffer.writerIndex(), (byte) '\n');
+            if (next == -1) {
+                return -1;
+            }
+            if (next == lineStart || (next == lineStart + 1 && buffer.getByte(lineStart) == '\r')) {
+                return next + 1;
+            }
+            lineStart = next + 1;
+        }
+    }
+}
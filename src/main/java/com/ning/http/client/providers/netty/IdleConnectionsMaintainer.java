@@ -0,0 +1,146 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.logging.LogManager;
+import com.ning.http.client.logging.Logger;
+import com.ning.http.util.AsyncHttpProviderUtils;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TimerTask} keeping, for every host configured using
+ * {@link AsyncHttpClientConfig#getMinIdleConnectionsPerHost()}, a minimum number of idle connections in the
+ * {@link NettyConnectionsPool}. Connections closed by the server or by the idle timeout are re-opened in the
+ * background, at most {@link #MAX_CONNECTIONS_OPENED_PER_RUN} per host and per run, and never while the previous
+ * batch for that host is still connecting. A host that hasn't been used within
+ * {@link AsyncHttpClientConfig#getMinIdleConnectionsTTLInMs()} is no longer maintained until it gets used again.
+ */
+final class IdleConnectionsMaintainer implements TimerTask {
+
+    private final static Logger log = LogManager.getLogger(IdleConnectionsMaintainer.class);
+
+    final static int MAX_CONNECTIONS_OPENED_PER_RUN = 2;
+
+    private final NettyAsyncHttpProvider provider;
+    private final NettyConnectionsPool connectionsPool;
+    private final Timer timer;
+    private final long intervalInMs;
+    private final long ttlInMs;
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<String, Host>();
+
+    IdleConnectionsMaintainer(NettyAsyncHttpProvider provider,
+                              NettyConnectionsPool connectionsPool,
+                              Timer timer,
+                              AsyncHttpClientConfig config) {
+        this.provider = provider;
+        this.connectionsPool = connectionsPool;
+        this.timer = timer;
+        this.intervalInMs = config.getIdleConnectionsMaintenanceIntervalInMs();
+        this.ttlInMs = config.getMinIdleConnectionsTTLInMs();
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Integer> e : config.getMinIdleConnectionsPerHost().entrySet()) {
+            String baseUrl = AsyncHttpProviderUtils.getBaseUrl(AsyncHttpProviderUtils.createUri(e.getKey()));
+            hosts.put(baseUrl, new Host(baseUrl, e.getValue(), now));
+        }
+    }
+
+    void start() {
+        if (!hosts.isEmpty()) {
+            timer.newTimeout(this, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Record the host has been used, so its idle connections keep being maintained.
+     *
+     * @param baseUrl the scheme, host and port of the host.
+     */
+    void touch(String baseUrl) {
+        Host host = hosts.get(baseUrl);
+        if (host != null) {
+            host.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /* @Override */
+    public void run(Timeout timeout) throws Exception {
+        if (provider.isClosed()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (Host host : hosts.values()) {
+            try {
+                maintain(host, now);
+            } catch (Throwable t) {
+                log.warn(String.format("Unable to maintain idle connections for %s", host.baseUrl), t);
+            }
+        }
+
+        try {
+            timer.newTimeout(this, intervalInMs, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException ex) {
+            // The timer has been stopped, the provider is closing.
+        }
+    }
+
+    private void maintain(Host host, long now) throws Exception {
+        if (ttlInMs != -1 && now - host.lastUsed > ttlInMs) {
+            return;
+        }
+
+        if (host.pending != null && !host.pending.isDone()) {
+            return;
+        }
+
+        int idle = 0;
+        for (String poolKey : provider.warmPoolKeys(host.baseUrl)) {
+            idle += connectionsPool.size(poolKey);
+        }
+
+        int missing = Math.min(host.minIdle - idle, MAX_CONNECTIONS_OPENED_PER_RUN);
+        if (missing <= 0) {
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Opening %d idle connections to %s", missing, host.baseUrl));
+        }
+        host.pending = provider.warmUp(host.baseUrl, missing);
+    }
+
+    private final static class Host {
+        private final String baseUrl;
+        private final int minIdle;
+        private volatile long lastUsed;
+        private volatile Future<Integer> pending;
+
+        private Host(String baseUrl, int minIdle, long lastUsed) {
+            this.baseUrl = baseUrl;
+            this.minIdle = minIdle;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of {@link Inflater}s, each coming with the buffer it inflates into, so a short compressed response
+ * doesn't allocate zlib's native state and a new output buffer. An {@link Inflater} returned to a full pool is ended
+ * right away instead of waiting for its finalizer.
+ */
+final class InflaterPool {
+
+    final static int BUFFER_SIZE = 8192;
+
+    private final int maxSize;
+    private final ConcurrentLinkedQueue<Entry> gzip = new ConcurrentLinkedQueue<Entry>();
+    private final ConcurrentLinkedQueue<Entry> zlib = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger created = new AtomicInteger();
+
+    InflaterPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Borrow an {@link Inflater}.
+     *
+     * @param nowrap true for the raw deflate data of a gzip stream, false for a zlib stream.
+     */
+    Entry borrow(boolean nowrap) {
+        Entry entry = (nowrap ? gzip : zlib).poll();
+        if (entry != null) {
+            size.decrementAndGet();
+            return entry;
+        }
+        created.incrementAndGet();
+        return new Entry(new Inflater(nowrap), nowrap);
+    }
+
+    void release(Entry entry) {
+        entry.inflater.reset();
+        if (size.incrementAndGet() <= maxSize) {
+            (entry.nowrap ? gzip : zlib).offer(entry);
+        } else {
+            size.decrementAndGet();
+            entry.inflater.end();
+        }
+    }
+
+    /**
+     * Return the number of {@link Inflater}s created since the pool was created.
+     */
+    int getCreated() {
+        return created.get();
+    }
+
+    void destroy() {
+        Entry entry;
+        while ((entry = gzip.poll()) != null) {
+            entry.inflater.end();
+        }
+        while ((entry = zlib.poll()) != null) {
+            entry.inflater.end();
+        }
+        size.set(0);
+    }
+
+    final static class Entry {
+        final Inflater inflater;
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        private final boolean nowrap;
+
+        private Entry(Inflater inflater, boolean nowrap) {
+            this.inflater = inflater;
+            this.nowrap = nowrap;
+        }
+    }
+}
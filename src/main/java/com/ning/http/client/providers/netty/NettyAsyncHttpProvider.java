@@ -16,9 +16,11 @@
 package com.ning.http.client.providers.netty;
 
 import com.ning.http.client.AsyncHandler;
-import com.ning.http.client.AsyncHandler.STATE;
 import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.AsyncHttpProvider;
+import com.ning.http.client.CircuitBreaker;
+import com.ning.http.client.CircuitOpenException;
+import com.ning.http.client.ConnectionPermits;
 import com.ning.http.client.ConnectionsPool;
 import com.ning.http.client.Cookie;
 import com.ning.http.client.FluentCaseInsensitiveStringsMap;
@@ -33,20 +35,25 @@ import com.ning.http.client.Realm;
 import com.ning.http.client.Request;
 import com.ning.http.client.RequestBuilder;
 import com.ning.http.client.Response;
+import com.ning.http.client.RetryBudget;
+import com.ning.http.client.RetryPolicy;
+import com.ning.http.client.loadbalancer.LoadBalancer;
 import com.ning.http.client.logging.LogManager;
 import com.ning.http.client.logging.Logger;
-import com.ning.http.client.providers.jdk.JDKAsyncHttpProvider;
 import com.ning.http.multipart.MultipartRequestEntity;
 import com.ning.http.util.AsyncHttpProviderUtils;
 import com.ning.http.util.AuthenticatorUtils;
+import com.ning.http.util.NtlmEngine;
 import com.ning.http.util.SslUtils;
 import com.ning.http.util.UTF8UrlEncoder;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
 import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelFutureProgressListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
@@ -58,7 +65,6 @@ import org.jboss.netty.channel.FileRegion;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
-import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.codec.http.CookieEncoder;
 import org.jboss.netty.handler.codec.http.DefaultCookie;
 import org.jboss.netty.handler.codec.http.DefaultHttpChunkTrailer;
@@ -66,7 +72,6 @@ import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
 import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.codec.http.HttpChunkTrailer;
 import org.jboss.netty.handler.codec.http.HttpClientCodec;
-import org.jboss.netty.handler.codec.http.HttpContentDecompressor;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
@@ -77,31 +82,36 @@ import org.jboss.netty.handler.stream.ChunkedFile;
 import org.jboss.netty.handler.stream.ChunkedWriteHandler;
 import org.jboss.netty.handler.timeout.IdleState;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
-import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 
 import javax.net.ssl.SSLEngine;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.ConnectException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.nio.channels.ClosedChannelException;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.jboss.netty.channel.Channels.pipeline;
 
@@ -117,29 +127,67 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
 
     private final static int MAX_BUFFERED_BYTES = 8192;
 
+    private final static int MAX_POOLED_INFLATERS = 256;
+
+    private final static int DEFAULT_WORKER_COUNT = Runtime.getRuntime().availableProcessors() * 2;
+
     private final AsyncHttpClientConfig config;
 
     private final AtomicBoolean isClose = new AtomicBoolean(false);
 
-    private final NioClientSocketChannelFactory socketChannelFactory;
+    private final NettyResources resources;
+
+    private final boolean sharedResources;
 
     private final ChannelGroup openChannels = new DefaultChannelGroup("asyncHttpClient");
 
     private final ConnectionsPool<String, Channel> connectionsPool;
 
-    private final JDKAsyncHttpProvider ntlmProvider;
+    private final ConnectionPermits connectionPermits;
 
-    private final AtomicInteger maxConnections = new AtomicInteger();
+    private final CircuitBreaker circuitBreaker;
 
     private final NettyAsyncHttpProviderConfig asyncHttpProviderConfig;
 
+    private final IdleConnectionsMaintainer idleConnectionsMaintainer;
+
+    private final Timer timer;
+
+    private final RetryPolicy retryPolicy;
+
+    private final RetryBudget retryBudget;
+
+    private final RateLimiter rateLimiter;
+
+    private final PendingRequests pendingRequests;
+
+    private final InflaterPool inflaterPool;
+
+    private final DigestAuthCache digestAuthCache = new DigestAuthCache();
+
+    private final ChannelBufferFactory bodyBufferFactory;
+
+    private final PooledChannelBufferFactory pooledBufferFactory;
+
+    private final Executor callbackExecutor;
+
+    private final CallbackMetrics callbackMetrics;
+
     public NettyAsyncHttpProvider(AsyncHttpClientConfig config) {
-        super(new HashedWheelTimer(), 0, 0, config.getIdleConnectionTimeoutInMs(), TimeUnit.MILLISECONDS);
-        socketChannelFactory = new NioClientSocketChannelFactory(
-                Executors.newCachedThreadPool(),
-                config.executorService());
-        plainBootstrap = new ClientBootstrap(socketChannelFactory);
-        secureBootstrap = new ClientBootstrap(socketChannelFactory);
+        this(config, sharedResources(config));
+    }
+
+    private NettyAsyncHttpProvider(AsyncHttpClientConfig config, NettyResources shared) {
+        this(config, shared != null ? shared : newResources(config), shared != null);
+    }
+
+    private NettyAsyncHttpProvider(AsyncHttpClientConfig config, NettyResources resources, boolean sharedResources) {
+        super(resources.getTimer(), 0, 0, config.getIdleConnectionTimeoutInMs(), TimeUnit.MILLISECONDS);
+        this.resources = resources;
+        this.sharedResources = sharedResources;
+        this.timer = resources.getTimer();
+        plainBootstrap = new ClientBootstrap(resources.getChannelFactory());
+        secureBootstrap = new ClientBootstrap(resources.getChannelFactory());
 
         this.config = config;
 
@@ -149,6 +197,14 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
             cp = new NettyConnectionsPool(config);
         }
         this.connectionsPool = cp;
+        this.connectionPermits = new ConnectionPermits(config);
+        if (config.getCircuitBreakerFailureThreshold() > 0) {
+            circuitBreaker = new CircuitBreaker(config.getCircuitBreakerFailureThreshold(), config.getCircuitBreakerOpenDurationInMs());
+        } else {
+            circuitBreaker = null;
+        }
+        retryPolicy = config.getRetryPolicy();
+        retryBudget = retryPolicy != null ? new RetryBudget(retryPolicy) : null;
 
         if (config.getAsyncHttpProviderConfig() != null
                 && NettyAsyncHttpProviderConfig.class.isAssignableFrom(config.getAsyncHttpProviderConfig().getClass())) {
@@ -157,8 +213,65 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
             asyncHttpProviderConfig = null;
         }
 
+        Object bufferFactory = asyncHttpProviderConfig != null
+                ? asyncHttpProviderConfig.getProperty(NettyAsyncHttpProviderConfig.BUFFER_FACTORY) : null;
+        bodyBufferFactory = bufferFactory instanceof ChannelBufferFactory ? (ChannelBufferFactory) bufferFactory : null;
+        pooledBufferFactory = bufferFactory instanceof PooledChannelBufferFactory
+                ? (PooledChannelBufferFactory) bufferFactory : null;
+
+        Object executor = providerProperty(config, NettyAsyncHttpProviderConfig.CALLBACK_EXECUTOR);
+        callbackExecutor = executor instanceof Executor ? (Executor) executor : null;
+        Object slowCallbackThreshold = providerProperty(config, NettyAsyncHttpProviderConfig.SLOW_CALLBACK_THRESHOLD_IN_MS);
+        callbackMetrics = new CallbackMetrics(slowCallbackThreshold instanceof Number ? ((Number) slowCallbackThreshold).longValue() : -1);
+
+        inflaterPool = new InflaterPool(config.getMaxTotalConnections() > 0 ? config.getMaxTotalConnections() : MAX_POOLED_INFLATERS);
+
         configureNetty();
-        ntlmProvider = new JDKAsyncHttpProvider(config);
+
+        if (!config.getMinIdleConnectionsPerHost().isEmpty() && NettyConnectionsPool.class.isAssignableFrom(cp.getClass())) {
+            idleConnectionsMaintainer = new IdleConnectionsMaintainer(this, NettyConnectionsPool.class.cast(cp), timer, config);
+            idleConnectionsMaintainer.start();
+        } else {
+            if (!config.getMinIdleConnectionsPerHost().isEmpty()) {
+                log.warn("Minimum idle connections are only maintained when using a " + NettyConnectionsPool.class.getName());
+            }
+            idleConnectionsMaintainer = null;
+        }
+
+        if (config.getRateLimitPerSecond() > 0 || !config.getRateLimitsPerSecondPerHost().isEmpty()) {
+            rateLimiter = new RateLimiter(this, timer, config);
+            rateLimiter.start();
+        } else {
+            rateLimiter = null;
+        }
+        pendingRequests = config.getMaxQueuedRequests() > 0 ? new PendingRequests(config) : null;
+    }
+
+    private static Object providerProperty(AsyncHttpClientConfig config, String name) {
+        if (config.getAsyncHttpProviderConfig() instanceof NettyAsyncHttpProviderConfig) {
+            return ((NettyAsyncHttpProviderConfig) config.getAsyncHttpProviderConfig()).getProperty(name);
+        }
+        return null;
+    }
+
+    private static NettyResources sharedResources(AsyncHttpClientConfig config) {
+        Object resources = providerProperty(config, NettyAsyncHttpProviderConfig.NETTY_RESOURCES);
+        return resources instanceof NettyResources ? (NettyResources) resources : null;
+    }
+
+    private static NettyResources newResources(AsyncHttpClientConfig config) {
+        Object workerCount = providerProperty(config, NettyAsyncHttpProviderConfig.WORKER_COUNT);
+        Object threadFactory = providerProperty(config, NettyAsyncHttpProviderConfig.THREAD_FACTORY);
+        int workers = workerCount instanceof Integer ? (Integer) workerCount : DEFAULT_WORKER_COUNT;
+        if (threadFactory instanceof ThreadFactory) {
+            return new NettyResources(workers, (ThreadFactory) threadFactory);
+        }
+        if (config.isVirtualThreadsEnabled()) {
+            // The selector loops would pin virtual threads, or starve a bounded pool.
+            return new NettyResources(workers, null);
+        }
+        // The workers run on the executor of the client, as they always did.
+        return new NettyResources(workers, null, config.executorService());
     }
 
     void configureNetty() {
@@ -176,9 +289,10 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
 
                 pipeline.addLast(HTTP_HANDLER, new HttpClientCodec());
 
-                if (config.isCompressionEnabled()) {
-                    pipeline.addLast("inflater", new HttpContentDecompressor());
+                if (config.isCompressionEnabled() && !config.isDeferredDecompression()) {
+                    pipeline.addLast("inflater", new ResponseBodyInflater(inflaterPool));
                 }
+                pipeline.addLast(RequestBodyCompressor.NAME, new RequestBodyCompressor());
                 pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());
                 pipeline.addLast("httpProcessor", NettyAsyncHttpProvider.this);
                 return pipeline;
@@ -197,14 +311,19 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                 try {
                     pipeline.addLast(SSL_HANDLER, new SslHandler(createSSLEngine()));
                 } catch (Throwable ex) {
-                    abort(cl.future(), ex);
+                    if (cl != null) {
+                        abort(cl.future(), ex);
+                    } else {
+                        throw new IOException(ex.getMessage());
+                    }
                 }
 
                 pipeline.addLast(HTTP_HANDLER, new HttpClientCodec());
 
-                if (config.isCompressionEnabled()) {
-                    pipeline.addLast("inflater", new HttpContentDecompressor());
+                if (config.isCompressionEnabled() && !config.isDeferredDecompression()) {
+                    pipeline.addLast("inflater", new ResponseBodyInflater(inflaterPool));
                 }
+                pipeline.addLast(RequestBodyCompressor.NAME, new RequestBodyCompressor());
                 pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());
                 pipeline.addLast("httpProcessor", NettyAsyncHttpProvider.this);
                 return pipeline;
@@ -218,12 +337,12 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
         }
     }
 
-    private Channel lookupInCache(URI uri) {
-        Channel channel = connectionsPool.removeConnection(AsyncHttpProviderUtils.getBaseUrl(uri));
+    private Channel lookupInCache(URI uri, String poolKey) {
+        Channel channel = connectionsPool.removeConnection(poolKey);
 
         if (channel != null) {
             if (log.isDebugEnabled()) {
-                log.debug(String.format(currentThread() + "Using cached Channel %s", uri, channel));
+                log.debug(String.format(currentThread() + "Using cached Channel %s for %s", channel, poolKey));
             }
             /**
              * The Channel will eventually be closed by Netty and will becomes invalid.
@@ -288,43 +407,62 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
         }
 
         channel.getPipeline().getContext(NettyAsyncHttpProvider.class).setAttachment(future);
+        future.attachChannel(channel);
+        if (future.isCancelled()) {
+            // Cancelled while connecting, like a hedge that lost the race: the request must not be sent. Cancelling
+            // after the channel got attached closes it as well.
+            channel.close();
+            return;
+        }
+        future.setBodyWithheld(false);
 
-        channel.write(nettyRequest).addListener(new ProgressListener(true, future.getAsyncHandler()));
-
-        if (future.getRequest().getFile() != null) {
-            final File file = future.getRequest().getFile();
-            RandomAccessFile raf;
-            long fileLength = 0;
+        if (channel.getPipeline().get(ExpectContinueDecoder.NAME) != null) {
+            channel.getPipeline().remove(ExpectContinueDecoder.NAME);
+        }
 
-            try {
-                raf = new RandomAccessFile(file, "r");
-                fileLength = raf.length();
+        if (HttpHeaders.Values.CONTINUE.equalsIgnoreCase(nettyRequest.getHeader(HttpHeaders.Names.EXPECT))
+                && (nettyRequest.getContent().readable() || future.getRequest().getFile() != null)) {
+
+            ChannelBuffer body = nettyRequest.getContent();
+            ExpectContinueDecoder decoder = new ExpectContinueDecoder(this, channel, future, body);
+            channel.getPipeline().addBefore(HTTP_HANDLER, ExpectContinueDecoder.NAME, decoder);
+
+            // Only the headers are written until the server answers.
+            channel.write(withoutContent(nettyRequest)).addListener(new ProgressListener(true, future));
+            decoder.start(timer, config.getExpectContinueTimeoutInMs());
+        } else if (nettyRequest.getContent().isDirect() && nettyRequest.getContent().readable()) {
+            // The encoder would merge the headers and a body into a composite buffer, which is copied into a heap
+            // buffer before it reaches the socket: a direct body is written on its own to stay direct.
+            channel.write(withoutContent(nettyRequest)).addListener(new ProgressListener(true, future));
+            writeBody(channel, future, nettyRequest.getContent());
+        } else {
+            write(channel, future, nettyRequest).addListener(new ProgressListener(true, future));
 
-                ChannelFuture writeFuture;
-                if (channel.getPipeline().get(SslHandler.class) != null) {
-                    writeFuture = channel.write(new ChunkedFile(raf, 0, fileLength, 8192));
-                    writeFuture.addListener(new ProgressListener(false, future.getAsyncHandler()));
-                } else {
-                    final FileRegion region = new DefaultFileRegion(raf.getChannel(), 0, fileLength);
-                    writeFuture = channel.write(region);
-                    writeFuture.addListener(new ProgressListener(false, future.getAsyncHandler()) {
-                        public void operationComplete(ChannelFuture cf) {
-                            region.releaseExternalResources();
-                            super.operationComplete(cf);
-                        }
-                    });
-                }
-            } catch (IOException ex) {
-                throw new IllegalStateException(ex);
+            if (future.getRequest().getFile() != null) {
+                writeFile(channel, future);
             }
         }
 
-        try {
+        // The time a request waited to be sent counts against its timeout.
+        if (!future.getAndSetWaiting(false)) {
             future.touch();
+        }
+        scheduleReaper(channel, future);
+    }
+
+    /**
+     * Start the request timeout of a future, on the channel its request is written to, or without a channel while
+     * the request waits to be sent.
+     */
+    void scheduleReaper(Channel channel, NettyResponseFuture<?> future) {
+        try {
             int delay = requestTimeout(config, future.getRequest().getPerRequestConfig());
             if (delay != -1) {
+                // The first check comes once the future has been idle for the whole timeout, which is sooner if its
+                // request already waited to be sent.
+                long initialDelay = Math.max(future.getTouch() + delay + 1 - System.currentTimeMillis(), 0);
                 ReaperFuture reaperFuture = new ReaperFuture(channel, future);
-                Future scheduledFuture = config.reaper().scheduleAtFixedRate(reaperFuture, delay, delay, TimeUnit.MILLISECONDS);
+                Future scheduledFuture = config.reaper().scheduleAtFixedRate(reaperFuture, initialDelay, delay, TimeUnit.MILLISECONDS);
                 reaperFuture.setScheduledFuture(scheduledFuture);
                 future.setReaperFuture(reaperFuture);
 
@@ -334,14 +472,113 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
         }
     }
 
+    /**
+     * Return a copy of the request line and headers of a request, the original content being kept for retries.
+     */
+    static HttpRequest withoutContent(HttpRequest request) {
+        HttpRequest copy = new DefaultHttpRequest(request.getProtocolVersion(), request.getMethod(), request.getUri());
+        for (Entry<String, String> header : request.getHeaders()) {
+            copy.addHeader(header.getKey(), header.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Write the body of a request sent with <tt>Expect: 100-continue</tt>, once the server accepted it.
+     */
+    void writeBody(Channel channel, NettyResponseFuture<?> future, ChannelBuffer body) {
+        try {
+            if (body.readable()) {
+                write(channel, future, body.duplicate()).addListener(new ProgressListener(false, future));
+            }
+            if (future.getRequest().getFile() != null) {
+                writeFile(channel, future);
+            }
+        } catch (Throwable t) {
+            abort(future, t);
+        }
+    }
+
+    /**
+     * Write a message holding the body of the request, which mustn't go back to the pool before it's written.
+     */
+    private ChannelFuture write(Channel channel, final NettyResponseFuture<?> future, Object message) {
+        if (pooledBufferFactory == null) {
+            return channel.write(message);
+        }
+
+        future.pooledBodyWriteStarted();
+        ChannelFuture writeFuture = channel.write(message);
+        writeFuture.addListener(new ChannelFutureListener() {
+            public void operationComplete(ChannelFuture cf) {
+                future.pooledBodyWriteCompleted();
+            }
+        });
+        return writeFuture;
+    }
+
+    /**
+     * Return the factory the bodies of the requests are allocated from, null if they aren't pooled.
+     */
+    PooledChannelBufferFactory getPooledBufferFactory() {
+        return pooledBufferFactory;
+    }
+
+    /**
+     * Return the factory the bodies of the requests are allocated from, null for the default heap buffers.
+     */
+    ChannelBufferFactory getBodyBufferFactory() {
+        return bodyBufferFactory;
+    }
+
+    private void writeFile(Channel channel, NettyResponseFuture<?> future) {
+        final File file = future.getRequest().getFile();
+        RandomAccessFile raf;
+        long fileLength = 0;
+
+        try {
+            raf = new RandomAccessFile(file, "r");
+            fileLength = raf.length();
+
+            ChannelFuture writeFuture;
+            RequestBodyCompressor compressor = channel.getPipeline().get(RequestBodyCompressor.class);
+            if (compressor != null && compressor.isCompressing()) {
+                writeFuture = channel.write(new RequestBodyCompressor.Chunks(new ChunkedFile(raf, 0, fileLength, 8192)));
+                writeFuture.addListener(new ProgressListener(false, future));
+            } else if (channel.getPipeline().get(SslHandler.class) != null) {
+                writeFuture = channel.write(new ChunkedFile(raf, 0, fileLength, 8192));
+                writeFuture.addListener(new ProgressListener(false, future));
+            } else {
+                final FileRegion region = new DefaultFileRegion(raf.getChannel(), 0, fileLength);
+                writeFuture = channel.write(region);
+                writeFuture.addListener(new ProgressListener(false, future) {
+                    public void operationComplete(ChannelFuture cf) {
+                        region.releaseExternalResources();
+                        super.operationComplete(cf);
+                    }
+                });
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
     protected final static HttpRequest buildRequest(AsyncHttpClientConfig config, Request request, URI uri,
                                                     boolean allowConnect, ChannelBuffer buffer) throws IOException {
+        return buildRequest(config, request, uri, allowConnect, buffer, null);
+    }
+
+    /**
+     * @param bufferFactory the factory the body is allocated from, or null for a heap buffer.
+     */
+    static HttpRequest buildRequest(AsyncHttpClientConfig config, Request request, URI uri, boolean allowConnect,
+                                    ChannelBuffer buffer, ChannelBufferFactory bufferFactory) throws IOException {
 
         String method = request.getReqType();
         if (allowConnect && ((request.getProxyServer() != null || config.getProxyServer() != null) && "https".equalsIgnoreCase(uri.getScheme()))) {
             method = HttpMethod.CONNECT.toString();
         }
-        return construct(config, request, new HttpMethod(method), uri, buffer);
+        return construct(config, request, new HttpMethod(method), uri, buffer, bufferFactory);
     }
 
     @SuppressWarnings("deprecation")
@@ -349,7 +586,8 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                                          Request request,
                                          HttpMethod m,
                                          URI uri,
-                                         ChannelBuffer buffer) throws IOException {
+                                         ChannelBuffer buffer,
+                                         ChannelBufferFactory bufferFactory) throws IOException {
         String host = uri.getHost();
 
         if (request.getVirtualHost() != null) {
@@ -412,12 +650,17 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                         }
                     }
                     break;
+                case NTLM:
+                    // The handshake is driven by the challenges of the server, see ntlmChallenge.
+                    break;
                 default:
                     throw new IllegalStateException(String.format(currentThread() + "Invalid Authentication %s", realm.toString()));
             }
         }
 
-        String ka = config.getKeepAlive() ? "keep-alive" : "close";
+        // NTLM authenticates the connection, which must stay open during the handshake.
+        boolean ntlm = realm != null && realm.getAuthScheme() == Realm.AuthScheme.NTLM;
+        String ka = config.getKeepAlive() || ntlm ? "keep-alive" : "close";
         nettyRequest.setHeader(HttpHeaders.Names.CONNECTION, ka);
         ProxyServer proxyServer = request.getProxyServer() != null ? request.getProxyServer() : config.getProxyServer();
         if (proxyServer != null) {
@@ -461,16 +704,24 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                 nettyRequest.setContent(buffer);
             } else if (request.getByteData() != null) {
                 nettyRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(request.getByteData().length));
-                nettyRequest.setContent(ChannelBuffers.copiedBuffer(request.getByteData()));
+                nettyRequest.setContent(copiedBuffer(bufferFactory, request.getByteData()));
             } else if (request.getStringData() != null) {
                 nettyRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(request.getStringData().length()));
-                nettyRequest.setContent(ChannelBuffers.copiedBuffer(request.getStringData(), "UTF-8"));
+                nettyRequest.setContent(copiedBuffer(bufferFactory, request.getStringData().getBytes("UTF-8")));
             } else if (request.getStreamData() != null) {
-                int[] lengthWrapper = new int[1];
-                byte[] bytes = AsyncHttpProviderUtils.readFully(request.getStreamData(), lengthWrapper);
-                int length = lengthWrapper[0];
-                nettyRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(length));
-                nettyRequest.setContent(ChannelBuffers.copiedBuffer(bytes, 0, length));
+                if (bufferFactory != null) {
+                    ChannelBuffer b = bodyBuffer(bufferFactory, MAX_BUFFERED_BYTES);
+                    while (b.writeBytes(request.getStreamData(), MAX_BUFFERED_BYTES) != -1) {
+                    }
+                    nettyRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(b.readableBytes()));
+                    nettyRequest.setContent(b);
+                } else {
+                    int[] lengthWrapper = new int[1];
+                    byte[] bytes = AsyncHttpProviderUtils.readFully(request.getStreamData(), lengthWrapper);
+                    int length = lengthWrapper[0];
+                    nettyRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(length));
+                    nettyRequest.setContent(ChannelBuffers.copiedBuffer(bytes, 0, length));
+                }
             } else if (request.getParams() != null) {
                 StringBuilder sb = new StringBuilder();
                 for (final Entry<String, List<String>> paramEntry : request.getParams()) {
@@ -485,7 +736,7 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                     }
                 }
                 nettyRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(sb.length()));
-                nettyRequest.setContent(ChannelBuffers.copiedBuffer(sb.toString().getBytes("UTF-8")));
+                nettyRequest.setContent(copiedBuffer(bufferFactory, sb.toString().getBytes("UTF-8")));
 
                 if (!request.getHeaders().containsKey(HttpHeaders.Names.CONTENT_TYPE)) {
                     nettyRequest.setHeader(HttpHeaders.Names.CONTENT_TYPE, "application/x-www-form-urlencoded");
@@ -503,7 +754,7 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                 nettyRequest.setHeader(HttpHeaders.Names.CONTENT_TYPE, mre.getContentType());
                 nettyRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(mre.getContentLength()));
 
-                ChannelBuffer b = ChannelBuffers.dynamicBuffer(lenght);
+                ChannelBuffer b = bodyBuffer(bufferFactory, lenght);
                 mre.writeRequest(new ChannelBufferOutputStream(b));
                 nettyRequest.setContent(b);
             } else if (request.getEntityWriter() != null) {
@@ -513,7 +764,7 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                     lenght = MAX_BUFFERED_BYTES;
                 }
 
-                ChannelBuffer b = ChannelBuffers.dynamicBuffer(lenght);
+                ChannelBuffer b = bodyBuffer(bufferFactory, lenght);
                 request.getEntityWriter().writeEntity(new ChannelBufferOutputStream(b));
                 nettyRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, b.writerIndex());
                 nettyRequest.setContent(b);
@@ -524,20 +775,76 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                 }
                 nettyRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, new RandomAccessFile(file, "r").length());
             }
+
+            String compression = requestCompression(config, request);
+            if (compression != null && !nettyRequest.containsHeader(HttpHeaders.Names.CONTENT_ENCODING)
+                    && (nettyRequest.getContent().readable() || request.getFile() != null)) {
+                nettyRequest.removeHeader(HttpHeaders.Names.CONTENT_LENGTH);
+                nettyRequest.setHeader(HttpHeaders.Names.CONTENT_ENCODING, compression);
+                nettyRequest.setHeader(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
+            }
+
+            if (config.isExpectContinueEnabled() && (nettyRequest.getContent().readable() || request.getFile() != null)) {
+                nettyRequest.setHeader(HttpHeaders.Names.EXPECT, HttpHeaders.Values.CONTINUE);
+            }
         }
         return nettyRequest;
     }
 
+    private static ChannelBuffer copiedBuffer(ChannelBufferFactory bufferFactory, byte[] bytes) {
+        if (bufferFactory == null) {
+            return ChannelBuffers.copiedBuffer(bytes);
+        }
+        ChannelBuffer b = bodyBuffer(bufferFactory, bytes.length);
+        b.writeBytes(bytes);
+        return b;
+    }
+
+    private static ChannelBuffer bodyBuffer(ChannelBufferFactory bufferFactory, int estimatedLength) {
+        if (bufferFactory instanceof PooledChannelBufferFactory) {
+            return ((PooledChannelBufferFactory) bufferFactory).acquire(estimatedLength);
+        } else if (bufferFactory != null) {
+            return ChannelBuffers.dynamicBuffer(estimatedLength, bufferFactory);
+        }
+        return ChannelBuffers.dynamicBuffer(estimatedLength);
+    }
+
+    /**
+     * Return the <tt>Content-Encoding</tt> the body of the request is compressed with, or null if it's sent as is.
+     */
+    private static String requestCompression(AsyncHttpClientConfig config, Request request) {
+        String compression = config.getRequestCompression();
+        if (request.getPerRequestConfig() != null && request.getPerRequestConfig().getRequestCompression() != null) {
+            compression = request.getPerRequestConfig().getRequestCompression();
+        }
+
+        if (HttpHeaders.Values.GZIP.equalsIgnoreCase(compression)) {
+            return HttpHeaders.Values.GZIP;
+        } else if (HttpHeaders.Values.DEFLATE.equalsIgnoreCase(compression)) {
+            return HttpHeaders.Values.DEFLATE;
+        }
+        return null;
+    }
+
+    boolean isClosed() {
+        return isClose.get();
+    }
+
     public void close() {
         isClose.set(true);
+        if (pendingRequests != null) {
+            for (NettyResponseFuture<?> future : pendingRequests.drain()) {
+                abort(future, new IOException("Closed"));
+            }
+        }
         connectionsPool.destroy();
         openChannels.close();
-        this.releaseExternalResources();
+        inflaterPool.destroy();
         config.reaper().shutdown();
         config.executorService().shutdown();
-        socketChannelFactory.releaseExternalResources();
-        plainBootstrap.releaseExternalResources();
-        secureBootstrap.releaseExternalResources();
+        if (!sharedResources) {
+            resources.releaseExternalResources();
+        }
     }
 
     /* @Override */
@@ -545,12 +852,19 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
     public Response prepareResponse(final HttpResponseStatus status,
                                     final HttpResponseHeaders headers,
                                     final Collection<HttpResponseBodyPart> bodyParts) {
-        return new NettyAsyncResponse(status, headers, bodyParts);
+        return new NettyAsyncResponse(status, headers, bodyParts,
+                config.isCompressionEnabled() && config.isDeferredDecompression(), inflaterPool);
     }
 
     /* @Override */
 
     public <T> Future<T> execute(final Request request, final AsyncHandler<T> asyncHandler) throws IOException {
+        if (retryBudget != null) {
+            retryBudget.onRequest();
+        }
+        if (rateLimiter != null) {
+            return rateLimiter.execute(request, asyncHandler);
+        }
         return doConnect(request, asyncHandler, null);
     }
 
@@ -558,24 +872,38 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
         doConnect(request, f.getAsyncHandler(), f);
     }
 
-    private <T> Future<T> doConnect(final Request request, final AsyncHandler<T> asyncHandler, NettyResponseFuture<T> f) throws IOException {
+    <T> Future<T> doConnect(Request request, final AsyncHandler<T> asyncHandler, NettyResponseFuture<T> f) throws IOException {
 
         if (isClose.get()) {
             throw new IOException("Closed");
         }
 
-        /**
-         * Netty doesn't support NTLM, so fall back to the JDK in that case.
-         */
-        if (request.getRealm() != null && request.getRealm().getScheme() == Realm.AuthScheme.NTLM) {
-            if (log.isDebugEnabled()) {
-                log.debug(currentThread() + "NTLM not supported by this provider. Using the " + JDKAsyncHttpProvider.class.getName());
-            }
-            return ntlmProvider.execute(request, asyncHandler);
+        URI uri = AsyncHttpProviderUtils.createUri(request.getUrl());
+        String baseUrl = AsyncHttpProviderUtils.getBaseUrl(uri);
+        request = digestAuthCache.authenticate(request, uri, baseUrl);
+        if (idleConnectionsMaintainer != null) {
+            idleConnectionsMaintainer.touch(baseUrl);
         }
 
-        URI uri = AsyncHttpProviderUtils.createUri(request.getUrl());
-        Channel channel = lookupInCache(uri);
+        ProxyServer proxyServer = request.getProxyServer() != null ? request.getProxyServer() : config.getProxyServer();
+        LoadBalancer loadBalancer = proxyServer == null ? config.getLoadBalancer() : null;
+        InetSocketAddress endpoint = null;
+        String poolKey = baseUrl;
+        if (loadBalancer != null) {
+            endpoint = loadBalancer.select(baseUrl, availableEndpoints(uri, baseUrl));
+            poolKey = poolKey(baseUrl, endpoint);
+        }
+        poolKey = authenticatedPoolKey(poolKey, request.getRealm());
+        if (f != null) {
+            // A new exchange, possibly with another host, starts a new handshake.
+            f.setNtlmMessageType(0);
+            f.setPendingNtlmAuthorization(null);
+        }
+
+        if (circuitBreaker != null && !circuitBreaker.allowRequest(poolKey)) {
+            throw new CircuitOpenException(String.format("Circuit open for %s", poolKey));
+        }
+        Channel channel = lookupInCache(uri, poolKey);
 
         if (channel != null && channel.isOpen()) {
             if (channel.isConnected()) {
@@ -585,7 +913,7 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                     b = f.getNettyRequest().getContent();
                 }
 
-                HttpRequest nettyRequest = buildRequest(config, request, uri, false, b);
+                HttpRequest nettyRequest = buildRequest(config, request, uri, false, b, bodyBufferFactory);
 
                 if (f == null) {
                     f = new NettyResponseFuture<T>(uri, request, asyncHandler, nettyRequest,
@@ -594,6 +922,13 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                     f.setNettyRequest(nettyRequest);
                 }
                 f.setState(NettyResponseFuture.STATE.POOLED);
+                f.setPoolKey(poolKey);
+                if (endpoint != null) {
+                    f.setEndpoint(loadBalancer, endpoint);
+                }
+                if (circuitBreaker != null) {
+                    f.setCircuit(circuitBreaker, poolKey);
+                }
 
                 try {
                     executeRequest(channel, config, f, nettyRequest);
@@ -608,13 +943,39 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
             }
         }
 
-        if (!connectionsPool.canCacheConnection() ||
-                (config.getMaxTotalConnections() > -1 && (maxConnections.get() + 1) > config.getMaxTotalConnections())) {
-            throw new IOException(String.format("Too many connections %s", config.getMaxTotalConnections()));
+        String host = baseUrl;
+        if (!connectionPermits.tryAcquire(host)) {
+            if (pendingRequests != null) {
+                NettyResponseFuture<T> pending = f != null ? f : newFuture(uri, request, asyncHandler);
+                if (pendingRequests.offer(pending, uri)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format(currentThread() + "Waiting for a connection to %s", baseUrl));
+                    }
+                    pending.getAndSetWaiting(true);
+                    scheduleReaper(null, pending);
+                    return pending;
+                }
+            }
+            throw tooManyConnections(host);
         }
 
-        ConnectListener<T> c = new ConnectListener.Builder<T>(config, request, asyncHandler, f, this).build();
-        ProxyServer proxyServer = request.getProxyServer() != null ? request.getProxyServer() : config.getProxyServer();
+        ConnectListener<T> c;
+        try {
+            if (!connectionsPool.canCacheConnection()) {
+                throw new IOException(String.format("Too many connections %s", config.getMaxTotalConnections()));
+            }
+            c = new ConnectListener.Builder<T>(config, request, asyncHandler, f, this).build();
+        } catch (IOException ex) {
+            connectionPermits.release(host);
+            throw ex;
+        }
+        c.future().setPoolKey(poolKey);
+        if (endpoint != null) {
+            c.future().setEndpoint(loadBalancer, endpoint);
+        }
+        if (circuitBreaker != null) {
+            c.future().setCircuit(circuitBreaker, poolKey);
+        }
 
         boolean useSSl = uri.getScheme().compareToIgnoreCase("https") == 0
                 && (proxyServer == null
@@ -624,29 +985,357 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
             constructSSLPipeline(c);
         }
 
-        if (config.getMaxTotalConnections() != -1) {
-            maxConnections.incrementAndGet();
-        }
-        
         ChannelFuture channelFuture;
         ClientBootstrap bootstrap = useSSl ? secureBootstrap : plainBootstrap;
         try {
-            if (proxyServer == null) {
+            if (endpoint != null) {
+                channelFuture = bootstrap.connect(endpoint);
+            } else if (proxyServer == null) {
                 channelFuture = bootstrap.connect(new InetSocketAddress(uri.getHost(), AsyncHttpProviderUtils.getPort(uri)));
             } else {
                 channelFuture = bootstrap.connect(new InetSocketAddress(proxyServer.getHost(), proxyServer.getPort()));
             }
             bootstrap.setOption("connectTimeout", config.getConnectionTimeoutInMs());
         } catch (Throwable t) {
+            connectionPermits.release(host);
             log.error(String.format(currentThread() + "doConnect"), t);
             abort(c.future(), t.getCause());
             return c.future();
         }
+        releasePermitOnClose(channelFuture.getChannel(), host);
         channelFuture.addListener(c);
         openChannels.add(channelFuture.getChannel());
         return c.future();
     }
 
+    /**
+     * Open connections to the host of the url, complete the SSL handshake when required and add them to the
+     * {@link ConnectionsPool}, so the first requests sent to that host can use an already established connection.
+     *
+     * @param url         a url, only its scheme, host and port are used.
+     * @param connections the number of connections to open.
+     * @return a {@link Future} whose value is the number of connections added to the {@link ConnectionsPool}
+     * @throws IOException if the provider is closed.
+     */
+    public Future<Integer> warmUp(String url, int connections) throws IOException {
+        if (isClose.get()) {
+            throw new IOException("Closed");
+        }
+
+        URI uri = AsyncHttpProviderUtils.createUri(url);
+        ProxyServer proxyServer = config.getProxyServer();
+        boolean useSSl = uri.getScheme().compareToIgnoreCase("https") == 0;
+        if (useSSl && proxyServer != null) {
+            throw new IOException(String.format("Unable to warm up %s: https connections are tunneled by the proxy", url));
+        }
+
+        final String baseUrl = AsyncHttpProviderUtils.getBaseUrl(uri);
+        final WarmUpFuture future = new WarmUpFuture(connections);
+
+        if (useSSl) {
+            constructSSLPipeline(null);
+        }
+        ClientBootstrap bootstrap = useSSl ? secureBootstrap : plainBootstrap;
+        bootstrap.setOption("connectTimeout", config.getConnectionTimeoutInMs());
+
+        LoadBalancer loadBalancer = proxyServer == null ? config.getLoadBalancer() : null;
+        List<InetSocketAddress> endpoints = loadBalancer != null ? endpoints(uri, baseUrl) : null;
+        InetSocketAddress address;
+        if (proxyServer == null) {
+            address = new InetSocketAddress(uri.getHost(), AsyncHttpProviderUtils.getPort(uri));
+        } else {
+            address = new InetSocketAddress(proxyServer.getHost(), proxyServer.getPort());
+        }
+
+        for (int i = 0; i < connections; i++) {
+            final String poolKey;
+            if (loadBalancer != null) {
+                address = loadBalancer.select(baseUrl, endpoints);
+                poolKey = poolKey(baseUrl, address);
+            } else {
+                poolKey = baseUrl;
+            }
+
+            if (!connectionsPool.canCacheConnection()) {
+                future.failed(new IOException(String.format("Too many connections %s", config.getMaxTotalConnections())));
+                continue;
+            }
+
+            if (!connectionPermits.tryAcquire(baseUrl)) {
+                future.failed(new IOException(String.format("Too many connections %s", config.getMaxTotalConnections())));
+                continue;
+            }
+
+            ChannelFuture channelFuture;
+            try {
+                channelFuture = bootstrap.connect(address);
+            } catch (RuntimeException ex) {
+                connectionPermits.release(baseUrl);
+                future.failed(ex);
+                continue;
+            }
+            releasePermitOnClose(channelFuture.getChannel(), baseUrl);
+            openChannels.add(channelFuture.getChannel());
+            channelFuture.addListener(new ChannelFutureListener() {
+                public void operationComplete(ChannelFuture cf) {
+                    if (!cf.isSuccess()) {
+                        future.failed(cf.getCause());
+                        return;
+                    }
+
+                    SslHandler sslHandler = cf.getChannel().getPipeline().get(SslHandler.class);
+                    if (sslHandler == null) {
+                        offerWarmChannel(poolKey, cf.getChannel(), future);
+                    } else {
+                        sslHandler.handshake().addListener(new ChannelFutureListener() {
+                            public void operationComplete(ChannelFuture handshake) {
+                                if (handshake.isSuccess()) {
+                                    offerWarmChannel(poolKey, handshake.getChannel(), future);
+                                } else {
+                                    handshake.getChannel().close();
+                                    future.failed(handshake.getCause());
+                                }
+                            }
+                        });
+                    }
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Return the keys the idle connections of a host are pooled under by {@link #warmUp(String, int)}: one per
+     * endpoint when a {@link LoadBalancer} is used, the host itself otherwise.
+     */
+    List<String> warmPoolKeys(String baseUrl) throws IOException {
+        if (config.getProxyServer() != null || config.getLoadBalancer() == null) {
+            return Collections.singletonList(baseUrl);
+        }
+
+        List<InetSocketAddress> endpoints = endpoints(AsyncHttpProviderUtils.createUri(baseUrl), baseUrl);
+        List<String> poolKeys = new ArrayList<String>(endpoints.size());
+        for (InetSocketAddress endpoint : endpoints) {
+            poolKeys.add(poolKey(baseUrl, endpoint));
+        }
+        return poolKeys;
+    }
+
+    /**
+     * Return the endpoints of a host: the ones configured using
+     * {@link AsyncHttpClientConfig.Builder#addEndpoint(String, String, int)}, or all the addresses of the host.
+     */
+    private List<InetSocketAddress> endpoints(URI uri, String baseUrl) throws IOException {
+        List<InetSocketAddress> endpoints = config.getEndpoints().get(baseUrl);
+        if (endpoints != null) {
+            return endpoints;
+        }
+
+        InetAddress[] addresses = InetAddress.getAllByName(uri.getHost());
+        int port = AsyncHttpProviderUtils.getPort(uri);
+        endpoints = new ArrayList<InetSocketAddress>(addresses.length);
+        for (InetAddress address : addresses) {
+            endpoints.add(new InetSocketAddress(address, port));
+        }
+        return endpoints;
+    }
+
+    /**
+     * Return the endpoints of a host whose circuit isn't open.
+     */
+    private List<InetSocketAddress> availableEndpoints(URI uri, String baseUrl) throws IOException {
+        List<InetSocketAddress> endpoints = endpoints(uri, baseUrl);
+        if (circuitBreaker == null) {
+            return endpoints;
+        }
+
+        List<InetSocketAddress> available = new ArrayList<InetSocketAddress>(endpoints.size());
+        for (InetSocketAddress endpoint : endpoints) {
+            if (!circuitBreaker.isOpen(poolKey(baseUrl, endpoint))) {
+                available.add(endpoint);
+            }
+        }
+
+        if (available.isEmpty()) {
+            throw new CircuitOpenException(String.format("Circuit open for all the endpoints of %s", baseUrl));
+        }
+        return available;
+    }
+
+    /**
+     * NTLM authenticates connections rather than requests: the connections of a principal are only reused by its own
+     * requests, which then skip the handshake.
+     */
+    private static String authenticatedPoolKey(String poolKey, Realm realm) {
+        if (realm == null || realm.getAuthScheme() != Realm.AuthScheme.NTLM) {
+            return poolKey;
+        }
+        return poolKey + "#NTLM:" + (realm.getDomain() != null ? realm.getDomain() : "") + "\\" + realm.getPrincipal();
+    }
+
+    /**
+     * Each endpoint selected by the {@link LoadBalancer} gets its own partition in the {@link ConnectionsPool}.
+     */
+    private static String poolKey(String baseUrl, InetSocketAddress endpoint) {
+        return baseUrl + "@" + endpoint.getAddress().getHostAddress() + ":" + endpoint.getPort();
+    }
+
+    private IOException tooManyConnections(String host) {
+        if (config.getMaxConnectionPerHost() != -1
+                && connectionPermits.getOpenConnections(host) >= config.getMaxConnectionPerHost()) {
+            return new IOException(String.format("Too many connections per host %s", config.getMaxConnectionPerHost()));
+        }
+        return new IOException(String.format("Too many connections %s", config.getMaxTotalConnections()));
+    }
+
+    <T> NettyResponseFuture<T> newFuture(URI uri, Request request, AsyncHandler<T> asyncHandler) throws IOException {
+        HttpRequest nettyRequest = buildRequest(config, request, uri, false, null, bodyBufferFactory);
+        return new NettyResponseFuture<T>(uri, request, asyncHandler, nettyRequest,
+                requestTimeout(config, request.getPerRequestConfig()), this);
+    }
+
+    /**
+     * Send the next request waiting for a connection, if any.
+     *
+     * @param baseUrl the host a connection has been cached for, or null if a connection has been closed.
+     */
+    private void dispatchPendingRequest(String baseUrl) {
+        NettyResponseFuture<?> future = pendingRequests.poll(baseUrl);
+        if (future != null) {
+            try {
+                execute(future.getRequest(), future);
+            } catch (Throwable t) {
+                abort(future, t);
+            }
+        }
+    }
+
+    /**
+     * Tie the permit acquired for a connection to the {@link Channel} lifecycle: the close future completes exactly
+     * once, whether the connection failed, got closed by the remote peer, by the idle timeout or by this provider.
+     */
+    private void releasePermitOnClose(Channel channel, final String host) {
+        channel.getCloseFuture().addListener(new ChannelFutureListener() {
+            public void operationComplete(ChannelFuture cf) {
+                connectionPermits.release(host);
+                if (pendingRequests != null) {
+                    dispatchPendingRequest(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the executor running the callbacks of the {@link AsyncHandler}s, null if they run on the I/O threads.
+     */
+    Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Return the time spent in the callbacks of the {@link AsyncHandler}s.
+     *
+     * @return the time spent in the callbacks of the {@link AsyncHandler}s.
+     */
+    public CallbackMetrics getCallbackMetrics() {
+        return callbackMetrics;
+    }
+
+    /**
+     * Return the {@link ConnectionPermits} tracking the connections opened by this provider.
+     *
+     * @return the {@link ConnectionPermits} tracking the connections opened by this provider.
+     */
+    public ConnectionPermits getConnectionPermits() {
+        return connectionPermits;
+    }
+
+    /**
+     * Return the {@link CircuitBreaker} of this provider, or null if disabled.
+     *
+     * @return the {@link CircuitBreaker} of this provider, or null if disabled.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Return the {@link RetryBudget} limiting the retries of failed requests, or null if no {@link RetryPolicy} is set.
+     *
+     * @return the {@link RetryBudget}, or null if failed requests are never retried.
+     */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Send the request of a future again, after the backoff of the {@link RetryPolicy}, if the request can be
+     * replayed and both its retries and the {@link RetryBudget} aren't exhausted.
+     *
+     * @param future the {@link NettyResponseFuture} whose current exchange failed.
+     * @param sent   false if the connection couldn't be opened, so the server hasn't seen the request.
+     * @param cause  the failure, used for logging only.
+     * @return true if the request will be sent again, false if the failure must be reported.
+     */
+    boolean retry(final NettyResponseFuture<?> future, boolean sent, Throwable cause) {
+        if (retryPolicy == null || isClose.get() || future.isTerminated() || future.isCancelled()) {
+            return false;
+        }
+
+        final Request request = future.getRequest();
+        if (future.getRetryCount() >= retryPolicy.getMaxRetries() || !retryPolicy.isReplayable(request, sent)) {
+            return false;
+        }
+
+        if (!retryBudget.tryRetry()) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format(currentThread() + "Retry budget exhausted, not retrying %s", request.getUrl()));
+            }
+            return false;
+        }
+
+        int retry = future.incrementAndGetRetryCount();
+        long backoff = retryPolicy.backoffInMs(retry);
+        future.attemptFailed();
+
+        if (log.isDebugEnabled()) {
+            log.debug(String.format(currentThread() + "Retrying %s in %d ms (retry %d): %s", request.getUrl(), backoff, retry, cause));
+        }
+
+        try {
+            timer.newTimeout(new TimerTask() {
+                /* @Override */
+                public void run(Timeout timeout) throws Exception {
+                    if (future.isTerminated() || future.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        future.provider().execute(request, future);
+                    } catch (Throwable t) {
+                        abort(future, t);
+                    }
+                }
+            }, backoff, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException ex) {
+            // The timer has been stopped, the provider is closing.
+            abort(future, cause != null ? cause : ex);
+        }
+        return true;
+    }
+
+    private void offerWarmChannel(String poolKey, Channel channel, WarmUpFuture future) {
+        markChannelNotReadable(channel.getPipeline().getContext(NettyAsyncHttpProvider.class));
+        if (connectionsPool.addConnection(poolKey, channel)) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format(currentThread() + "Warmed up Channel %s for %s", channel, poolKey));
+            }
+            future.pooled();
+        } else {
+            channel.close();
+            future.failed(null);
+        }
+    }
+
     protected static int requestTimeout(AsyncHttpClientConfig config, PerRequestConfig perRequestConfig) {
         int result;
         if (perRequestConfig != null) {
@@ -671,9 +1360,6 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
     }
 
     private void closeChannel(ChannelHandlerContext ctx) {
-        if (config.getMaxTotalConnections() != -1) {
-            maxConnections.decrementAndGet();
-        }
         ctx.setAttachment(new DiscardEvent());
         ctx.getChannel().close();
     }
@@ -714,11 +1400,30 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                 int statusCode = response.getStatus().getCode();
 
                 String ka = response.getHeader(HttpHeaders.Names.CONNECTION);
-                future.setKeepAlive(ka == null || ka.toLowerCase().equals("keep-alive"));
+                if (retryPolicy != null && retryPolicy.isRetryableStatus(statusCode)
+                        && retry(future, true, new IOException(String.format("Status %d received", statusCode)))) {
+
+                    markChannelNotReadable(ctx);
+                    if (!response.isChunked() && (ka == null || ka.toLowerCase().equals("keep-alive"))) {
+                        connectionsPool.addConnection(future.getPoolKey(), ctx.getChannel());
+                    } else {
+                        ctx.getChannel().close();
+                    }
+                    return;
+                }
+
+                future.setKeepAlive((ka == null || ka.toLowerCase().equals("keep-alive")) && !future.isBodyWithheld());
 
                 String wwwAuth = response.getHeader(HttpHeaders.Names.WWW_AUTHENTICATE);
                 Request request = future.getRequest();
                 if (statusCode == 401
+                        && request.getRealm() != null
+                        && request.getRealm().getAuthScheme() == Realm.AuthScheme.NTLM) {
+
+                    if (ntlmChallenge(ctx, future, response)) {
+                        return;
+                    }
+                } else if (statusCode == 401
                         && wwwAuth != null
                         && future.getRequest().getRealm() != null
                         && !future.getAndSetAuth(true)) {
@@ -731,6 +1436,10 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                             .setUsePreemptiveAuth(true)
                             .build();
 
+                    if (realm.getAuthScheme() == Realm.AuthScheme.DIGEST) {
+                        digestAuthCache.challenged(AsyncHttpProviderUtils.getBaseUrl(future.getURI()), realm);
+                    }
+
                     if (log.isDebugEnabled()) {
                         log.debug(String.format(currentThread() + "Sending authentication to %s", request.getUrl()));
                     }
@@ -812,15 +1521,15 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                     }
                 }
 
-                if (!future.getAndSetStatusReceived(true) && updateStatusAndInterrupt(handler, new ResponseStatus(future.getURI(), response, this))) {
+                if (!future.getAndSetStatusReceived(true) && updateStatusAndInterrupt(future, new ResponseStatus(future.getURI(), response, this))) {
                     finishUpdate(future, ctx);
                     return;
-                } else if (updateHeadersAndInterrupt(handler, new ResponseHeaders(future.getURI(), response, this))) {
+                } else if (updateHeadersAndInterrupt(future, new ResponseHeaders(future.getURI(), response, this))) {
                     finishUpdate(future, ctx);
                     return;
                 } else if (!response.isChunked()) {
                     if (response.getContent().readableBytes() != 0) {
-                        updateBodyAndInterrupt(handler, new ResponseBodyPart(future.getURI(), response, this));
+                        updateBodyAndInterrupt(future, new ResponseBodyPart(future.getURI(), response, this));
                     }
                     finishUpdate(future, ctx);
                     return;
@@ -833,10 +1542,20 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
             } else if (e.getMessage() instanceof HttpChunk) {
                 HttpChunk chunk = (HttpChunk) e.getMessage();
 
+                String ntlmAuthorization = future.getPendingNtlmAuthorization();
+                if (ntlmAuthorization != null) {
+                    // The body of an NTLM challenge is discarded, the next message follows its last chunk.
+                    if (chunk.isLast()) {
+                        future.setPendingNtlmAuthorization(null);
+                        sendNtlmMessage(ctx, future, ntlmAuthorization);
+                    }
+                    return;
+                }
+
                 if (handler != null) {
-                    if (chunk.isLast() || updateBodyAndInterrupt(handler, new ResponseBodyPart(future.getURI(), null, this, chunk))) {
+                    if (chunk.isLast() || updateBodyAndInterrupt(future, new ResponseBodyPart(future.getURI(), null, this, chunk))) {
                         if (chunk instanceof DefaultHttpChunkTrailer) {
-                            updateHeadersAndInterrupt(handler, new ResponseHeaders(future.getURI(),
+                            updateHeadersAndInterrupt(future, new ResponseHeaders(future.getURI(),
                                     future.getHttpResponse(), this, (HttpChunkTrailer) chunk));
                         }
                         finishUpdate(future, ctx);
@@ -854,12 +1573,73 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
     }
 
     private void abort(NettyResponseFuture<?> future, Throwable t) {
-        if (config.getMaxTotalConnections() != -1) {
-            maxConnections.decrementAndGet();
-        }
         future.abort(t);
     }
 
+    /**
+     * Answer an NTLM challenge on the channel it was received on, which is kept out of the {@link ConnectionsPool}
+     * until the handshake completes: a type 1 message when the server offers NTLM, a type 3 message when it answers
+     * the type 1 message with a type 2 one. The message answering a chunked challenge is only sent once its last
+     * chunk has been read.
+     *
+     * @return false if the response is the final answer of the server, delivered to the {@link AsyncHandler}.
+     */
+    private boolean ntlmChallenge(ChannelHandlerContext ctx, NettyResponseFuture<?> future, HttpResponse response)
+            throws Exception {
+        if (!future.getKeepAlive()) {
+            return false;
+        }
+
+        boolean offered = false;
+        String type2Msg = null;
+        for (String wwwAuth : response.getHeaders(HttpHeaders.Names.WWW_AUTHENTICATE)) {
+            if (wwwAuth.trim().equalsIgnoreCase("NTLM")) {
+                offered = true;
+            } else if (wwwAuth.regionMatches(true, 0, "NTLM ", 0, 5)) {
+                type2Msg = wwwAuth.substring(5).trim();
+            }
+        }
+
+        Realm realm = future.getRequest().getRealm();
+        String authorization;
+        if (offered && future.getNtlmMessageType() == 0) {
+            authorization = "NTLM " + NtlmEngine.generateType1Msg();
+            future.setNtlmMessageType(1);
+        } else if (type2Msg != null && future.getNtlmMessageType() == 1) {
+            authorization = "NTLM " + NtlmEngine.generateType3Msg(realm.getPrincipal(), realm.getPassword(),
+                    realm.getDomain(), null, type2Msg);
+            future.setNtlmMessageType(3);
+        } else {
+            return false;
+        }
+
+        if (response.isChunked()) {
+            future.setPendingNtlmAuthorization(authorization);
+        } else {
+            sendNtlmMessage(ctx, future, authorization);
+        }
+        return true;
+    }
+
+    private void sendNtlmMessage(ChannelHandlerContext ctx, NettyResponseFuture<?> future, String authorization)
+            throws Exception {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format(currentThread() + "Sending NTLM type %d message to %s",
+                    future.getNtlmMessageType(), future.getRequest().getUrl()));
+        }
+
+        Request request = new RequestBuilder(future.getRequest())
+                .setHeader(HttpHeaders.Names.AUTHORIZATION, authorization)
+                .build();
+        ChannelBuffer b = null;
+        if (request.getStreamData() != null) {
+            b = future.getNettyRequest().getContent();
+        }
+        HttpRequest nettyRequest = buildRequest(config, request, future.getURI(), false, b, bodyBufferFactory);
+        future.setNettyRequest(nettyRequest);
+        executeRequest(ctx.getChannel(), config, future, nettyRequest);
+    }
+
     private void upgradeProtocol(ChannelPipeline p, String scheme) throws IOException, GeneralSecurityException {
         if (p.get(HTTP_HANDLER) != null) {
             p.remove(HTTP_HANDLER);
@@ -903,12 +1683,14 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                 }
             }
 
-            if (future != null && !future.isDone() && !future.isCancelled()) {
-                if (config.getMaxTotalConnections() != -1) {
-                    maxConnections.decrementAndGet();
+            if (future != null && !future.isTerminated() && !future.isCancelled()) {
+                if (retryPolicy != null && retryPolicy.isRetryOnResetBeforeResponse() && !future.isStatusReceived()
+                        && retry(future, true, exception != null ? exception : new IOException("Remotely closed"))) {
+                    return;
                 }
+
                 try {
-                    future.getAsyncHandler().onThrowable(exception != null ? exception : new IOException("No response received. Connection timed out"));
+                    future.notifyThrowable(exception != null ? exception : new IOException("No response received. Connection timed out"));
                 } catch (Throwable t) {
                     log.error(String.format(currentThread() + "Channel Closed"), t);
                 }
@@ -948,7 +1730,7 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
 
     private void markAsDoneAndCacheConnection(final NettyResponseFuture<?> future, final ChannelHandlerContext ctx, boolean releaseFuture) throws MalformedURLException {
         if (future.getKeepAlive()) {
-            connectionsPool.addConnection(AsyncHttpProviderUtils.getBaseUrl(future.getURI()), ctx.getChannel());
+            connectionsPool.addConnection(future.getPoolKey(), ctx.getChannel());
         }
 
         if (releaseFuture) {
@@ -956,6 +1738,8 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
 
             if (!future.getKeepAlive()) {
                 closeChannel(ctx);
+            } else if (pendingRequests != null) {
+                dispatchPendingRequest(AsyncHttpProviderUtils.getBaseUrl(future.getURI()));
             }
         }
     }
@@ -975,19 +1759,16 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private final boolean updateStatusAndInterrupt(AsyncHandler handler, HttpResponseStatus c) throws Exception {
-        return handler.onStatusReceived(c) != STATE.CONTINUE;
+    private final boolean updateStatusAndInterrupt(NettyResponseFuture<?> future, HttpResponseStatus c) throws Exception {
+        return future.deliver(c);
     }
 
-    @SuppressWarnings("unchecked")
-    private final boolean updateHeadersAndInterrupt(AsyncHandler handler, HttpResponseHeaders c) throws Exception {
-        return handler.onHeadersReceived(c) != STATE.CONTINUE;
+    private final boolean updateHeadersAndInterrupt(NettyResponseFuture<?> future, HttpResponseHeaders c) throws Exception {
+        return future.deliver(c);
     }
 
-    @SuppressWarnings("unchecked")
-    private final boolean updateBodyAndInterrupt(AsyncHandler handler, HttpResponseBodyPart c) throws Exception {
-        return handler.onBodyPartReceived(c) != STATE.CONTINUE;
+    private final boolean updateBodyAndInterrupt(NettyResponseFuture<?> future, HttpResponseBodyPart c) throws Exception {
+        return future.deliver(c);
     }
 
     //Simple marker for stopping publishing bytes.
@@ -1021,6 +1802,13 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                 return;
             }
 
+            if (future != null && cause instanceof IOException
+                    && retryPolicy != null && retryPolicy.isRetryOnResetBeforeResponse()
+                    && !future.isStatusReceived() && retry(future, true, cause)) {
+                closeChannel(ctx);
+                return;
+            }
+
             if (future != null) {
                 try {
                     abort(future, cause);
@@ -1090,11 +1878,13 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
     private static class ProgressListener implements ChannelFutureProgressListener {
 
         private final boolean notifyHeaders;
+        private final NettyResponseFuture<?> future;
         private final AsyncHandler asyncHandler;
 
-        public ProgressListener(boolean notifyHeaders, AsyncHandler asyncHandler) {
+        public ProgressListener(boolean notifyHeaders, NettyResponseFuture<?> future) {
             this.notifyHeaders = notifyHeaders;
-            this.asyncHandler = asyncHandler;
+            this.future = future;
+            this.asyncHandler = future.getAsyncHandler();
         }
 
         public void operationComplete(ChannelFuture cf) {
@@ -1111,17 +1901,25 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
             }
 
             if (ProgressAsyncHandler.class.isAssignableFrom(asyncHandler.getClass())) {
-                if (notifyHeaders) {
-                    ProgressAsyncHandler.class.cast(asyncHandler).onHeaderWriteCompleted();
-                } else {
-                    ProgressAsyncHandler.class.cast(asyncHandler).onContentWriteCompleted();
-                }
+                future.callback(new Runnable() {
+                    public void run() {
+                        if (notifyHeaders) {
+                            ProgressAsyncHandler.class.cast(asyncHandler).onHeaderWriteCompleted();
+                        } else {
+                            ProgressAsyncHandler.class.cast(asyncHandler).onContentWriteCompleted();
+                        }
+                    }
+                });
             }
         }
 
-        public void operationProgressed(ChannelFuture cf, long amount, long current, long total) {
+        public void operationProgressed(ChannelFuture cf, final long amount, final long current, final long total) {
             if (ProgressAsyncHandler.class.isAssignableFrom(asyncHandler.getClass())) {
-                ProgressAsyncHandler.class.cast(asyncHandler).onContentWriteProgess(amount, current, total);
+                future.callback(new Runnable() {
+                    public void run() {
+                        ProgressAsyncHandler.class.cast(asyncHandler).onContentWriteProgess(amount, current, total);
+                    }
+                });
             }
         }
     }
@@ -1200,7 +1998,9 @@ public class NettyAsyncHttpProvider extends IdleStateHandler implements AsyncHtt
                     log.debug(currentThread() + "Request Timeout expired for " + this.nettyResponseFuture);
                 }
                 abort(this.nettyResponseFuture, new TimeoutException("Request timed out."));
-                markChannelNotReadable(channel.getPipeline().getContext(NettyAsyncHttpProvider.class));
+                if (channel != null) {
+                    markChannelNotReadable(channel.getPipeline().getContext(NettyAsyncHttpProvider.class));
+                }
 
                 this.nettyResponseFuture = null;
                 this.channel = null;
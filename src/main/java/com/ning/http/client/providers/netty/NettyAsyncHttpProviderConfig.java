@@ -17,13 +17,58 @@
 package com.ning.http.client.providers.netty;
 
 import com.ning.http.client.AsyncHttpProviderConfig;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+import org.jboss.netty.channel.AdaptiveReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.ReceiveBufferSizePredictorFactory;
 
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 
 public class NettyAsyncHttpProviderConfig implements AsyncHttpProviderConfig<String, Object> {
 
+    /**
+     * The {@link org.jboss.netty.buffer.ChannelBufferFactory} of the channels. A {@link PooledChannelBufferFactory}
+     * also holds the bodies of the requests.
+     */
+    public final static String BUFFER_FACTORY = "bufferFactory";
+
+    /**
+     * The {@link ReceiveBufferSizePredictorFactory} of the channels, deciding how many bytes are read at once.
+     */
+    public final static String RECEIVE_BUFFER_SIZE_PREDICTOR_FACTORY = "receiveBufferSizePredictorFactory";
+
+    /**
+     * The number of worker threads reading and writing the channels, twice the number of processors by default.
+     */
+    public final static String WORKER_COUNT = "workerCount";
+
+    /**
+     * The {@link ThreadFactory} of the boss, worker and timer threads.
+     */
+    public final static String THREAD_FACTORY = "threadFactory";
+
+    /**
+     * The {@link NettyResources} shared with other clients. When set, {@link #WORKER_COUNT} and
+     * {@link #THREAD_FACTORY} are ignored.
+     */
+    public final static String NETTY_RESOURCES = "nettyResources";
+
+    /**
+     * The {@link Executor} running the callbacks of the {@link com.ning.http.client.AsyncHandler}s, instead of the
+     * I/O threads.
+     */
+    public final static String CALLBACK_EXECUTOR = "callbackExecutor";
+
+    /**
+     * The duration, in milliseconds, from which a callback of an {@link com.ning.http.client.AsyncHandler} is
+     * logged as slow, see {@link CallbackMetrics}.
+     */
+    public final static String SLOW_CALLBACK_THRESHOLD_IN_MS = "slowCallbackThresholdInMs";
 
     private final ConcurrentHashMap<String, Object> properties = new ConcurrentHashMap<String, Object>();
 
@@ -59,6 +104,118 @@ public class NettyAsyncHttpProviderConfig implements AsyncHttpProviderConfig<Str
         return properties.remove(name);
     }
 
+    /**
+     * Use direct buffers for the bytes read from the sockets and for the bodies of the requests, which are then
+     * written without being copied into a temporary direct buffer first. Direct buffers are slower to allocate and
+     * to access from Java code, so this pays off for large bodies.
+     *
+     * @param useDirectBuffers true to use direct buffers, false to use heap buffers.
+     * @return this instance of AsyncHttpProviderConfig
+     */
+    public NettyAsyncHttpProviderConfig setUseDirectBuffers(boolean useDirectBuffers) {
+        return addProperty(BUFFER_FACTORY, useDirectBuffers
+                ? DirectChannelBufferFactory.getInstance() : HeapChannelBufferFactory.getInstance());
+    }
+
+    /**
+     * Return true if the channels use direct buffers.
+     *
+     * @return true if the channels use direct buffers.
+     */
+    public boolean isUseDirectBuffers() {
+        Object bufferFactory = getProperty(BUFFER_FACTORY);
+        return bufferFactory instanceof DirectChannelBufferFactory
+                || (bufferFactory instanceof PooledChannelBufferFactory && ((PooledChannelBufferFactory) bufferFactory).isDirect());
+    }
+
+    /**
+     * Set how many bytes the channels read at once.
+     *
+     * @param predictorFactory a {@link ReceiveBufferSizePredictorFactory}
+     * @return this instance of AsyncHttpProviderConfig
+     */
+    public NettyAsyncHttpProviderConfig setReceiveBufferSizePredictorFactory(ReceiveBufferSizePredictorFactory predictorFactory) {
+        return addProperty(RECEIVE_BUFFER_SIZE_PREDICTOR_FACTORY, predictorFactory);
+    }
+
+    /**
+     * Always read up to <tt>size</tt> bytes at once.
+     *
+     * @param size the number of bytes read at once.
+     * @return this instance of AsyncHttpProviderConfig
+     */
+    public NettyAsyncHttpProviderConfig setFixedReceiveBufferSize(int size) {
+        return setReceiveBufferSizePredictorFactory(new FixedReceiveBufferSizePredictorFactory(size));
+    }
+
+    /**
+     * Read between <tt>minimum</tt> and <tt>maximum</tt> bytes at once, starting with <tt>initial</tt>, growing when
+     * the previous read filled the buffer and shrinking otherwise. Netty's default is 64, 1024 and 65536 bytes: a
+     * higher initial size saves reads for large responses.
+     *
+     * @param minimum the minimum number of bytes read at once.
+     * @param initial the number of bytes read at once before any feedback.
+     * @param maximum the maximum number of bytes read at once.
+     * @return this instance of AsyncHttpProviderConfig
+     */
+    public NettyAsyncHttpProviderConfig setAdaptiveReceiveBufferSize(int minimum, int initial, int maximum) {
+        return setReceiveBufferSizePredictorFactory(new AdaptiveReceiveBufferSizePredictorFactory(minimum, initial, maximum));
+    }
+
+    /**
+     * Set the number of worker threads reading and writing the channels.
+     *
+     * @param workerCount the number of worker threads.
+     * @return this instance of AsyncHttpProviderConfig
+     */
+    public NettyAsyncHttpProviderConfig setWorkerCount(int workerCount) {
+        return addProperty(WORKER_COUNT, workerCount);
+    }
+
+    /**
+     * Set the {@link ThreadFactory} of the boss, worker and timer threads. The workers then no longer run on
+     * {@link com.ning.http.client.AsyncHttpClientConfig#executorService()}.
+     *
+     * @param threadFactory a {@link ThreadFactory}
+     * @return this instance of AsyncHttpProviderConfig
+     */
+    public NettyAsyncHttpProviderConfig setThreadFactory(ThreadFactory threadFactory) {
+        return addProperty(THREAD_FACTORY, threadFactory);
+    }
+
+    /**
+     * Share the I/O threads and the timer of other clients, instead of creating new ones.
+     *
+     * @param resources the {@link NettyResources} of the other clients.
+     * @return this instance of AsyncHttpProviderConfig
+     */
+    public NettyAsyncHttpProviderConfig setNettyResources(NettyResources resources) {
+        return addProperty(NETTY_RESOURCES, resources);
+    }
+
+    /**
+     * Run the callbacks of the {@link com.ning.http.client.AsyncHandler}s on an {@link Executor} instead of the
+     * I/O threads, so a slow handler doesn't delay the other connections. The callbacks of a request still run one
+     * at a time and in order. A handler returning {@link com.ning.http.client.AsyncHandler.STATE#ABORT} stops the
+     * response when its next part is received, rather than right away.
+     *
+     * @param callbackExecutor the {@link Executor} running the callbacks.
+     * @return this instance of AsyncHttpProviderConfig
+     */
+    public NettyAsyncHttpProviderConfig setCallbackExecutor(Executor callbackExecutor) {
+        return addProperty(CALLBACK_EXECUTOR, callbackExecutor);
+    }
+
+    /**
+     * Log the callbacks of the {@link com.ning.http.client.AsyncHandler}s taking at least <tt>thresholdInMs</tt>.
+     *
+     * @param thresholdInMs the duration from which a callback is slow.
+     * @return this instance of AsyncHttpProviderConfig
+     */
+    public NettyAsyncHttpProviderConfig setSlowCallbackThresholdInMs(long thresholdInMs) {
+        return addProperty(SLOW_CALLBACK_THRESHOLD_IN_MS, thresholdInMs);
+    }
+
     /**
      * Return the curent entry set.
      *
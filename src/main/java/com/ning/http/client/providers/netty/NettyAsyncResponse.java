@@ -24,9 +24,10 @@ import com.ning.http.client.Response;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferInputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.compression.CompressionException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.ArrayList;
@@ -34,6 +35,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Wrapper around the {@link com.ning.http.client.Response} API.
@@ -42,19 +45,47 @@ public class NettyAsyncResponse implements Response {
     private final static String HEADERS_NOT_COMPUTED = "Response's headers hasn't been computed by your AsyncHandler.";
     private final static String BODY_NOT_COMPUTED = "Response's body hasn't been computed by your AsyncHandler.";
 
+    /**
+     * Used when no provider's pool is available: every {@link java.util.zip.Inflater} is ended once the stream closes.
+     */
+    private final static InflaterPool NO_POOL = new InflaterPool(0);
+
     private final URI uri;
     private final Collection<HttpResponseBodyPart> bodyParts;
     private final HttpResponseHeaders headers;
     private final HttpResponseStatus status;
     private final List<Cookie> cookies = new ArrayList<Cookie>();
+    private final boolean deferredDecompression;
+    private final InflaterPool inflaterPool;
 
     public NettyAsyncResponse(HttpResponseStatus status,
                               HttpResponseHeaders headers,
                               Collection<HttpResponseBodyPart> bodyParts) {
+        this(status, headers, bodyParts, false);
+    }
+
+    /**
+     * @param deferredDecompression true if a compressed body must be decompressed when read, see
+     *                              {@link com.ning.http.client.AsyncHttpClientConfig#isDeferredDecompression()}.
+     */
+    public NettyAsyncResponse(HttpResponseStatus status,
+                              HttpResponseHeaders headers,
+                              Collection<HttpResponseBodyPart> bodyParts,
+                              boolean deferredDecompression) {
+        this(status, headers, bodyParts, deferredDecompression, NO_POOL);
+    }
+
+    NettyAsyncResponse(HttpResponseStatus status,
+                       HttpResponseHeaders headers,
+                       Collection<HttpResponseBodyPart> bodyParts,
+                       boolean deferredDecompression,
+                       InflaterPool inflaterPool) {
 
         this.status = status;
         this.headers = headers;
         this.bodyParts = bodyParts;
+        this.deferredDecompression = deferredDecompression;
+        this.inflaterPool = inflaterPool;
         uri = status.getUrl();
     }
 
@@ -82,9 +113,24 @@ public class NettyAsyncResponse implements Response {
         return contentToString(charset);
     }
 
-    String contentToString(String charset) throws UnsupportedEncodingException {
+    String contentToString(String charset) throws IOException {
         checkBodyParts(); 
 
+        if (isCompressed()) {
+            InputStream is = getResponseBodyAsStream();
+            try {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                byte[] b = new byte[8192];
+                int read;
+                while ((read = is.read(b)) != -1) {
+                    os.write(b, 0, read);
+                }
+                return new String(os.toByteArray(), charset);
+            } finally {
+                is.close();
+            }
+        }
+
         StringBuilder b = new StringBuilder();
         for (HttpResponseBodyPart bp : bodyParts) {
             b.append(new String(bp.getBodyPartBytes(), charset));
@@ -106,7 +152,24 @@ public class NettyAsyncResponse implements Response {
                 buf.writeBytes(bp.getBodyPartBytes());
             }
         }
-        return new ChannelBufferInputStream(buf);
+        if (!isCompressed()) {
+            return new ChannelBufferInputStream(buf);
+        }
+        String encoding = headers.getHeaders().getFirstValue("Content-Encoding");
+        return InflatingInputStream.open(buf, encoding.toLowerCase().endsWith("gzip"), inflaterPool);
+    }
+
+    /**
+     * Return true if the body is still compressed, see
+     * {@link com.ning.http.client.AsyncHttpClientConfig#isDeferredDecompression()}.
+     */
+    private boolean isCompressed() {
+        if (!deferredDecompression || headers == null) {
+            return false;
+        }
+        String encoding = headers.getHeaders().getFirstValue("Content-Encoding");
+        return encoding != null && (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")
+                || encoding.equalsIgnoreCase("deflate") || encoding.equalsIgnoreCase("x-deflate"));
     }
 
     private void checkBodyParts() {
@@ -236,4 +299,101 @@ public class NettyAsyncResponse implements Response {
         return (bodyParts != null && bodyParts.size() > 0 ? true : false);
     }
 
+
+    /**
+     * Decompress a body received with deferred decompression, using an {@link java.util.zip.Inflater} borrowed from
+     * the {@link InflaterPool} of the provider until the stream is closed. The gzip trailer is checked once the end
+     * of the compressed stream has been read.
+     */
+    private final static class InflatingInputStream extends InflaterInputStream {
+
+        private final static int GZIP_TRAILER_LENGTH = 8;
+
+        private final ChannelBuffer body;
+        private final int start;
+        private final boolean gzip;
+        private final InflaterPool pool;
+        private InflaterPool.Entry entry;
+        private final CRC32 crc = new CRC32();
+        private boolean trailerChecked;
+
+        static InflatingInputStream open(ChannelBuffer body, boolean gzip, InflaterPool pool) throws IOException {
+            int start = body.readerIndex();
+            if (gzip) {
+                int length;
+                try {
+                    length = ResponseBodyInflater.gzipHeaderLength(body);
+                } catch (CompressionException ex) {
+                    throw new IOException(ex.getMessage());
+                }
+                if (length == -1) {
+                    throw new IOException("Truncated gzip header");
+                }
+                start += length;
+            }
+            return new InflatingInputStream(body, start, gzip, pool, pool.borrow(gzip));
+        }
+
+        private InflatingInputStream(ChannelBuffer body, int start, boolean gzip, InflaterPool pool,
+                                     InflaterPool.Entry entry) {
+            super(new ChannelBufferInputStream(body.slice(start, body.writerIndex() - start)), entry.inflater,
+                    InflaterPool.BUFFER_SIZE);
+            this.body = body;
+            this.start = start;
+            this.gzip = gzip;
+            this.pool = pool;
+            this.entry = entry;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (gzip) {
+                if (read > 0) {
+                    crc.update(b, off, read);
+                } else if (read == -1) {
+                    checkTrailer();
+                }
+            }
+            return read;
+        }
+
+        private void checkTrailer() throws IOException {
+            if (trailerChecked) {
+                return;
+            }
+            trailerChecked = true;
+
+            long index = start + inf.getBytesRead();
+            if (body.writerIndex() - index < GZIP_TRAILER_LENGTH) {
+                throw new IOException("Truncated compressed response body");
+            }
+            long expectedCrc = readIntLE((int) index) & 0xffffffffL;
+            int expectedSize = readIntLE((int) index + 4);
+            if (expectedCrc != crc.getValue()) {
+                throw new IOException("Invalid gzip trailer: CRC-32 mismatch");
+            }
+            // The size is modulo 2^32.
+            if (expectedSize != (int) inf.getBytesWritten()) {
+                throw new IOException("Invalid gzip trailer: size mismatch");
+            }
+        }
+
+        private int readIntLE(int index) {
+            return body.getUnsignedByte(index) | body.getUnsignedByte(index + 1) << 8
+                    | body.getUnsignedByte(index + 2) << 16 | body.getUnsignedByte(index + 3) << 24;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (entry != null) {
+                    pool.release(entry);
+                    entry = null;
+                }
+            }
+        }
+    }
 }
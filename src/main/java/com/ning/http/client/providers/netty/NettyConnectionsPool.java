@@ -24,18 +24,17 @@ import org.jboss.netty.channel.Channel;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * A simple implementation of {@link com.ning.http.client.ConnectionsPool} based on a {@link ConcurrentHashMap}
+ * A simple implementation of {@link com.ning.http.client.ConnectionsPool} based on a {@link ConcurrentHashMap}. Several
+ * idle {@link Channel} can be cached for the same uri, up to {@link AsyncHttpClientConfig#getMaxConnectionPerHost()}.
  */
 public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
 
     private final static Logger log = LogManager.getLogger(NettyAsyncHttpProvider.class);
-    private final ConcurrentHashMap<String, Channel> connectionsPool =
-            new ConcurrentHashMap<String, Channel>();
-    private final ConcurrentHashMap<String, AtomicInteger> connectionsPerHost =
-            new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Channel>> connectionsPool =
+            new ConcurrentHashMap<String, ConcurrentLinkedQueue<Channel>>();
     private final AsyncHttpClientConfig config;
 
 
@@ -51,17 +50,21 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
             log.debug(String.format(NettyAsyncHttpProvider.currentThread() + "Adding uri: %s for channel %s", uri, connection));
         }
 
-        AtomicInteger connectionPerHost = connectionsPerHost.get(uri);
-        if (connectionPerHost == null) {
-            connectionPerHost = new AtomicInteger(1);
-            connectionsPerHost.put(uri, connectionPerHost);
+        ConcurrentLinkedQueue<Channel> idleConnections = connectionsPool.get(uri);
+        if (idleConnections == null) {
+            ConcurrentLinkedQueue<Channel> newPool = new ConcurrentLinkedQueue<Channel>();
+            idleConnections = connectionsPool.putIfAbsent(uri, newPool);
+            if (idleConnections == null) {
+                idleConnections = newPool;
+            }
         }
 
-        if (config.getMaxConnectionPerHost() == -1 || connectionPerHost.get() < config.getMaxConnectionPerHost()) {
-            boolean added = connectionsPool.put(uri, connection) == null ? true : false;
-            if (added) {
-                connectionPerHost.incrementAndGet();
-            }
+        if (idleConnections.contains(connection)) {
+            return true;
+        }
+
+        if (config.getMaxConnectionPerHost() == -1 || idleConnections.size() < config.getMaxConnectionPerHost()) {
+            idleConnections.add(connection);
         } else {
             log.warn("Maximum connections per hosts reached " + config.getMaxConnectionPerHost());
             return false;
@@ -73,11 +76,16 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
      * {@inheritDoc}
      */
     public Channel getConnection(String uri) {
-        Channel channel = connectionsPool.get(uri);
-        if (channel != null && !channel.isOpen()) {
-            removeConnection(uri);
+        ConcurrentLinkedQueue<Channel> idleConnections = connectionsPool.get(uri);
+        if (idleConnections == null) {
             return null;
         }
+
+        Channel channel = idleConnections.peek();
+        while (channel != null && !channel.isOpen()) {
+            removeAllConnections(channel);
+            channel = idleConnections.peek();
+        }
         return channel;
     }
 
@@ -85,11 +93,16 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
      * {@inheritDoc}
      */
     public Channel removeConnection(String uri) {
-        Channel channel = connectionsPool.remove(uri);
-        if (channel != null && (!channel.isConnected() || !channel.isOpen())) {
-            removeAllConnections(channel);
+        ConcurrentLinkedQueue<Channel> idleConnections = connectionsPool.get(uri);
+        if (idleConnections == null) {
             return null;
         }
+
+        Channel channel = idleConnections.poll();
+        while (channel != null && (!channel.isConnected() || !channel.isOpen())) {
+            removeAllConnections(channel);
+            channel = idleConnections.poll();
+        }
         return channel;
     }
 
@@ -98,15 +111,12 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
      */
     public boolean removeAllConnections(Channel connection) {
         boolean isRemoved = false;
-        Iterator<Map.Entry<String,Channel>> i = connectionsPool.entrySet().iterator();
-        while (i.hasNext()) {
-            Map.Entry<String,Channel> e = i.next();
-            if (e.getValue().equals(connection)) {
+        for (Map.Entry<String, ConcurrentLinkedQueue<Channel>> e : connectionsPool.entrySet()) {
+            if (e.getValue().remove(connection)) {
                 if (log.isDebugEnabled()) {
                     log.debug(String.format(NettyAsyncHttpProvider.currentThread()
-                            + "Removing uri: %s for channel %s", e.getKey(), e.getValue()));
+                            + "Removing uri: %s for channel %s", e.getKey(), connection));
                 }
-                i.remove();
                 isRemoved = true;
             }
         }
@@ -117,23 +127,56 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
      * {@inheritDoc}
      */
     public boolean canCacheConnection() {
-        if (config.getMaxTotalConnections() != -1 && connectionsPool.size() >= config.getMaxTotalConnections()) {
+        if (config.getMaxTotalConnections() != -1 && size() >= config.getMaxTotalConnections()) {
             return false;
         } else {
             return true;
         }
     }
 
+    /**
+     * Return the number of idle {@link Channel} cached for the uri, including the partitions of the endpoints
+     * selected by a {@link com.ning.http.client.loadbalancer.LoadBalancer} (keyed <tt>uri@address:port</tt>).
+     *
+     * @param uri the uri used when invoking addConnection
+     * @return the number of idle {@link Channel} cached for the uri.
+     */
+    public int size(String uri) {
+        int size = 0;
+        String partitionPrefix = uri + "@";
+        for (Map.Entry<String, ConcurrentLinkedQueue<Channel>> e : connectionsPool.entrySet()) {
+            if (e.getKey().equals(uri) || e.getKey().startsWith(partitionPrefix)) {
+                size += e.getValue().size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Return the total number of idle {@link Channel} cached.
+     *
+     * @return the total number of idle {@link Channel} cached.
+     */
+    public int size() {
+        int size = 0;
+        for (ConcurrentLinkedQueue<Channel> idleConnections : connectionsPool.values()) {
+            size += idleConnections.size();
+        }
+        return size;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void destroy() {
         try {
-            Iterator<Map.Entry<String,Channel>> i = connectionsPool.entrySet().iterator();
-            while (i.hasNext()) {
-                Channel channel = i.next().getValue();
-                removeAllConnections(channel);
-                channel.close();
+            for (ConcurrentLinkedQueue<Channel> idleConnections : connectionsPool.values()) {
+                Iterator<Channel> i = idleConnections.iterator();
+                while (i.hasNext()) {
+                    Channel channel = i.next();
+                    i.remove();
+                    channel.close();
+                }
             }
         } finally {
             connectionsPool.clear();
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The I/O threads of the {@link NettyAsyncHttpProvider}: a boss thread connecting the channels, the worker threads
+ * reading and writing them, and the {@link Timer} of the timeouts. Each provider creates its own by default; set the
+ * same instance as the <tt>nettyResources</tt> property of several {@link NettyAsyncHttpProviderConfig}s to share
+ * them between clients instead.
+ * <p/>
+ * Closing a client doesn't release shared resources: call {@link #releaseExternalResources()} once all the clients
+ * using them are closed.
+ */
+public class NettyResources {
+
+    private final NioClientSocketChannelFactory channelFactory;
+
+    private final Timer timer;
+
+    /**
+     * Create resources with twice as many workers as there are processors.
+     */
+    public NettyResources() {
+        this(Runtime.getRuntime().availableProcessors() * 2, null);
+    }
+
+    /**
+     * @param workerCount   the number of worker threads.
+     * @param threadFactory the factory of all the threads, null for the default one.
+     */
+    public NettyResources(int workerCount, ThreadFactory threadFactory) {
+        this(workerCount, threadFactory, null);
+    }
+
+    NettyResources(int workerCount, ThreadFactory threadFactory, Executor workerExecutor) {
+        if (threadFactory == null) {
+            threadFactory = Executors.defaultThreadFactory();
+        }
+        if (workerExecutor == null) {
+            workerExecutor = Executors.newCachedThreadPool(threadFactory);
+        }
+        channelFactory = new NioClientSocketChannelFactory(Executors.newCachedThreadPool(threadFactory),
+                workerExecutor, workerCount);
+        timer = new HashedWheelTimer(threadFactory);
+    }
+
+    /**
+     * Return the factory of the channels, holding the boss and worker threads.
+     *
+     * @return the factory of the channels.
+     */
+    public NioClientSocketChannelFactory getChannelFactory() {
+        return channelFactory;
+    }
+
+    /**
+     * Return the {@link Timer} of the timeouts.
+     *
+     * @return the {@link Timer} of the timeouts.
+     */
+    public Timer getTimer() {
+        return timer;
+    }
+
+    /**
+     * Stop the threads.
+     */
+    public void releaseExternalResources() {
+        timer.stop();
+        channelFactory.releaseExternalResources();
+    }
+}
@@ -16,15 +16,28 @@
 package com.ning.http.client.providers.netty;
 
 import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.CircuitBreaker;
 import com.ning.http.client.FutureImpl;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
 import com.ning.http.client.Request;
+import com.ning.http.client.loadbalancer.LoadBalancer;
+import com.ning.http.util.AsyncHttpProviderUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -40,6 +53,12 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public final class NettyResponseFuture<V> implements FutureImpl<V> {
 
+    /**
+     * The number of parts waiting on the callback executor past which the channel stops being read, until half of
+     * them got handed to the {@link AsyncHandler}.
+     */
+    private final static int MAX_QUEUED_PARTS = 16;
+
     enum STATE {
         NEW,
         POOLED,
@@ -60,12 +79,35 @@ public final class NettyResponseFuture<V> implements FutureImpl<V> {
     private HttpResponse httpResponse;
     private final AtomicReference<ExecutionException> exEx = new AtomicReference<ExecutionException>();
     private final AtomicInteger redirectCount = new AtomicInteger();
-    private Future<?> reaperFuture;
+    private final AtomicInteger retryCount = new AtomicInteger();
+    private volatile Future<?> reaperFuture;
     private final AtomicBoolean inAuth = new AtomicBoolean(false);
     private final AtomicBoolean statusReceived = new AtomicBoolean(false);
     private final AtomicLong touch = new AtomicLong(System.currentTimeMillis());
     private final NettyAsyncHttpProvider asyncHttpProvider;
     private final AtomicReference<STATE> state = new AtomicReference<STATE>(STATE.NEW);
+    private String poolKey;
+    private final AtomicReference<InetSocketAddress> endpoint = new AtomicReference<InetSocketAddress>();
+    private volatile LoadBalancer loadBalancer;
+    private final AtomicReference<String> circuit = new AtomicReference<String>();
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile Channel channel;
+    private volatile int ntlmMessageType;
+    private volatile String pendingNtlmAuthorization;
+    private long queuedAt;
+    private final AtomicBoolean waiting = new AtomicBoolean(false);
+    private volatile boolean bodyWithheld;
+    private final List<ChannelBuffer> pooledBodies = new ArrayList<ChannelBuffer>(1);
+    private int pooledBodyWrites;
+    private boolean completed;
+    private final SerialExecutor callbackExecutor;
+    private final CallbackMetrics callbackMetrics;
+    private final AtomicBoolean terminated = new AtomicBoolean(false);
+    private volatile boolean interrupted;
+    private volatile Throwable callbackFailure;
+    private volatile boolean handlerFailed;
+    private final AtomicInteger queuedParts = new AtomicInteger();
+    private Channel suspended;
 
     public NettyResponseFuture(URI uri,
                                Request request,
@@ -80,6 +122,11 @@ public final class NettyResponseFuture<V> implements FutureImpl<V> {
         this.nettyRequest = nettyRequest;
         this.uri = uri;
         this.asyncHttpProvider = asyncHttpProvider;
+
+        Executor executor = asyncHttpProvider != null ? asyncHttpProvider.getCallbackExecutor() : null;
+        this.callbackExecutor = executor != null ? new SerialExecutor(executor) : null;
+        this.callbackMetrics = asyncHttpProvider != null ? asyncHttpProvider.getCallbackMetrics() : null;
+        holdPooledBody(nettyRequest);
     }
 
     public URI getURI() throws MalformedURLException {
@@ -111,8 +158,17 @@ public final class NettyResponseFuture<V> implements FutureImpl<V> {
      */
     /* @Override */
     public boolean cancel(boolean force) {
+        releasePooledBodies(true);
+        endpointCompleted();
+        circuit.set(null);
+        boolean done = isDone.get();
         latch.countDown();
         isCancelled.set(true);
+        // The response is still being written by the server, the connection can't be reused.
+        Channel c = channel;
+        if (c != null && !done) {
+            c.close();
+        }
         if (reaperFuture != null) reaperFuture.cancel(true);
         return true;
     }
@@ -154,7 +210,7 @@ public final class NettyResponseFuture<V> implements FutureImpl<V> {
                 isCancelled.set(true);
                 TimeoutException te = new TimeoutException("No response received");
                 try {
-                    asyncHandler.onThrowable(te);
+                    onThrowable(te);
                 } finally {
                     throw te;
                 }
@@ -172,21 +228,29 @@ public final class NettyResponseFuture<V> implements FutureImpl<V> {
     V getContent() {
         V update = content.get();
         if (update == null) {
+            long start = System.nanoTime();
             try {
                 update = asyncHandler.onCompleted();
             } catch (Throwable ex) {
                 try {
-                    asyncHandler.onThrowable(ex);
+                    onThrowable(ex);
                 } finally {
                     throw new RuntimeException(ex);
                 }
             }
+            record("onCompleted", start);
             content.compareAndSet(null, update);
         }
         return update;
     }
 
     public final void done() {
+        endpointCompleted();
+        circuitCompleted(httpResponse != null && httpResponse.getStatus().getCode() >= 500);
+        if (callbackExecutor != null) {
+            completeLater();
+            return;
+        }
         try {
             if (exEx.get() != null){
                 return;
@@ -195,24 +259,218 @@ public final class NettyResponseFuture<V> implements FutureImpl<V> {
             isDone.set(true);
             getContent();
         } finally {
+            releasePooledBodies(true);
             latch.countDown();
         }
     }
 
     public final void abort(final Throwable t) {
+        releasePooledBodies(true);
+        endpointCompleted();
+        if (handlerFailed || !(t instanceof IOException || t instanceof TimeoutException)) {
+            // Only connection, I/O and timeout failures are the host's: anything else, like an exception thrown by
+            // the AsyncHandler, is neither a success nor a failure of its circuit.
+            circuit.set(null);
+        } else {
+            circuitCompleted(true);
+        }
         if (reaperFuture != null) reaperFuture.cancel(true);
 
         if (isDone.get() || isCancelled.get()) return;
 
+        if (callbackExecutor != null) {
+            if (!terminated.compareAndSet(false, true)) return;
+            exEx.compareAndSet(null, new ExecutionException(t));
+            callbackExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        onThrowable(t);
+                    } finally {
+                        isDone.set(true);
+                        latch.countDown();
+                    }
+                }
+            });
+            return;
+        }
+
         exEx.compareAndSet(null, new ExecutionException(t));
         try {
-            asyncHandler.onThrowable(t);
+            onThrowable(t);
         } finally {
             isDone.set(true);
             latch.countDown();
         }
     }
 
+    /**
+     * Complete the future once the callbacks already dispatched to the callback executor have run.
+     */
+    private void completeLater() {
+        try {
+            if (reaperFuture != null) reaperFuture.cancel(true);
+        } finally {
+            releasePooledBodies(true);
+        }
+        if (exEx.get() != null || !terminated.compareAndSet(false, true)) {
+            return;
+        }
+
+        callbackExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    Throwable failure = callbackFailure;
+                    if (failure != null) {
+                        exEx.compareAndSet(null, new ExecutionException(failure));
+                        onThrowable(failure);
+                    } else {
+                        getContent();
+                    }
+                } catch (RuntimeException ex) {
+                    // onCompleted failed, and the handler has been told.
+                    exEx.compareAndSet(null, new ExecutionException(ex.getCause()));
+                } finally {
+                    isDone.set(true);
+                    latch.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Hand a part of the response to the {@link AsyncHandler}, either a {@link HttpResponseStatus}, a
+     * {@link HttpResponseHeaders} or a {@link HttpResponseBodyPart}.
+     *
+     * @return true if the handler interrupted the processing of the response. When the callbacks run on the callback
+     *         executor, an interruption is only known when the next part is received.
+     */
+    boolean deliver(final Object part) throws Exception {
+        if (callbackExecutor == null) {
+            try {
+                return invoke(part) != AsyncHandler.STATE.CONTINUE;
+            } catch (Exception ex) {
+                handlerFailed = true;
+                throw ex;
+            }
+        }
+        if (interrupted || terminated.get()) {
+            return true;
+        }
+
+        queuedParts.incrementAndGet();
+        callbackExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (!interrupted && invoke(part) != AsyncHandler.STATE.CONTINUE) {
+                        interrupted = true;
+                    }
+                } catch (Throwable t) {
+                    callbackFailure = t;
+                    interrupted = true;
+                } finally {
+                    queuedParts.decrementAndGet();
+                    resumeReading();
+                }
+            }
+        });
+        suspendReading();
+        return false;
+    }
+
+    /**
+     * Stop reading the channel while the {@link AsyncHandler} is late on the parts already received, so a slow
+     * handler doesn't get the whole response buffered in memory.
+     */
+    private void suspendReading() {
+        Channel c = channel;
+        synchronized (queuedParts) {
+            if (c != null && suspended == null && queuedParts.get() >= MAX_QUEUED_PARTS) {
+                suspended = c;
+                c.setReadable(false);
+            }
+        }
+    }
+
+    private void resumeReading() {
+        synchronized (queuedParts) {
+            if (suspended != null && queuedParts.get() <= MAX_QUEUED_PARTS / 2) {
+                suspended.setReadable(true);
+                suspended = null;
+            }
+        }
+    }
+
+    private AsyncHandler.STATE invoke(Object part) throws Exception {
+        long start = System.nanoTime();
+        if (part instanceof HttpResponseStatus) {
+            try {
+                return asyncHandler.onStatusReceived((HttpResponseStatus) part);
+            } finally {
+                record("onStatusReceived", start);
+            }
+        } else if (part instanceof HttpResponseHeaders) {
+            try {
+                return asyncHandler.onHeadersReceived((HttpResponseHeaders) part);
+            } finally {
+                record("onHeadersReceived", start);
+            }
+        } else {
+            try {
+                return asyncHandler.onBodyPartReceived((HttpResponseBodyPart) part);
+            } finally {
+                record("onBodyPartReceived", start);
+            }
+        }
+    }
+
+    /**
+     * Run a callback of the {@link AsyncHandler}, in order with the other ones.
+     */
+    void callback(Runnable callback) {
+        if (callbackExecutor == null) {
+            callback.run();
+        } else {
+            callbackExecutor.execute(callback);
+        }
+    }
+
+    /**
+     * Tell the {@link AsyncHandler} about a failure, without completing this future.
+     */
+    void notifyThrowable(final Throwable t) {
+        if (callbackExecutor == null) {
+            onThrowable(t);
+        } else if (!terminated.get()) {
+            callbackExecutor.execute(new Runnable() {
+                public void run() {
+                    onThrowable(t);
+                }
+            });
+        }
+    }
+
+    private void onThrowable(Throwable t) {
+        long start = System.nanoTime();
+        try {
+            asyncHandler.onThrowable(t);
+        } finally {
+            record("onThrowable", start);
+        }
+    }
+
+    private void record(String callback, long start) {
+        if (callbackMetrics != null) {
+            callbackMetrics.record(asyncHandler, callback, start);
+        }
+    }
+
+    /**
+     * Return true if the future is done, or about to be once the pending callbacks have run.
+     */
+    boolean isTerminated() {
+        return isDone.get() || terminated.get();
+    }
+
     public final Request getRequest() {
         return request;
     }
@@ -223,6 +481,7 @@ public final class NettyResponseFuture<V> implements FutureImpl<V> {
 
     protected final void setNettyRequest(HttpRequest nettyRequest) {
         this.nettyRequest = nettyRequest;
+        holdPooledBody(nettyRequest);
     }
 
     public final AsyncHandler<V> getAsyncHandler() {
@@ -249,7 +508,28 @@ public final class NettyResponseFuture<V> implements FutureImpl<V> {
         return redirectCount.incrementAndGet();
     }
 
+    int getRetryCount() {
+        return retryCount.get();
+    }
+
+    int incrementAndGetRetryCount() {
+        return retryCount.incrementAndGet();
+    }
+
+    /**
+     * Report the failure of the current exchange before the request gets retried: the {@link LoadBalancer} and
+     * the {@link CircuitBreaker} are told about it, and the response, if any, is forgotten.
+     */
+    void attemptFailed() {
+        endpointCompleted();
+        circuitCompleted(true);
+        httpResponse = null;
+        if (reaperFuture != null) reaperFuture.cancel(true);
+    }
+
     public void setReaperFuture(Future<?> reaperFuture) {
+        // The timeout started while the request was waiting to be sent, or by a previous exchange, is replaced.
+        if (this.reaperFuture != null) this.reaperFuture.cancel(true);
         this.reaperFuture = reaperFuture;
     }
 
@@ -269,14 +549,195 @@ public final class NettyResponseFuture<V> implements FutureImpl<V> {
         this.state.set(state);
     }
 
+    /**
+     * Return the key used to store the connection in the {@link com.ning.http.client.ConnectionsPool}
+     *
+     * @return the key used to store the connection in the {@link com.ning.http.client.ConnectionsPool}
+     */
+    String getPoolKey() {
+        return poolKey != null ? poolKey : AsyncHttpProviderUtils.getBaseUrl(uri);
+    }
+
+    void setPoolKey(String poolKey) {
+        this.poolKey = poolKey;
+    }
+
+    /**
+     * Record the endpoint the {@link LoadBalancer} selected. The {@link LoadBalancer} is notified once the request
+     * completes, or when a redirect or a retry selects another endpoint.
+     */
+    void setEndpoint(LoadBalancer loadBalancer, InetSocketAddress endpoint) {
+        endpointCompleted();
+        this.loadBalancer = loadBalancer;
+        loadBalancer.onRequestStarted(endpoint);
+        this.endpoint.set(endpoint);
+    }
+
+    private void endpointCompleted() {
+        InetSocketAddress e = endpoint.getAndSet(null);
+        if (e != null) {
+            loadBalancer.onRequestCompleted(e);
+        }
+    }
+
+    /**
+     * Flag a request waiting to be sent, so the time it waits isn't forgotten once it's sent.
+     *
+     * @return true if the request was waiting.
+     */
+    boolean getAndSetWaiting(boolean waiting) {
+        return this.waiting.getAndSet(waiting);
+    }
+
+    /**
+     * Return the time the request started waiting for a connection, 0 if it never did.
+     */
+    long getQueuedAt() {
+        return queuedAt;
+    }
+
+    void setQueuedAt(long queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
+    /**
+     * Return true if the server answered <tt>Expect: 100-continue</tt> with a final status, so the body hasn't been
+     * sent and the connection can't be reused.
+     */
+    boolean isBodyWithheld() {
+        return bodyWithheld;
+    }
+
+    void setBodyWithheld(boolean bodyWithheld) {
+        this.bodyWithheld = bodyWithheld;
+    }
+
+    /**
+     * Keep the body of a request built for this future, if allocated from the {@link PooledChannelBufferFactory} of
+     * the provider, until the future is complete and the body written: redirects and retries write it again, and a
+     * future cancelled or aborted before its request is sent still gives it back.
+     */
+    void holdPooledBody(HttpRequest nettyRequest) {
+        if (nettyRequest == null || asyncHttpProvider == null || asyncHttpProvider.getPooledBufferFactory() == null
+                || nettyRequest.getContent().capacity() == 0) {
+            return;
+        }
+
+        ChannelBuffer body = nettyRequest.getContent();
+        synchronized (pooledBodies) {
+            for (ChannelBuffer b : pooledBodies) {
+                if (b == body) {
+                    return;
+                }
+            }
+            pooledBodies.add(body);
+        }
+        // The future may already be complete.
+        releasePooledBodies(false);
+    }
+
+    void pooledBodyWriteStarted() {
+        synchronized (pooledBodies) {
+            pooledBodyWrites++;
+        }
+    }
+
+    void pooledBodyWriteCompleted() {
+        synchronized (pooledBodies) {
+            pooledBodyWrites--;
+        }
+        releasePooledBodies(false);
+    }
+
+    private void releasePooledBodies(boolean complete) {
+        List<ChannelBuffer> released;
+        synchronized (pooledBodies) {
+            if (complete) {
+                completed = true;
+            }
+            if (!completed || pooledBodyWrites > 0 || pooledBodies.isEmpty()) {
+                return;
+            }
+            released = new ArrayList<ChannelBuffer>(pooledBodies);
+            pooledBodies.clear();
+        }
+
+        for (ChannelBuffer b : released) {
+            asyncHttpProvider.getPooledBufferFactory().release(b);
+        }
+    }
+
+    void attachChannel(Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Return the type of the last NTLM message sent on the channel, 0 if the handshake hasn't started.
+     */
+    int getNtlmMessageType() {
+        return ntlmMessageType;
+    }
+
+    void setNtlmMessageType(int ntlmMessageType) {
+        this.ntlmMessageType = ntlmMessageType;
+    }
+
+    /**
+     * Return the <tt>Authorization</tt> header of the NTLM message to send once the body of a chunked challenge has
+     * been read, null if none is pending.
+     */
+    String getPendingNtlmAuthorization() {
+        return pendingNtlmAuthorization;
+    }
+
+    void setPendingNtlmAuthorization(String pendingNtlmAuthorization) {
+        this.pendingNtlmAuthorization = pendingNtlmAuthorization;
+    }
+
+    /**
+     * Record the host whose {@link CircuitBreaker} is told about the outcome of the request. A redirect reports the
+     * outcome of the previous exchange, a retry before any response has been received doesn't.
+     */
+    void setCircuit(CircuitBreaker circuitBreaker, String host) {
+        if (httpResponse != null) {
+            circuitCompleted(httpResponse.getStatus().getCode() >= 500);
+        } else {
+            circuit.set(null);
+        }
+        this.circuitBreaker = circuitBreaker;
+        circuit.set(host);
+    }
+
+    private void circuitCompleted(boolean failed) {
+        String host = circuit.getAndSet(null);
+        if (host != null) {
+            if (failed) {
+                circuitBreaker.onFailure(host);
+            } else {
+                circuitBreaker.onSuccess(host);
+            }
+        }
+    }
+
     public boolean getAndSetStatusReceived(boolean sr) {
         return statusReceived.getAndSet(sr);
     }
 
+    boolean isStatusReceived() {
+        return statusReceived.get();
+    }
+
     protected void touch() {
         touch.set(System.currentTimeMillis());
     }
 
+    /**
+     * Return the time of the last activity of the request.
+     */
+    long getTouch() {
+        return touch.get();
+    }
+
     protected NettyAsyncHttpProvider provider() {
         return asyncHttpProvider;
     }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.PerRequestConfig;
+import com.ning.http.util.AsyncHttpProviderUtils;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The requests waiting for a connection once {@link AsyncHttpClientConfig#getMaxTotalConnections()} or
+ * {@link AsyncHttpClientConfig#getMaxConnectionPerHost()} is reached, one FIFO queue per
+ * {@link PerRequestConfig.Priority}. The request of the highest priority is served first, unless a request has
+ * been waiting for more than {@link AsyncHttpClientConfig#getQueuedRequestAgingInMs()}, in which case the one that
+ * has been waiting for the longest is.
+ */
+final class PendingRequests {
+
+    private final int maxQueuedRequests;
+    private final long agingInMs;
+    private final List<LinkedList<Waiter>> queues = new ArrayList<LinkedList<Waiter>>();
+    private int size;
+
+    PendingRequests(AsyncHttpClientConfig config) {
+        this.maxQueuedRequests = config.getMaxQueuedRequests();
+        this.agingInMs = config.getQueuedRequestAgingInMs();
+        for (int i = 0; i < PerRequestConfig.Priority.values().length; i++) {
+            queues.add(new LinkedList<Waiter>());
+        }
+    }
+
+    /**
+     * Queue a request. A request already served once, that still can't get a connection, gets its place back.
+     *
+     * @return false if too many requests are waiting.
+     */
+    synchronized boolean offer(NettyResponseFuture<?> future, URI uri) {
+        LinkedList<Waiter> queue = queues.get(priority(future).ordinal());
+        if (future.getQueuedAt() != 0) {
+            queue.addFirst(new Waiter(future, AsyncHttpProviderUtils.getBaseUrl(uri)));
+        } else if (size < maxQueuedRequests) {
+            future.setQueuedAt(System.currentTimeMillis());
+            queue.addLast(new Waiter(future, AsyncHttpProviderUtils.getBaseUrl(uri)));
+        } else {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove the next request to serve.
+     *
+     * @param baseUrl the host a connection has been freed for, or null if any request can be served.
+     * @return the next request to serve, or null if none is waiting.
+     */
+    synchronized NettyResponseFuture<?> poll(String baseUrl) {
+        long now = System.currentTimeMillis();
+        Waiter next = null;
+        Iterator<Waiter> nextIterator = null;
+
+        for (LinkedList<Waiter> queue : queues) {
+            for (Iterator<Waiter> i = queue.iterator(); i.hasNext();) {
+                Waiter w = i.next();
+                if (w.future.isDone() || w.future.isCancelled()) {
+                    i.remove();
+                    size--;
+                    continue;
+                }
+                if (baseUrl != null && !baseUrl.equals(w.baseUrl)) {
+                    continue;
+                }
+
+                // The head of a lower priority is only served first once it has aged.
+                if (next == null || (now - w.future.getQueuedAt() >= agingInMs
+                        && w.future.getQueuedAt() < next.future.getQueuedAt())) {
+                    next = w;
+                    nextIterator = i;
+                }
+                break;
+            }
+        }
+
+        if (next != null) {
+            nextIterator.remove();
+            size--;
+            return next.future;
+        }
+        return null;
+    }
+
+    synchronized List<NettyResponseFuture<?>> drain() {
+        List<NettyResponseFuture<?>> futures = new ArrayList<NettyResponseFuture<?>>(size);
+        for (LinkedList<Waiter> queue : queues) {
+            for (Waiter w : queue) {
+                futures.add(w.future);
+            }
+            queue.clear();
+        }
+        size = 0;
+        return futures;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private static PerRequestConfig.Priority priority(NettyResponseFuture<?> future) {
+        PerRequestConfig perRequestConfig = future.getRequest().getPerRequestConfig();
+        if (perRequestConfig == null || perRequestConfig.getPriority() == null) {
+            return PerRequestConfig.Priority.NORMAL;
+        }
+        return perRequestConfig.getPriority();
+    }
+
+    private final static class Waiter {
+        private final NettyResponseFuture<?> future;
+        private final String baseUrl;
+
+        private Waiter(NettyResponseFuture<?> future, String baseUrl) {
+            this.future = future;
+            this.baseUrl = baseUrl;
+        }
+    }
+}
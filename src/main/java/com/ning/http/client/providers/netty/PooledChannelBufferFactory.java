@@ -0,0 +1,244 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import org.jboss.netty.buffer.AbstractChannelBufferFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link org.jboss.netty.buffer.ChannelBufferFactory} recycling its buffers, by size classes of a power of two
+ * from {@link #MIN_POOLED_CAPACITY} to {@link #MAX_POOLED_CAPACITY}. Set it as the <tt>bufferFactory</tt> property of
+ * a {@link NettyAsyncHttpProviderConfig}: it's then used by Netty for the bytes it reads, and by the
+ * {@link NettyAsyncHttpProvider} for the bodies of the requests, which are released once written and once the
+ * response has been received.
+ * <p/>
+ * Only the buffers passed to {@link #release(ChannelBuffer)} are recycled; the ones Netty allocates are left to the
+ * garbage collector like with the default factory. With leak detection, enabled by the
+ * <tt>com.ning.http.client.providers.netty.PooledChannelBufferFactory.leakDetection</tt> system property, the buffers
+ * returned by {@link #acquire(int)} and never released are reported by {@link #getLeaks()}.
+ */
+public class PooledChannelBufferFactory extends AbstractChannelBufferFactory {
+
+    public final static int MIN_POOLED_CAPACITY = 256;
+
+    public final static int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private final static int DEFAULT_MAX_BUFFERS_PER_SIZE = 64;
+
+    private final boolean direct;
+    private final int maxBuffersPerSize;
+    private final List<SizeClass> sizes = new ArrayList<SizeClass>();
+    private final Map<ChannelBuffer, Throwable> outstanding;
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public PooledChannelBufferFactory() {
+        this(false);
+    }
+
+    /**
+     * @param direct true to pool direct buffers instead of heap buffers.
+     */
+    public PooledChannelBufferFactory(boolean direct) {
+        this(direct, DEFAULT_MAX_BUFFERS_PER_SIZE,
+                Boolean.getBoolean(PooledChannelBufferFactory.class.getName() + ".leakDetection"));
+    }
+
+    /**
+     * @param direct            true to pool direct buffers instead of heap buffers.
+     * @param maxBuffersPerSize the number of free buffers kept per size class.
+     * @param leakDetection     true to record where the buffers returned by {@link #acquire(int)} are allocated.
+     */
+    public PooledChannelBufferFactory(boolean direct, int maxBuffersPerSize, boolean leakDetection) {
+        this.direct = direct;
+        this.maxBuffersPerSize = maxBuffersPerSize;
+        this.outstanding = leakDetection
+                ? Collections.synchronizedMap(new IdentityHashMap<ChannelBuffer, Throwable>()) : null;
+        for (int capacity = MIN_POOLED_CAPACITY; capacity <= MAX_POOLED_CAPACITY; capacity <<= 1) {
+            sizes.add(new SizeClass());
+        }
+    }
+
+    /* @Override */
+    public ChannelBuffer getBuffer(ByteOrder order, int capacity) {
+        if (capacity == 0) {
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+
+        int index = sizeIndex(capacity);
+        if (index == -1) {
+            allocated.incrementAndGet();
+            return direct ? ChannelBuffers.directBuffer(order, capacity) : ChannelBuffers.buffer(order, capacity);
+        }
+
+        SizeClass size = sizes.get(index);
+        Object storage = size.free.poll();
+        if (storage != null) {
+            size.count.decrementAndGet();
+            reused.incrementAndGet();
+        } else {
+            allocated.incrementAndGet();
+            int pooledCapacity = MIN_POOLED_CAPACITY << index;
+            storage = direct ? ByteBuffer.allocateDirect(pooledCapacity) : new byte[pooledCapacity];
+        }
+
+        ChannelBuffer buffer = direct
+                ? ChannelBuffers.wrappedBuffer(((ByteBuffer) storage).order(order))
+                : ChannelBuffers.wrappedBuffer(order, (byte[]) storage);
+        buffer.clear();
+        return buffer;
+    }
+
+    /* @Override */
+    public ChannelBuffer getBuffer(ByteOrder order, byte[] array, int offset, int length) {
+        if (length == 0) {
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+        ChannelBuffer buffer = getBuffer(order, length);
+        buffer.writeBytes(array, offset, length);
+        return buffer;
+    }
+
+    /* @Override */
+    public ChannelBuffer getBuffer(ByteBuffer nioBuffer) {
+        if (!nioBuffer.hasRemaining()) {
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+        ChannelBuffer buffer = getBuffer(nioBuffer.order(), nioBuffer.remaining());
+        buffer.writeBytes(nioBuffer.duplicate());
+        return buffer;
+    }
+
+    /**
+     * Return a dynamic buffer, growing within the pool, to be given back with {@link #release(ChannelBuffer)}.
+     *
+     * @param estimatedLength the expected number of bytes written to the buffer.
+     * @return a dynamic buffer.
+     */
+    public ChannelBuffer acquire(int estimatedLength) {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(getDefaultOrder(), Math.max(estimatedLength, 1), this);
+        if (outstanding != null) {
+            outstanding.put(buffer, new Throwable("Buffer allocated here"));
+        }
+        return buffer;
+    }
+
+    /**
+     * Give back a buffer. It must not be used, nor any of its slices and duplicates, once released.
+     *
+     * @param buffer a buffer returned by this factory.
+     */
+    public void release(ChannelBuffer buffer) {
+        if (outstanding != null) {
+            outstanding.remove(buffer);
+        }
+
+        Object storage;
+        int capacity;
+        if (direct && buffer.isDirect()) {
+            ByteBuffer b = buffer.toByteBuffer(0, buffer.capacity());
+            storage = b.clear();
+            capacity = b.capacity();
+        } else if (!direct && buffer.hasArray() && buffer.arrayOffset() == 0) {
+            storage = buffer.array();
+            capacity = buffer.array().length;
+        } else {
+            return;
+        }
+
+        int index = sizeIndex(capacity);
+        if (index == -1 || (MIN_POOLED_CAPACITY << index) != capacity) {
+            return;
+        }
+
+        SizeClass size = sizes.get(index);
+        if (size.count.incrementAndGet() <= maxBuffersPerSize) {
+            size.free.offer(storage);
+        } else {
+            size.count.decrementAndGet();
+        }
+    }
+
+    /**
+     * Return true if the buffers are direct buffers.
+     *
+     * @return true if the buffers are direct buffers.
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Return the number of buffers allocated, rather than recycled, since the factory was created.
+     *
+     * @return the number of buffers allocated.
+     */
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+
+    /**
+     * Return the number of buffers recycled since the factory was created.
+     *
+     * @return the number of buffers recycled.
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * Return where the buffers returned by {@link #acquire(int)}, and not released yet, were allocated. Always empty
+     * without leak detection.
+     *
+     * @return where the outstanding buffers were allocated.
+     */
+    public List<Throwable> getLeaks() {
+        if (outstanding == null) {
+            return Collections.emptyList();
+        }
+        synchronized (outstanding) {
+            return new ArrayList<Throwable>(outstanding.values());
+        }
+    }
+
+    private static int sizeIndex(int capacity) {
+        if (capacity > MAX_POOLED_CAPACITY) {
+            return -1;
+        }
+        int index = 0;
+        for (int c = MIN_POOLED_CAPACITY; c < capacity; c <<= 1) {
+            index++;
+        }
+        return index;
+    }
+
+    private final static class SizeClass {
+        private final ConcurrentLinkedQueue<Object> free = new ConcurrentLinkedQueue<Object>();
+        private final AtomicInteger count = new AtomicInteger();
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.PerRequestConfig;
+import com.ning.http.client.Request;
+import com.ning.http.client.logging.LogManager;
+import com.ning.http.client.logging.Logger;
+import com.ning.http.util.AsyncHttpProviderUtils;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limiting of the requests sent by a {@link NettyAsyncHttpProvider}, globally using
+ * {@link AsyncHttpClientConfig#getRateLimitPerSecond()} and per host using
+ * {@link AsyncHttpClientConfig#getRateLimitsPerSecondPerHost()}. A request consuming more tokens than available is
+ * queued, and its {@link NettyResponseFuture} returned right away: this {@link TimerTask} refills the buckets every
+ * {@link #REFILL_INTERVAL_IN_MS} and sends the queued requests of every host, in order, as tokens become available.
+ * The request timeout starts when a request is queued.
+ * Redirects and retries of a request that has been sent don't consume tokens.
+ */
+final class RateLimiter implements TimerTask {
+
+    private final static Logger log = LogManager.getLogger(RateLimiter.class);
+
+    final static int REFILL_INTERVAL_IN_MS = 100;
+
+    private final NettyAsyncHttpProvider provider;
+    private final Timer timer;
+    private final TokenBucket global;
+    private final ConcurrentHashMap<String, TokenBucket> hosts = new ConcurrentHashMap<String, TokenBucket>();
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Pending<?>>> queues =
+            new ConcurrentHashMap<String, ConcurrentLinkedQueue<Pending<?>>>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    RateLimiter(NettyAsyncHttpProvider provider, Timer timer, AsyncHttpClientConfig config) {
+        this.provider = provider;
+        this.timer = timer;
+
+        long now = System.currentTimeMillis();
+        global = config.getRateLimitPerSecond() > 0 ? new TokenBucket(config.getRateLimitPerSecond(), now) : null;
+        for (Map.Entry<String, Integer> e : config.getRateLimitsPerSecondPerHost().entrySet()) {
+            String baseUrl = AsyncHttpProviderUtils.getBaseUrl(AsyncHttpProviderUtils.createUri(e.getKey()));
+            hosts.put(baseUrl, new TokenBucket(e.getValue(), now));
+        }
+    }
+
+    void start() {
+        timer.newTimeout(this, REFILL_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send the request if enough tokens are available and no request to the same host is waiting, or queue it.
+     */
+    <T> Future<T> execute(Request request, AsyncHandler<T> asyncHandler) throws IOException {
+        URI uri = AsyncHttpProviderUtils.createUri(request.getUrl());
+        String baseUrl = AsyncHttpProviderUtils.getBaseUrl(uri);
+        int cost = cost(request);
+
+        ConcurrentLinkedQueue<Pending<?>> queue = queue(baseUrl);
+        if (queue.isEmpty() && tryAcquire(hosts.get(baseUrl), cost)) {
+            return provider.doConnect(request, asyncHandler, null);
+        }
+
+        NettyResponseFuture<T> future = provider.newFuture(uri, request, asyncHandler);
+
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Rate limit reached, delaying request %s", request.getUrl()));
+        }
+        pending.incrementAndGet();
+        queue.offer(new Pending<T>(request, cost, future));
+        future.getAndSetWaiting(true);
+        provider.scheduleReaper(null, future);
+        return future;
+    }
+
+    /**
+     * Return the number of requests waiting for tokens.
+     *
+     * @return the number of requests waiting for tokens.
+     */
+    int getPendingRequests() {
+        return pending.get();
+    }
+
+    /* @Override */
+    public void run(Timeout timeout) throws Exception {
+        if (provider.isClosed()) {
+            abortAll();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (global != null) {
+            global.refill(now);
+        }
+        for (TokenBucket bucket : hosts.values()) {
+            bucket.refill(now);
+        }
+
+        for (Map.Entry<String, ConcurrentLinkedQueue<Pending<?>>> e : queues.entrySet()) {
+            try {
+                drain(e.getValue(), hosts.get(e.getKey()));
+            } catch (Throwable t) {
+                log.warn(String.format("Unable to send the delayed requests to %s", e.getKey()), t);
+            }
+        }
+
+        try {
+            timer.newTimeout(this, REFILL_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException ex) {
+            // The timer has been stopped, the provider is closing.
+            abortAll();
+        }
+    }
+
+    private void drain(ConcurrentLinkedQueue<Pending<?>> queue, TokenBucket host) {
+        Pending<?> p;
+        while ((p = queue.peek()) != null) {
+            // A request that timed out or got cancelled while waiting is dropped without spending any token.
+            if (p.future.isDone() || p.future.isCancelled()) {
+                queue.poll();
+                pending.decrementAndGet();
+                continue;
+            }
+            if (!tryAcquire(host, p.cost)) {
+                return;
+            }
+            queue.poll();
+            pending.decrementAndGet();
+            p.send();
+        }
+    }
+
+    private void abortAll() {
+        for (ConcurrentLinkedQueue<Pending<?>> queue : queues.values()) {
+            Pending<?> p;
+            while ((p = queue.poll()) != null) {
+                pending.decrementAndGet();
+                p.future.abort(new IOException("Closed"));
+            }
+        }
+    }
+
+    private boolean tryAcquire(TokenBucket host, int cost) {
+        if (global != null && !global.tryAcquire(cost)) {
+            return false;
+        }
+        if (host != null && !host.tryAcquire(cost)) {
+            if (global != null) {
+                global.release(cost);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private ConcurrentLinkedQueue<Pending<?>> queue(String baseUrl) {
+        ConcurrentLinkedQueue<Pending<?>> queue = queues.get(baseUrl);
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue<Pending<?>>();
+            ConcurrentLinkedQueue<Pending<?>> previous = queues.putIfAbsent(baseUrl, queue);
+            if (previous != null) {
+                queue = previous;
+            }
+        }
+        return queue;
+    }
+
+    private static int cost(Request request) {
+        PerRequestConfig perRequestConfig = request.getPerRequestConfig();
+        return perRequestConfig != null ? Math.max(perRequestConfig.getRateLimitCost(), 0) : 1;
+    }
+
+    private final class Pending<T> {
+        private final Request request;
+        private final int cost;
+        private final NettyResponseFuture<T> future;
+
+        private Pending(Request request, int cost, NettyResponseFuture<T> future) {
+            this.request = request;
+            this.cost = cost;
+            this.future = future;
+        }
+
+        void send() {
+            if (future.isDone() || future.isCancelled()) {
+                return;
+            }
+            try {
+                provider.doConnect(request, future.getAsyncHandler(), future);
+            } catch (Throwable t) {
+                future.abort(t);
+            }
+        }
+    }
+
+    /**
+     * A bucket holding at most one second worth of tokens, kept in thousandth of a token.
+     */
+    private final static class TokenBucket {
+        private final long tokensPerSecond;
+        private final long capacity;
+        private final AtomicLong tokens;
+        private long lastRefill;
+
+        private TokenBucket(int tokensPerSecond, long now) {
+            this.tokensPerSecond = tokensPerSecond;
+            this.capacity = tokensPerSecond * 1000L;
+            this.tokens = new AtomicLong(capacity);
+            this.lastRefill = now;
+        }
+
+        /**
+         * Only called by the {@link Timer} thread.
+         */
+        void refill(long now) {
+            long added = (now - lastRefill) * tokensPerSecond;
+            lastRefill = now;
+            if (added <= 0) {
+                return;
+            }
+            for (;;) {
+                long t = tokens.get();
+                if (tokens.compareAndSet(t, Math.min(t + added, capacity))) {
+                    return;
+                }
+            }
+        }
+
+        boolean tryAcquire(int cost) {
+            long c = Math.min(cost * 1000L, capacity);
+            for (;;) {
+                long t = tokens.get();
+                if (t < c) {
+                    return false;
+                }
+                if (tokens.compareAndSet(t, t - c)) {
+                    return true;
+                }
+            }
+        }
+
+        void release(int cost) {
+            long c = Math.min(cost * 1000L, capacity);
+            for (;;) {
+                long t = tokens.get();
+                if (tokens.compareAndSet(t, Math.min(t + c, capacity))) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.handler.codec.compression.ZlibEncoder;
+import org.jboss.netty.handler.codec.compression.ZlibWrapper;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.stream.ChunkedInput;
+
+/**
+ * Compress the body of a request sent with <tt>Content-Encoding: gzip</tt> or <tt>deflate</tt> and
+ * <tt>Transfer-Encoding: chunked</tt>, each chunk being compressed as it's written. The body is either the content of
+ * the {@link HttpRequest}, a single {@link ChannelBuffer} written after it (see {@link ExpectContinueDecoder}), or
+ * a sequence of {@link HttpChunk} ending with {@link HttpChunk#LAST_CHUNK}, see {@link Chunks}.
+ */
+final class RequestBodyCompressor extends SimpleChannelDownstreamHandler {
+
+    final static String NAME = "deflater";
+
+    private final static int COMPRESSION_LEVEL = 6;
+
+    private volatile EncoderEmbedder<ChannelBuffer> encoder;
+
+    /**
+     * Return true if the body of the request that has been written is being compressed.
+     */
+    boolean isCompressing() {
+        return encoder != null;
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Object msg = e.getMessage();
+
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            encoder = null;
+
+            ZlibWrapper wrapper = wrapper(request);
+            if (wrapper == null) {
+                ctx.sendDownstream(e);
+                return;
+            }
+
+            encoder = new EncoderEmbedder<ChannelBuffer>(new ZlibEncoder(wrapper, COMPRESSION_LEVEL));
+            ChannelBuffer content = request.getContent();
+            if (!content.readable()) {
+                // The body will be written later.
+                ctx.sendDownstream(e);
+                return;
+            }
+
+            Channels.write(ctx, Channels.future(ctx.getChannel()),
+                    NettyAsyncHttpProvider.withoutContent(request), e.getRemoteAddress());
+            writeLast(ctx, e, content.duplicate());
+        } else if (encoder != null && msg instanceof HttpChunk) {
+            HttpChunk chunk = (HttpChunk) msg;
+            if (chunk.isLast()) {
+                writeLast(ctx, e, null);
+            } else {
+                write(ctx, e.getFuture(), e, compress(chunk.getContent()));
+            }
+        } else if (encoder != null && msg instanceof ChannelBuffer) {
+            writeLast(ctx, e, (ChannelBuffer) msg);
+        } else {
+            ctx.sendDownstream(e);
+        }
+    }
+
+    private void writeLast(ChannelHandlerContext ctx, MessageEvent e, ChannelBuffer content) {
+        ChannelBuffer compressed = content != null ? compress(content) : ChannelBuffers.EMPTY_BUFFER;
+        EncoderEmbedder<ChannelBuffer> encoder = this.encoder;
+        this.encoder = null;
+
+        if (encoder.finish()) {
+            compressed = ChannelBuffers.wrappedBuffer(compressed, poll(encoder));
+        }
+        write(ctx, Channels.future(ctx.getChannel()), e, compressed);
+        Channels.write(ctx, e.getFuture(), HttpChunk.LAST_CHUNK, e.getRemoteAddress());
+    }
+
+    private static void write(ChannelHandlerContext ctx, ChannelFuture future, MessageEvent e, ChannelBuffer compressed) {
+        // An empty chunk would end the body.
+        if (compressed.readable()) {
+            Channels.write(ctx, future, new DefaultHttpChunk(compressed), e.getRemoteAddress());
+        } else {
+            future.setSuccess();
+        }
+    }
+
+    private ChannelBuffer compress(ChannelBuffer content) {
+        encoder.offer(content);
+        return poll(encoder);
+    }
+
+    private static ChannelBuffer poll(EncoderEmbedder<ChannelBuffer> encoder) {
+        return ChannelBuffers.wrappedBuffer(encoder.pollAll(new ChannelBuffer[encoder.size()]));
+    }
+
+    private static ZlibWrapper wrapper(HttpRequest request) {
+        String te = request.getHeader(HttpHeaders.Names.TRANSFER_ENCODING);
+        if (te == null || !te.equalsIgnoreCase(HttpHeaders.Values.CHUNKED)) {
+            return null;
+        }
+
+        String encoding = request.getHeader(HttpHeaders.Names.CONTENT_ENCODING);
+        if (HttpHeaders.Values.GZIP.equalsIgnoreCase(encoding)) {
+            return ZlibWrapper.GZIP;
+        } else if (HttpHeaders.Values.DEFLATE.equalsIgnoreCase(encoding)) {
+            return ZlibWrapper.ZLIB;
+        }
+        return null;
+    }
+
+    /**
+     * Turn the {@link ChannelBuffer}s of a {@link ChunkedInput}, like a file, into {@link HttpChunk}s, so their end
+     * is known.
+     */
+    final static class Chunks implements ChunkedInput {
+
+        private final ChunkedInput input;
+        private boolean lastChunkSent;
+
+        Chunks(ChunkedInput input) {
+            this.input = input;
+        }
+
+        /* @Override */
+        public boolean hasNextChunk() throws Exception {
+            return !lastChunkSent;
+        }
+
+        /* @Override */
+        public Object nextChunk() throws Exception {
+            if (input.hasNextChunk()) {
+                ChannelBuffer chunk = (ChannelBuffer) input.nextChunk();
+                if (chunk != null && chunk.readable()) {
+                    return new DefaultHttpChunk(chunk);
+                }
+            }
+            if (input.isEndOfInput() && !lastChunkSent) {
+                lastChunkSent = true;
+                return HttpChunk.LAST_CHUNK;
+            }
+            return null;
+        }
+
+        /* @Override */
+        public boolean isEndOfInput() throws Exception {
+            return lastChunkSent;
+        }
+
+        /* @Override */
+        public void close() throws Exception {
+            input.close();
+        }
+    }
+}
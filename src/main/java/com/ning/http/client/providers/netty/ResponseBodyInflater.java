@@ -0,0 +1,291 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.compression.CompressionException;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompress the body of a response sent with <tt>Content-Encoding: gzip</tt> or <tt>deflate</tt>, using an
+ * {@link Inflater} borrowed from an {@link InflaterPool} for the duration of the response. The body is inflated into
+ * buffers of the {@link ChannelBufferFactory} of the channel, and the <tt>Content-Encoding</tt> header removed.
+ * <p/>
+ * The CRC-32 and the size in the gzip trailer are checked against the inflated bytes, and a body ending before the
+ * end of the compressed stream fails with a {@link CompressionException}, as a corrupt one does.
+ */
+final class ResponseBodyInflater extends SimpleChannelUpstreamHandler {
+
+    private final static int FHCRC = 0x02;
+    private final static int FEXTRA = 0x04;
+    private final static int FNAME = 0x08;
+    private final static int FCOMMENT = 0x10;
+    private final static int GZIP_TRAILER_LENGTH = 8;
+
+    private final InflaterPool pool;
+    private InflaterPool.Entry entry;
+    private ChannelBuffer gzipHeader;
+    private boolean gzip;
+    private final CRC32 crc = new CRC32();
+    private ChannelBuffer gzipTrailer;
+    private boolean started;
+    private boolean finished;
+
+    ResponseBodyInflater(InflaterPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Object msg = e.getMessage();
+
+        if (msg instanceof HttpResponse) {
+            release();
+
+            HttpResponse response = (HttpResponse) msg;
+            String encoding = response.getHeader(HttpHeaders.Names.CONTENT_ENCODING);
+            boolean gzip = HttpHeaders.Values.GZIP.equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding);
+            if (!gzip && !HttpHeaders.Values.DEFLATE.equalsIgnoreCase(encoding) && !"x-deflate".equalsIgnoreCase(encoding)) {
+                ctx.sendUpstream(e);
+                return;
+            }
+
+            entry = pool.borrow(gzip);
+            this.gzip = gzip;
+            gzipHeader = gzip ? ChannelBuffers.dynamicBuffer(16) : null;
+            gzipTrailer = gzip ? ChannelBuffers.buffer(GZIP_TRAILER_LENGTH) : null;
+            crc.reset();
+            started = false;
+            finished = false;
+            response.removeHeader(HttpHeaders.Names.CONTENT_ENCODING);
+
+            if (!response.isChunked()) {
+                try {
+                    ChannelBuffer content = inflate(ctx, response.getContent());
+                    checkComplete();
+                    response.setContent(content);
+                    if (response.containsHeader(HttpHeaders.Names.CONTENT_LENGTH)) {
+                        response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(content.readableBytes()));
+                    }
+                } finally {
+                    release();
+                }
+            }
+            ctx.sendUpstream(e);
+        } else if (msg instanceof HttpChunk && entry != null) {
+            HttpChunk chunk = (HttpChunk) msg;
+            if (chunk.isLast()) {
+                try {
+                    checkComplete();
+                } finally {
+                    release();
+                }
+            } else {
+                chunk.setContent(inflate(ctx, chunk.getContent()));
+                // An empty chunk would be taken for the last one.
+                if (!chunk.getContent().readable()) {
+                    return;
+                }
+            }
+            ctx.sendUpstream(e);
+        } else {
+            ctx.sendUpstream(e);
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        release();
+        super.channelClosed(ctx, e);
+    }
+
+    private void release() {
+        if (entry != null) {
+            pool.release(entry);
+            entry = null;
+            gzipHeader = null;
+            gzipTrailer = null;
+        }
+    }
+
+    /**
+     * Fail if the body ended before the end of the compressed stream, the gzip trailer included.
+     */
+    private void checkComplete() {
+        // The body of a HEAD request, or of a 304, is empty.
+        if (!started) {
+            return;
+        }
+        if (!finished || (gzipTrailer != null && gzipTrailer.writable())) {
+            throw new CompressionException("Truncated compressed response body");
+        }
+    }
+
+    private ChannelBuffer inflate(ChannelHandlerContext ctx, ChannelBuffer in) {
+        if (in.readable()) {
+            started = true;
+        }
+        if (finished) {
+            readGzipTrailer(in);
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+
+        if (gzipHeader != null) {
+            gzipHeader.writeBytes(in);
+            int length = gzipHeaderLength(gzipHeader);
+            if (length == -1) {
+                return ChannelBuffers.EMPTY_BUFFER;
+            }
+            gzipHeader.skipBytes(length);
+            in = gzipHeader;
+            gzipHeader = null;
+        }
+
+        byte[] input;
+        int offset;
+        int length = in.readableBytes();
+        if (in.hasArray()) {
+            input = in.array();
+            offset = in.arrayOffset() + in.readerIndex();
+        } else {
+            input = new byte[length];
+            in.getBytes(in.readerIndex(), input);
+            offset = 0;
+        }
+
+        Inflater inflater = entry.inflater;
+        byte[] buffer = entry.buffer;
+        ChannelBufferFactory factory = ctx.getChannel().getConfig().getBufferFactory();
+        List<ChannelBuffer> out = new ArrayList<ChannelBuffer>(2);
+
+        inflater.setInput(input, offset, length);
+        try {
+            for (;;) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated > 0) {
+                    if (gzip) {
+                        crc.update(buffer, 0, inflated);
+                    }
+                    ChannelBuffer b = factory.getBuffer(inflated);
+                    b.writeBytes(buffer, 0, inflated);
+                    out.add(b);
+                }
+                if (inflater.finished()) {
+                    finished = true;
+                    int remaining = inflater.getRemaining();
+                    readGzipTrailer(ChannelBuffers.wrappedBuffer(input, offset + length - remaining, remaining));
+                    break;
+                }
+                if (inflater.needsInput()) {
+                    break;
+                }
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    throw new CompressionException("Preset dictionaries aren't supported");
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new CompressionException("Invalid compressed response body", ex);
+        }
+
+        if (out.isEmpty()) {
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+        return out.size() == 1 ? out.get(0) : ChannelBuffers.wrappedBuffer(out.toArray(new ChannelBuffer[out.size()]));
+    }
+
+    /**
+     * Collect the gzip trailer following the compressed stream, and check it once complete. Anything after it is
+     * ignored.
+     */
+    private void readGzipTrailer(ChannelBuffer in) {
+        if (gzipTrailer == null || !gzipTrailer.writable()) {
+            return;
+        }
+
+        gzipTrailer.writeBytes(in, Math.min(in.readableBytes(), gzipTrailer.writableBytes()));
+        if (gzipTrailer.writable()) {
+            return;
+        }
+
+        long expectedCrc = readIntLE(gzipTrailer, 0) & 0xffffffffL;
+        int expectedSize = readIntLE(gzipTrailer, 4);
+        if (expectedCrc != crc.getValue()) {
+            throw new CompressionException("Invalid gzip trailer: CRC-32 mismatch");
+        }
+        // The size is modulo 2^32.
+        if (expectedSize != (int) entry.inflater.getBytesWritten()) {
+            throw new CompressionException("Invalid gzip trailer: size mismatch");
+        }
+    }
+
+    private static int readIntLE(ChannelBuffer b, int index) {
+        return b.getUnsignedByte(index) | b.getUnsignedByte(index + 1) << 8 | b.getUnsignedByte(index + 2) << 16
+                | b.getUnsignedByte(index + 3) << 24;
+    }
+
+    /**
+     * Return the length of the gzip header at the beginning of the buffer, -1 if it hasn't been fully received.
+     */
+    static int gzipHeaderLength(ChannelBuffer b) {
+        int start = b.readerIndex();
+        int end = b.writerIndex();
+        if (end - start < 10) {
+            return -1;
+        }
+        if (b.getUnsignedByte(start) != 0x1f || b.getUnsignedByte(start + 1) != 0x8b || b.getByte(start + 2) != 8) {
+            throw new CompressionException("Invalid gzip header");
+        }
+
+        int flags = b.getUnsignedByte(start + 3);
+        int i = start + 10;
+        if ((flags & FEXTRA) != 0) {
+            if (end - i < 2) {
+                return -1;
+            }
+            i += 2 + (b.getUnsignedByte(i) | b.getUnsignedByte(i + 1) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            i = i < end ? b.indexOf(i, end, (byte) 0) : -1;
+            if (i++ == -1) {
+                return -1;
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            i = i < end ? b.indexOf(i, end, (byte) 0) : -1;
+            if (i++ == -1) {
+                return -1;
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            i += 2;
+        }
+        return i <= end ? i - start : -1;
+    }
+}
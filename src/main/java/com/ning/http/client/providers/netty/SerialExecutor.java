@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import com.ning.http.client.logging.LogManager;
+import com.ning.http.client.logging.Logger;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Run the tasks of a single request on an {@link Executor}, one at a time and in the order they are submitted,
+ * without holding any of its threads between them. If the {@link Executor} rejects a task, it's run by the
+ * caller so the request still completes.
+ */
+final class SerialExecutor implements Executor, Runnable {
+
+    private final static Logger log = LogManager.getLogger(SerialExecutor.class);
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /* @Override */
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                run();
+            }
+        }
+    }
+
+    /* @Override */
+    public void run() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    log.warn(t, "Callback failed");
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // A task may have been added after the queue was found empty, and before the flag was cleared.
+        if (!tasks.isEmpty()) {
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.providers.netty;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link Future} tracking the connections opened by {@link NettyAsyncHttpProvider#warmUp(String, int)}. The
+ * value is the number of connections that have been added to the {@link com.ning.http.client.ConnectionsPool}.
+ * The {@link Future} only fails if no connection at all could be established.
+ */
+final class WarmUpFuture implements Future<Integer> {
+
+    private final CountDownLatch latch;
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicReference<Throwable> cause = new AtomicReference<Throwable>();
+
+    WarmUpFuture(int connections) {
+        this.latch = new CountDownLatch(connections);
+    }
+
+    void pooled() {
+        pooled.incrementAndGet();
+        latch.countDown();
+    }
+
+    void failed(Throwable t) {
+        if (t != null) {
+            cause.compareAndSet(null, t);
+        }
+        latch.countDown();
+    }
+
+    /* @Override */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    /* @Override */
+    public boolean isCancelled() {
+        return false;
+    }
+
+    /* @Override */
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    /* @Override */
+    public Integer get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getContent();
+    }
+
+    /* @Override */
+    public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException("Warm up not completed");
+        }
+        return getContent();
+    }
+
+    private Integer getContent() throws ExecutionException {
+        if (pooled.get() == 0 && cause.get() != null) {
+            throw new ExecutionException(cause.get());
+        }
+        return pooled.get();
+    }
+}
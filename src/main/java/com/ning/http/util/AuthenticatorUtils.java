@@ -35,7 +35,7 @@ public final class AuthenticatorUtils {
 
     public static String computeDigestAuthentication(Realm realm) throws NoSuchAlgorithmException, UnsupportedEncodingException {
 
-        StringBuilder builder = new StringBuilder().append("Digest ");
+        StringBuilder builder = new StringBuilder(256).append("Digest ");
         construct(builder, "username", realm.getPrincipal());
         construct(builder, "realm", realm.getRealmName());
         construct(builder, "nonce", realm.getNonce());
@@ -47,7 +47,18 @@ public final class AuthenticatorUtils {
         builder.append("nc").append('=').append(realm.getNc()).append(", ");
         construct(builder, "cnonce", realm.getCnonce(), true);
 
-        return new String(builder.toString().getBytes("ISO_8859_1"));
+        // Same as a round trip through the ISO-8859-1 bytes, without the copies.
+        for (int i = 0; i < builder.length(); i++) {
+            char c = builder.charAt(i);
+            if (c > 0xff) {
+                builder.setCharAt(i, '?');
+                if (Character.isHighSurrogate(c) && i + 1 < builder.length()
+                        && Character.isLowSurrogate(builder.charAt(i + 1))) {
+                    builder.deleteCharAt(i + 1);
+                }
+            }
+        }
+        return builder.toString();
     }
 
     private static StringBuilder construct(StringBuilder builder, String name, String value) {
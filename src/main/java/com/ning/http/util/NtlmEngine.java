@@ -0,0 +1,328 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+/**
+ * The messages of the NTLM handshake, as sent in the <tt>Authorization</tt> header: the client sends a type 1
+ * (negotiate) message, the server answers with a type 2 (challenge) message, and the client proves it knows the
+ * password with a type 3 (authenticate) message carrying an NTLMv2 response. The handshake authenticates the
+ * connection it's made on, not the requests.
+ */
+public final class NtlmEngine {
+
+    private final static byte[] SIGNATURE = {'N', 'T', 'L', 'M', 'S', 'S', 'P', 0};
+
+    private final static int NEGOTIATE_UNICODE = 0x00000001;
+    private final static int NEGOTIATE_OEM = 0x00000002;
+    private final static int REQUEST_TARGET = 0x00000004;
+    private final static int NEGOTIATE_NTLM = 0x00000200;
+    private final static int NEGOTIATE_ALWAYS_SIGN = 0x00008000;
+    private final static int NEGOTIATE_EXTENDED_SESSION_SECURITY = 0x00080000;
+
+    private final static int TYPE_1_FLAGS = NEGOTIATE_UNICODE | NEGOTIATE_OEM | REQUEST_TARGET | NEGOTIATE_NTLM
+            | NEGOTIATE_ALWAYS_SIGN | NEGOTIATE_EXTENDED_SESSION_SECURITY;
+
+    private final static int AV_EOL = 0;
+    private final static int AV_TIMESTAMP = 7;
+
+    // 100 ns intervals between 1601-01-01 and 1970-01-01.
+    private final static long EPOCH_OFFSET = 116444736000000000L;
+
+    private final static SecureRandom RANDOM = new SecureRandom();
+
+    private NtlmEngine() {
+    }
+
+    /**
+     * Return the type 1 message, base64 encoded.
+     *
+     * @return the type 1 message.
+     */
+    public static String generateType1Msg() {
+        byte[] msg = new byte[32];
+        System.arraycopy(SIGNATURE, 0, msg, 0, SIGNATURE.length);
+        writeInt(msg, 8, 1);
+        writeInt(msg, 12, TYPE_1_FLAGS);
+        // Empty domain and workstation.
+        writeSecurityBuffer(msg, 16, 0, 32);
+        writeSecurityBuffer(msg, 24, 0, 32);
+        return Base64.encode(msg);
+    }
+
+    /**
+     * Return the type 3 message answering a type 2 message, base64 encoded.
+     *
+     * @param principal   the user name, possibly qualified by its domain as <tt>DOMAIN\\user</tt>.
+     * @param password    the password.
+     * @param domain      the domain of the user, used unless the principal is qualified. May be null.
+     * @param workstation the name of the client host. May be null.
+     * @param type2Msg    the base64 encoded type 2 message.
+     * @return the type 3 message.
+     * @throws IllegalArgumentException if the type 2 message is invalid.
+     */
+    public static String generateType3Msg(String principal, String password, String domain, String workstation,
+                                          String type2Msg) {
+        byte[] challengeMsg = Base64.decode(type2Msg);
+        if (challengeMsg.length < 32 || readInt(challengeMsg, 8) != 2) {
+            throw new IllegalArgumentException("Invalid NTLM type 2 message");
+        }
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (challengeMsg[i] != SIGNATURE[i]) {
+                throw new IllegalArgumentException("Invalid NTLM type 2 message");
+            }
+        }
+
+        int serverFlags = readInt(challengeMsg, 20);
+        byte[] serverChallenge = new byte[8];
+        System.arraycopy(challengeMsg, 24, serverChallenge, 0, 8);
+        byte[] targetInfo = challengeMsg.length >= 48 ? readSecurityBuffer(challengeMsg, 40) : new byte[0];
+
+        String user = principal == null ? "" : principal;
+        int separator = user.indexOf('\\');
+        if (separator != -1) {
+            domain = user.substring(0, separator);
+            user = user.substring(separator + 1);
+        }
+        if (domain == null) {
+            domain = "";
+        }
+        if (workstation == null) {
+            workstation = "";
+        }
+
+        byte[] clientChallenge = new byte[8];
+        RANDOM.nextBytes(clientChallenge);
+        byte[] serverTimestamp = avPair(targetInfo, AV_TIMESTAMP);
+        byte[] timestamp = serverTimestamp != null ? serverTimestamp : timestamp(System.currentTimeMillis());
+
+        byte[] ntowf = ntowfv2(user, password == null ? "" : password, domain);
+        byte[] ntResponse = ntlmv2Response(ntowf, serverChallenge, clientChallenge, timestamp, targetInfo);
+        // A server sending its time expects an empty LM response.
+        byte[] lmResponse = serverTimestamp != null
+                ? new byte[24] : lmv2Response(ntowf, serverChallenge, clientChallenge);
+
+        boolean unicode = (serverFlags & NEGOTIATE_UNICODE) != 0;
+        byte[] domainBytes = encode(domain, unicode);
+        byte[] userBytes = encode(user, unicode);
+        byte[] workstationBytes = encode(workstation.toUpperCase(Locale.ENGLISH), unicode);
+        int flags = (serverFlags & TYPE_1_FLAGS) | NEGOTIATE_NTLM | (unicode ? 0 : NEGOTIATE_OEM);
+
+        int offset = 64;
+        byte[] msg = new byte[offset + domainBytes.length + userBytes.length + workstationBytes.length
+                + lmResponse.length + ntResponse.length];
+        System.arraycopy(SIGNATURE, 0, msg, 0, SIGNATURE.length);
+        writeInt(msg, 8, 3);
+        offset = writePayload(msg, 28, domainBytes, offset);
+        offset = writePayload(msg, 36, userBytes, offset);
+        offset = writePayload(msg, 44, workstationBytes, offset);
+        offset = writePayload(msg, 12, lmResponse, offset);
+        offset = writePayload(msg, 20, ntResponse, offset);
+        // No session key.
+        writeSecurityBuffer(msg, 52, 0, offset);
+        writeInt(msg, 60, flags);
+        return Base64.encode(msg);
+    }
+
+    static byte[] ntowfv1(String password) {
+        return md4(encode(password, true));
+    }
+
+    static byte[] ntowfv2(String user, String password, String domain) {
+        return hmacMD5(ntowfv1(password), encode(user.toUpperCase(Locale.ENGLISH) + domain, true));
+    }
+
+    static byte[] lmv2Response(byte[] ntowfv2, byte[] serverChallenge, byte[] clientChallenge) {
+        byte[] proof = hmacMD5(ntowfv2, concat(serverChallenge, clientChallenge));
+        return concat(proof, clientChallenge);
+    }
+
+    static byte[] ntlmv2Response(byte[] ntowfv2, byte[] serverChallenge, byte[] clientChallenge, byte[] timestamp,
+                                 byte[] targetInfo) {
+        byte[] blob = new byte[28 + targetInfo.length + 4];
+        blob[0] = 1;
+        blob[1] = 1;
+        System.arraycopy(timestamp, 0, blob, 8, 8);
+        System.arraycopy(clientChallenge, 0, blob, 16, 8);
+        System.arraycopy(targetInfo, 0, blob, 28, targetInfo.length);
+
+        byte[] proof = hmacMD5(ntowfv2, concat(serverChallenge, blob));
+        return concat(proof, blob);
+    }
+
+    static byte[] timestamp(long millis) {
+        byte[] timestamp = new byte[8];
+        long t = millis * 10000L + EPOCH_OFFSET;
+        for (int i = 0; i < 8; i++) {
+            timestamp[i] = (byte) (t >>> (8 * i));
+        }
+        return timestamp;
+    }
+
+    /**
+     * Return the value of an attribute of the target information, null if absent.
+     */
+    private static byte[] avPair(byte[] targetInfo, int id) {
+        int i = 0;
+        while (i + 4 <= targetInfo.length) {
+            int avId = readShort(targetInfo, i);
+            int length = readShort(targetInfo, i + 2);
+            if (avId == AV_EOL || i + 4 + length > targetInfo.length) {
+                break;
+            }
+            if (avId == id) {
+                byte[] value = new byte[length];
+                System.arraycopy(targetInfo, i + 4, value, 0, length);
+                return value;
+            }
+            i += 4 + length;
+        }
+        return null;
+    }
+
+    private static byte[] encode(String s, boolean unicode) {
+        try {
+            return s.getBytes(unicode ? "UTF-16LE" : "US-ASCII");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] hmacMD5(byte[] key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance("HmacMD5");
+            mac.init(new SecretKeySpec(key, "HmacMD5"));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = new byte[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    private static int writePayload(byte[] msg, int bufferOffset, byte[] payload, int offset) {
+        writeSecurityBuffer(msg, bufferOffset, payload.length, offset);
+        System.arraycopy(payload, 0, msg, offset, payload.length);
+        return offset + payload.length;
+    }
+
+    private static void writeSecurityBuffer(byte[] msg, int i, int length, int offset) {
+        writeShort(msg, i, length);
+        writeShort(msg, i + 2, length);
+        writeInt(msg, i + 4, offset);
+    }
+
+    private static byte[] readSecurityBuffer(byte[] msg, int i) {
+        int length = readShort(msg, i);
+        int offset = readInt(msg, i + 4);
+        if (offset < 0 || offset + length > msg.length) {
+            throw new IllegalArgumentException("Invalid NTLM type 2 message");
+        }
+        byte[] b = new byte[length];
+        System.arraycopy(msg, offset, b, 0, length);
+        return b;
+    }
+
+    private static void writeShort(byte[] b, int i, int value) {
+        b[i] = (byte) value;
+        b[i + 1] = (byte) (value >>> 8);
+    }
+
+    private static void writeInt(byte[] b, int i, int value) {
+        writeShort(b, i, value);
+        writeShort(b, i + 2, value >>> 16);
+    }
+
+    private static int readShort(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return readShort(b, i) | readShort(b, i + 2) << 16;
+    }
+
+    /**
+     * MD4 (RFC 1320), which the JDK doesn't provide.
+     */
+    static byte[] md4(byte[] input) {
+        int a = 0x67452301;
+        int b = 0xefcdab89;
+        int c = 0x98badcfe;
+        int d = 0x10325476;
+
+        int length = ((input.length + 8) / 64 + 1) * 64;
+        byte[] padded = new byte[length];
+        System.arraycopy(input, 0, padded, 0, input.length);
+        padded[input.length] = (byte) 0x80;
+        long bits = (long) input.length * 8;
+        for (int i = 0; i < 8; i++) {
+            padded[length - 8 + i] = (byte) (bits >>> (8 * i));
+        }
+
+        int[] x = new int[16];
+        for (int block = 0; block < length; block += 64) {
+            for (int i = 0; i < 16; i++) {
+                x[i] = readInt(padded, block + 4 * i);
+            }
+            int aa = a;
+            int bb = b;
+            int cc = c;
+            int dd = d;
+
+            for (int i = 0; i < 16; i += 4) {
+                a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x[i], 3);
+                d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x[i + 1], 7);
+                c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x[i + 2], 11);
+                b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x[i + 3], 19);
+            }
+            for (int i = 0; i < 4; i++) {
+                a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x[i] + 0x5a827999, 3);
+                d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x[i + 4] + 0x5a827999, 5);
+                c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x[i + 8] + 0x5a827999, 9);
+                b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x[i + 12] + 0x5a827999, 13);
+            }
+            for (int i : new int[]{0, 2, 1, 3}) {
+                a = Integer.rotateLeft(a + (b ^ c ^ d) + x[i] + 0x6ed9eba1, 3);
+                d = Integer.rotateLeft(d + (a ^ b ^ c) + x[i + 8] + 0x6ed9eba1, 9);
+                c = Integer.rotateLeft(c + (d ^ a ^ b) + x[i + 4] + 0x6ed9eba1, 11);
+                b = Integer.rotateLeft(b + (c ^ d ^ a) + x[i + 12] + 0x6ed9eba1, 15);
+            }
+
+            a += aa;
+            b += bb;
+            c += cc;
+            d += dd;
+        }
+
+        byte[] digest = new byte[16];
+        writeInt(digest, 0, a);
+        writeInt(digest, 4, b);
+        writeInt(digest, 8, c);
+        writeInt(digest, 12, d);
+        return digest;
+    }
+}
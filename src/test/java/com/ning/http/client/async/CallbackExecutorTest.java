@@ -0,0 +1,208 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.providers.netty.CallbackMetrics;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProvider;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProviderConfig;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class CallbackExecutorTest extends AbstractBasicTest {
+
+    private final Set<Thread> callbackThreads = Collections.synchronizedSet(new HashSet<Thread>());
+
+    private ExecutorService callbackExecutor() {
+        return Executors.newFixedThreadPool(4, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                callbackThreads.add(t);
+                return t;
+            }
+        });
+    }
+
+    private static String body() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("0123456789");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Record the callbacks, and the threads they run on.
+     */
+    private static class RecordingHandler implements AsyncHandler<List<String>> {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        private final long statusDelayInMs;
+        private final STATE statusState;
+
+        RecordingHandler(long statusDelayInMs, STATE statusState) {
+            this.statusDelayInMs = statusDelayInMs;
+            this.statusState = statusState;
+        }
+
+        private void record(String event) {
+            events.add(event);
+            threads.add(Thread.currentThread());
+        }
+
+        public void onThrowable(Throwable t) {
+            record("throwable");
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            record("body");
+            return STATE.CONTINUE;
+        }
+
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            Thread.sleep(statusDelayInMs);
+            record("status");
+            return statusState;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            record("headers");
+            return STATE.CONTINUE;
+        }
+
+        public List<String> onCompleted() throws Exception {
+            record("completed");
+            return events;
+        }
+    }
+
+    private AsyncHttpClient client(ExecutorService executor, int workers) {
+        NettyAsyncHttpProviderConfig providerConfig = new NettyAsyncHttpProviderConfig()
+                .setCallbackExecutor(executor)
+                .setWorkerCount(workers)
+                .setSlowCallbackThresholdInMs(200);
+        return new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setAsyncHttpClientProviderConfig(providerConfig).build());
+    }
+
+    @Test(groups = "standalone")
+    public void callbacksRunInOrderOnTheExecutor() throws Throwable {
+        ExecutorService executor = callbackExecutor();
+        AsyncHttpClient c = client(executor, 2);
+
+        for (int i = 0; i < 10; i++) {
+            RecordingHandler handler = new RecordingHandler(0, AsyncHandler.STATE.CONTINUE);
+            List<String> events = c.preparePost(getTargetUrl()).setBody(body()).execute(handler).get(TIMEOUT, TimeUnit.SECONDS);
+
+            assertTrue(events.size() >= 4, events.toString());
+            assertEquals(events.get(0), "status");
+            assertEquals(events.get(1), "headers");
+            for (String event : events.subList(2, events.size() - 1)) {
+                assertEquals(event, "body");
+            }
+            assertEquals(events.get(events.size() - 1), "completed");
+            assertTrue(callbackThreads.containsAll(handler.threads), handler.threads.toString());
+        }
+        c.close();
+        executor.shutdown();
+    }
+
+    @Test(groups = "standalone")
+    public void slowHandlerDoesNotDelayOtherRequests() throws Throwable {
+        ExecutorService executor = callbackExecutor();
+        // A single I/O thread for both requests.
+        AsyncHttpClient c = client(executor, 1);
+
+        Future<List<String>> slow = c.prepareGet(getTargetUrl()).execute(new RecordingHandler(3000, AsyncHandler.STATE.CONTINUE));
+        Thread.sleep(500);
+
+        long start = System.currentTimeMillis();
+        c.prepareGet(getTargetUrl()).execute(new RecordingHandler(0, AsyncHandler.STATE.CONTINUE)).get(TIMEOUT, TimeUnit.SECONDS);
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertTrue(!slow.isDone());
+
+        assertEquals(slow.get(TIMEOUT, TimeUnit.SECONDS).get(0), "status");
+
+        CallbackMetrics metrics = ((NettyAsyncHttpProvider) c.getProvider()).getCallbackMetrics();
+        assertTrue(metrics.getSlowCallbackCount() >= 1);
+        assertTrue(metrics.getMaxTimeInMicros() >= 3000 * 1000);
+        assertEquals(metrics.getSlowestCallback(), RecordingHandler.class.getName() + ".onStatusReceived");
+        c.close();
+        executor.shutdown();
+    }
+
+    @Test(groups = "standalone")
+    public void slowHandlerGetsTheWholeBody() throws Throwable {
+        ExecutorService executor = callbackExecutor();
+        AsyncHttpClient c = client(executor, 1);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append(body());
+        }
+        final String body = sb.toString();
+
+        // Far more parts than can be queued: the channel gets suspended and resumed while the handler catches up.
+        final AtomicInteger received = new AtomicInteger();
+        RecordingHandler handler = new RecordingHandler(0, AsyncHandler.STATE.CONTINUE) {
+            @Override
+            public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+                Thread.sleep(2);
+                received.addAndGet(bodyPart.getBodyPartBytes().length);
+                return super.onBodyPartReceived(bodyPart);
+            }
+        };
+        List<String> events = c.preparePost(getTargetUrl()).setBody(body).execute(handler).get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertTrue(events.size() > 20, events.toString());
+        assertEquals(events.get(events.size() - 1), "completed");
+        assertEquals(received.get(), body.length());
+        c.close();
+        executor.shutdown();
+    }
+
+    @Test(groups = "standalone")
+    public void abortStopsTheCallbacks() throws Throwable {
+        ExecutorService executor = callbackExecutor();
+        AsyncHttpClient c = client(executor, 2);
+
+        RecordingHandler handler = new RecordingHandler(0, AsyncHandler.STATE.ABORT);
+        List<String> events = c.preparePost(getTargetUrl()).setBody(body()).execute(handler).get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(events.get(0), "status");
+        assertEquals(events.get(events.size() - 1), "completed");
+        assertTrue(!events.contains("headers") && !events.contains("body"), events.toString());
+        c.close();
+        executor.shutdown();
+    }
+}
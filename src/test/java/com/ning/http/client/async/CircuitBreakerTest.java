@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.CircuitOpenException;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.Response;
+import com.ning.http.client.loadbalancer.RoundRobinLoadBalancer;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+public class CircuitBreakerTest extends AbstractBasicTest {
+
+    private volatile int failingPort;
+
+    private class FailingHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            response.setStatus(request.getLocalPort() == failingPort ? 500 : 200);
+            response.setHeader("X-Local-Port", String.valueOf(request.getLocalPort()));
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void circuitOpensAfterConsecutiveFailuresThenProbes() throws Throwable {
+        failingPort = port1;
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setCircuitBreakerFailureThreshold(2)
+                .setCircuitBreakerOpenDurationInMs(500).build());
+
+        for (int i = 0; i < 2; i++) {
+            Response response = c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getStatusCode(), 500);
+        }
+
+        try {
+            c.prepareGet(getTargetUrl()).execute();
+            fail("Circuit should be open");
+        } catch (CircuitOpenException ex) {
+            // expected
+        }
+
+        failingPort = -1;
+        Thread.sleep(600);
+
+        // The half-open probe succeeds and closes the circuit.
+        assertEquals(c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        assertEquals(c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void handlerExceptionsDontOpenTheCircuit() throws Throwable {
+        failingPort = -1;
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setCircuitBreakerFailureThreshold(2)
+                .setCircuitBreakerOpenDurationInMs(60000).build());
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                c.prepareGet(getTargetUrl()).execute(new AsyncHandler<Integer>() {
+                    public void onThrowable(Throwable t) {
+                    }
+
+                    public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+                        return STATE.CONTINUE;
+                    }
+
+                    public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+                        throw new IOException("Handler failure");
+                    }
+
+                    public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+                        return STATE.CONTINUE;
+                    }
+
+                    public Integer onCompleted() throws Exception {
+                        return null;
+                    }
+                }).get(TIMEOUT, TimeUnit.SECONDS);
+                fail("The handler should have failed");
+            } catch (ExecutionException ex) {
+                assertEquals(ex.getCause().getMessage(), "Handler failure");
+            }
+        }
+
+        assertEquals(c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void failingEndpointIsEjected() throws Throwable {
+        failingPort = port2;
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setCircuitBreakerFailureThreshold(1)
+                .setLoadBalancer(new RoundRobinLoadBalancer())
+                .addEndpoint(getTargetUrl(), "127.0.0.1", port1)
+                .addEndpoint(getTargetUrl(), "127.0.0.1", port2).build());
+
+        int failures = 0;
+        for (int i = 0; i < 6; i++) {
+            Response response = c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            if (response.getStatusCode() == 500) {
+                failures++;
+                assertEquals(response.getHeader("X-Local-Port"), String.valueOf(port2));
+            }
+        }
+        assertEquals(failures, 1);
+        c.close();
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new FailingHandler();
+    }
+}
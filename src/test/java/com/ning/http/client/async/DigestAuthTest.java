@@ -32,6 +32,7 @@ import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
 import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -46,15 +47,21 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 public class DigestAuthTest extends AbstractBasicTest {
 
     private final static String user = "user";
     private final static String admin = "admin";
 
+    private final static long MAX_NONCE_AGE = 3000;
+
+    private final AtomicInteger challenges = new AtomicInteger();
+
     @BeforeClass(alwaysRun = true)
     @Override
     public void setUpGlobal() throws Exception {
@@ -90,12 +97,27 @@ public class DigestAuthTest extends AbstractBasicTest {
 
         ConstraintSecurityHandler security = new ConstraintSecurityHandler();
         security.setConstraintMappings(new ConstraintMapping[]{mapping}, knownRoles);
-        security.setAuthenticator(new DigestAuthenticator());
+        security.setAuthenticator(new DigestAuthenticator() {
+            {
+                _maxNonceAge = MAX_NONCE_AGE;
+            }
+        });
         security.setLoginService(loginService);
         security.setStrict(false);
 
         security.setHandler(configureHandler());
-        server.setHandler(security);
+        HandlerWrapper counter = new HandlerWrapper() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException, ServletException {
+                super.handle(target, baseRequest, request, response);
+                if (baseRequest.getResponse().getStatus() == 401) {
+                    challenges.incrementAndGet();
+                }
+            }
+        };
+        counter.setHandler(security);
+        server.setHandler(counter);
         server.start();
         log.info("Local HTTP server started successfully");
     }
@@ -141,6 +163,65 @@ public class DigestAuthTest extends AbstractBasicTest {
         assertEquals(resp.getStatusCode(), 401);
     }
 
+    private AsyncHttpClient.BoundRequestBuilder prepareDigestGet(AsyncHttpClient client) {
+        return client.prepareGet("http://127.0.0.1:" + port1 + "/")
+                .setRealm((new Realm.RealmBuilder()).setPrincipal(user)
+                        .setPassword(admin)
+                        .setScheme(Realm.AuthScheme.DIGEST).build());
+    }
+
+    @Test(groups = "standalone")
+    public void digestAuthChallengeIsCachedTest() throws Throwable {
+        AsyncHttpClient client = new AsyncHttpClient();
+        int before = challenges.get();
+
+        Set<String> nonceCounts = new HashSet<String>();
+        for (int i = 0; i < 5; i++) {
+            Response resp = prepareDigestGet(client).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(resp.getStatusCode(), HttpServletResponse.SC_OK);
+            String auth = resp.getHeader("X-Auth");
+            nonceCounts.add(auth.substring(auth.indexOf("nc=")));
+        }
+        // Only the first request is challenged, the others reuse its nonce with their own nonce count.
+        assertEquals(challenges.get() - before, 1);
+        assertEquals(nonceCounts.size(), 5, nonceCounts.toString());
+        client.close();
+    }
+
+    @Test(groups = "standalone")
+    public void digestAuthChallengeIsCachedPerRealmTest() throws Throwable {
+        AsyncHttpClient client = new AsyncHttpClient();
+        int before = challenges.get();
+
+        assertEquals(prepareDigestGet(client).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), HttpServletResponse.SC_OK);
+        // The challenge is found by the name of the realm as well.
+        for (int i = 0; i < 3; i++) {
+            Response resp = client.prepareGet("http://127.0.0.1:" + port1 + "/")
+                    .setRealm((new Realm.RealmBuilder()).setPrincipal(user)
+                            .setPassword(admin)
+                            .setRealmName("MyRealm")
+                            .setScheme(Realm.AuthScheme.DIGEST).build())
+                    .execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(resp.getStatusCode(), HttpServletResponse.SC_OK);
+        }
+        assertEquals(challenges.get() - before, 1);
+        client.close();
+    }
+
+    @Test(groups = "standalone")
+    public void digestAuthStaleNonceTest() throws Throwable {
+        AsyncHttpClient client = new AsyncHttpClient();
+        assertEquals(prepareDigestGet(client).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), HttpServletResponse.SC_OK);
+
+        Thread.sleep(MAX_NONCE_AGE + 500);
+        int before = challenges.get();
+        assertEquals(prepareDigestGet(client).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), HttpServletResponse.SC_OK);
+        assertEquals(prepareDigestGet(client).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), HttpServletResponse.SC_OK);
+        // The expired nonce is challenged once, the new one is then reused.
+        assertTrue(challenges.get() - before == 1, "Challenges: " + (challenges.get() - before));
+        client.close();
+    }
+
     @Override
     public AbstractHandler configureHandler() throws Exception {
         return new SimpleHandler();
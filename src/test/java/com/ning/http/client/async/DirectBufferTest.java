@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProviderConfig;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class DirectBufferTest extends AbstractBasicTest {
+
+    private final static int BODY_SIZE = 1024 * 1024;
+
+    private class CountingHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            InputStream is = request.getInputStream();
+            byte[] b = new byte[8192];
+            long received = 0;
+            int read;
+            while ((read = is.read(b)) != -1) {
+                received += read;
+            }
+
+            response.setStatus(200);
+            response.setHeader("X-Received", String.valueOf(received));
+            if (request.getHeader("X-Size") != null) {
+                int size = Integer.parseInt(request.getHeader("X-Size"));
+                response.setContentLength(size);
+                for (int i = 0; i < size; i += b.length) {
+                    response.getOutputStream().write(b, 0, Math.min(b.length, size - i));
+                }
+            }
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new CountingHandler();
+    }
+
+    private AsyncHttpClient client(boolean direct) {
+        NettyAsyncHttpProviderConfig providerConfig = new NettyAsyncHttpProviderConfig()
+                .setUseDirectBuffers(direct)
+                .setAdaptiveReceiveBufferSize(1024, 16 * 1024, 128 * 1024);
+        return new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setAsyncHttpClientProviderConfig(providerConfig).build());
+    }
+
+    @Test(groups = "standalone")
+    public void largeBodiesWithDirectBuffers() throws Throwable {
+        AsyncHttpClient c = client(true);
+        Response response = c.preparePost(getTargetUrl()).setBody(new byte[BODY_SIZE])
+                .setHeader("X-Size", String.valueOf(BODY_SIZE)).execute().get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(response.getHeader("X-Received"), String.valueOf(BODY_SIZE));
+        assertEquals(response.getResponseBodyAsStream().available(), BODY_SIZE);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void directBuffersConfig() {
+        NettyAsyncHttpProviderConfig providerConfig = new NettyAsyncHttpProviderConfig();
+        assertTrue(!providerConfig.isUseDirectBuffers());
+        assertTrue(providerConfig.setUseDirectBuffers(true).isUseDirectBuffers());
+        assertTrue(!providerConfig.setUseDirectBuffers(false).isUseDirectBuffers());
+    }
+
+    /**
+     * Compare heap and direct buffers for large uploads: with heap buffers, every body is copied into a temporary
+     * direct buffer before being written to the socket.
+     */
+    @Test(groups = "scalability")
+    public void largeUploadBenchmark() throws Throwable {
+        for (boolean direct : new boolean[]{false, true, false, true}) {
+            AsyncHttpClient c = client(direct);
+            byte[] body = new byte[BODY_SIZE];
+            int requests = 20;
+
+            long start = System.nanoTime();
+            List<Future<Response>> responses = new ArrayList<Future<Response>>(requests);
+            for (int i = 0; i < requests; i++) {
+                responses.add(c.preparePost(getTargetUrl()).setBody(body).execute());
+            }
+            for (Future<Response> response : responses) {
+                assertEquals(response.get(TIMEOUT, TimeUnit.SECONDS).getHeader("X-Received"), String.valueOf(BODY_SIZE));
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            log.info(String.format("%d uploads of %d bytes with %s buffers: %d ms",
+                    requests, BODY_SIZE, direct ? "direct" : "heap", elapsed));
+            c.close();
+        }
+    }
+}
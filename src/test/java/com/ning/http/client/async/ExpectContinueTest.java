@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncCompletionHandlerBase;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.ProgressAsyncHandler;
+import com.ning.http.client.Response;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ExpectContinueTest extends AbstractBasicTest {
+
+    private class AuthorizingHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            if (request.getHeader("Expect") != null) {
+                response.setHeader("X-Expect", request.getHeader("Expect"));
+            }
+
+            if (request.getHeader("Authorization") == null) {
+                // Reject the request without reading its body, no 100 (Continue) is sent.
+                response.setStatus(401);
+            } else {
+                // Jetty sends 100 (Continue) once the body is read.
+                InputStream is = request.getInputStream();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] b = new byte[8192];
+                int read;
+                while ((read = is.read(b)) != -1) {
+                    bytes.write(b, 0, read);
+                }
+                response.setStatus(200);
+                response.getOutputStream().write(bytes.toByteArray());
+            }
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    private static class BodyTracker extends AsyncCompletionHandlerBase implements ProgressAsyncHandler<Response> {
+        private final AtomicBoolean bodyWritten = new AtomicBoolean();
+
+        public STATE onHeaderWriteCompleted() {
+            return STATE.CONTINUE;
+        }
+
+        public STATE onContentWriteCompleted() {
+            bodyWritten.set(true);
+            return STATE.CONTINUE;
+        }
+
+        public STATE onContentWriteProgess(long amount, long current, long total) {
+            return STATE.CONTINUE;
+        }
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new AuthorizingHandler();
+    }
+
+    private static String body() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("0123456789");
+        }
+        return sb.toString();
+    }
+
+    private AsyncHttpClient client(boolean enabled) {
+        return new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setExpectContinueEnabled(enabled)
+                .setExpectContinueTimeoutInMs(60 * 1000).build());
+    }
+
+    @Test(groups = "standalone")
+    public void acceptedBodyIsSent() throws Throwable {
+        AsyncHttpClient c = client(true);
+        BodyTracker tracker = new BodyTracker();
+        Response response = c.preparePost(getTargetUrl()).setHeader("Authorization", "granted")
+                .setBody(body()).execute(tracker).get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(response.getHeader("X-Expect"), "100-continue");
+        assertEquals(response.getResponseBody(), body());
+        assertTrue(tracker.bodyWritten.get());
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void rejectedBodyIsNotSent() throws Throwable {
+        AsyncHttpClient c = client(true);
+        for (int i = 0; i < 2; i++) {
+            BodyTracker tracker = new BodyTracker();
+            Response response = c.preparePost(getTargetUrl()).setBody(body()).execute(tracker).get(TIMEOUT, TimeUnit.SECONDS);
+
+            assertEquals(response.getStatusCode(), 401);
+            assertFalse(tracker.bodyWritten.get());
+        }
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void disabledByDefault() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient();
+        Response response = c.preparePost(getTargetUrl()).setHeader("Authorization", "granted")
+                .setBody(body()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals(response.getStatusCode(), 200);
+        assertNull(response.getHeader("X-Expect"));
+        assertEquals(response.getResponseBody(), body());
+        c.close();
+    }
+}
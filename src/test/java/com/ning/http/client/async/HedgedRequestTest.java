@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.PerRequestConfig;
+import com.ning.http.client.Response;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProviderConfig;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class HedgedRequestTest extends AbstractBasicTest {
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private volatile boolean firstIsSlow;
+
+    private class SlowFirstHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            int hit = hits.incrementAndGet();
+            if (firstIsSlow && hit == 1) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                }
+            }
+            if (request.getHeader("X-Delay") != null) {
+                try {
+                    Thread.sleep(Long.parseLong(request.getHeader("X-Delay")));
+                } catch (InterruptedException e) {
+                }
+            }
+            response.setStatus(200);
+            response.setHeader("X-Hit", String.valueOf(hit));
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    private static class CountingHandler implements AsyncHandler<Integer> {
+        private final AtomicInteger statuses = new AtomicInteger();
+        private volatile int statusCode;
+
+        public void onThrowable(Throwable t) {
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            return STATE.CONTINUE;
+        }
+
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            statuses.incrementAndGet();
+            statusCode = responseStatus.getStatusCode();
+            return STATE.CONTINUE;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            return STATE.CONTINUE;
+        }
+
+        public Integer onCompleted() throws Exception {
+            return statusCode;
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void slowRequestIsHedged() throws Throwable {
+        hits.set(0);
+        firstIsSlow = true;
+        AsyncHttpClient c = new AsyncHttpClient();
+
+        PerRequestConfig perRequestConfig = new PerRequestConfig();
+        perRequestConfig.setHedgeDelayInMs(200);
+        CountingHandler handler = new CountingHandler();
+
+        long start = System.currentTimeMillis();
+        Integer statusCode = c.prepareGet(getTargetUrl()).setPerRequestConfig(perRequestConfig)
+                .execute(handler).get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals(statusCode.intValue(), 200);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(hits.get(), 2);
+        assertEquals(handler.statuses.get(), 1);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void fastRequestIsNotHedged() throws Throwable {
+        hits.set(0);
+        firstIsSlow = false;
+        AsyncHttpClient c = new AsyncHttpClient();
+
+        PerRequestConfig perRequestConfig = new PerRequestConfig();
+        perRequestConfig.setHedgeDelayInMs(1000);
+
+        Response response = c.prepareGet(getTargetUrl()).setPerRequestConfig(perRequestConfig)
+                .execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getStatusCode(), 200);
+
+        Thread.sleep(1500);
+        assertEquals(hits.get(), 1);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void hedgesAreBudgeted() throws Throwable {
+        hits.set(0);
+        firstIsSlow = false;
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setMaxHedgedRequestsPercent(20).build());
+
+        PerRequestConfig perRequestConfig = new PerRequestConfig();
+        perRequestConfig.setHedgeDelayInMs(50);
+
+        int requests = 10;
+        for (int i = 0; i < requests; i++) {
+            Response response = c.prepareGet(getTargetUrl()).setHeader("X-Delay", "300")
+                    .setPerRequestConfig(perRequestConfig).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getStatusCode(), 200);
+        }
+
+        // Every request is late, but only one in five is hedged.
+        Thread.sleep(500);
+        assertEquals(hits.get(), requests + requests / 5);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void requestCancelledWhileConnectingIsNotSent() throws Throwable {
+        hits.set(0);
+        firstIsSlow = false;
+        // A single I/O thread, kept busy by the handler of a first request: the connection of the second one can't
+        // be established before it gets cancelled.
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setAsyncHttpClientProviderConfig(new NettyAsyncHttpProviderConfig().setWorkerCount(1)).build());
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Integer> first = c.prepareGet(getTargetUrl()).execute(new CountingHandler() {
+            @Override
+            public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+                blocked.countDown();
+                release.await(TIMEOUT, TimeUnit.SECONDS);
+                return super.onStatusReceived(responseStatus);
+            }
+        });
+        assertTrue(blocked.await(TIMEOUT, TimeUnit.SECONDS));
+
+        PerRequestConfig perRequestConfig = new PerRequestConfig();
+        perRequestConfig.setHedgeDelayInMs(1000);
+        Future<Response> f = c.prepareGet(getTargetUrl()).setPerRequestConfig(perRequestConfig).execute();
+        f.cancel(true);
+        release.countDown();
+
+        assertEquals(first.get(TIMEOUT, TimeUnit.SECONDS).intValue(), 200);
+        Thread.sleep(500);
+        assertEquals(hits.get(), 1);
+        c.close();
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new SlowFirstHandler();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import com.ning.http.client.providers.jdk.JDKAsyncHttpProvider;
+import com.ning.http.client.providers.jdk.JDKConnectionsPool;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class JDKConnectionsPoolTest extends AbstractBasicTest {
+
+    private class RemotePortHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            if (request.getHeader("X-Delay") != null) {
+                try {
+                    Thread.sleep(Long.parseLong(request.getHeader("X-Delay")));
+                } catch (InterruptedException e) {
+                }
+            }
+            response.setStatus(200);
+            response.setHeader("X-Remote-Port", String.valueOf(request.getRemotePort()));
+            response.getOutputStream().write("0123456789".getBytes("UTF-8"));
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new RemotePortHandler();
+    }
+
+    @Test(groups = "standalone")
+    public void connectionIsReused() throws Throwable {
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().build();
+        JDKAsyncHttpProvider provider = new JDKAsyncHttpProvider(config);
+        AsyncHttpClient c = new AsyncHttpClient(provider, config);
+
+        Set<String> ports = new HashSet<String>();
+        for (int i = 0; i < 10; i++) {
+            Response response = c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getResponseBody(), "0123456789");
+            ports.add(response.getHeader("X-Remote-Port"));
+        }
+        assertEquals(ports.size(), 1, ports.toString());
+
+        JDKConnectionsPool pool = (JDKConnectionsPool) provider.getConnectionsPool();
+        assertEquals(pool.getOpenedCount(), 1);
+        assertEquals(pool.getReusedCount(), 9);
+        assertEquals(pool.size(), 1);
+        c.close();
+        assertEquals(pool.size(), 0);
+    }
+
+    @Test(groups = "standalone")
+    public void idleConnectionsAreBoundedPerHost() throws Throwable {
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().setMaximumConnectionsPerHost(4).build();
+        JDKAsyncHttpProvider provider = new JDKAsyncHttpProvider(config);
+        AsyncHttpClient c = new AsyncHttpClient(provider, config);
+        JDKConnectionsPool pool = (JDKConnectionsPool) provider.getConnectionsPool();
+
+        List<Future<Response>> responses = new ArrayList<Future<Response>>();
+        for (int i = 0; i < 4; i++) {
+            responses.add(c.prepareGet(getTargetUrl()).setHeader("X-Delay", "500").execute());
+        }
+        for (Future<Response> response : responses) {
+            assertEquals(response.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        }
+        assertTrue(pool.size() <= 4);
+        assertEquals(pool.size() + pool.getRejectedCount(), 4);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void noKeepAliveDisconnects() throws Throwable {
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().setKeepAlive(false).build();
+        JDKAsyncHttpProvider provider = new JDKAsyncHttpProvider(config);
+        AsyncHttpClient c = new AsyncHttpClient(provider, config);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        }
+        JDKConnectionsPool pool = (JDKConnectionsPool) provider.getConnectionsPool();
+        assertEquals(pool.size(), 0);
+        assertEquals(pool.getReusedCount(), 0);
+        c.close();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.providers.jdk.JDKAsyncHttpProvider;
+import com.ning.http.client.providers.jdk.JDKConnectionsPool;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class JDKStreamingBodyTest extends AbstractBasicTest {
+
+    private final static int BODY_LENGTH = 1024 * 1024;
+
+    private class LargeBodyHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            response.setStatus(200);
+            response.setContentLength(BODY_LENGTH);
+            OutputStream os = response.getOutputStream();
+            byte[] chunk = new byte[4096];
+            for (int i = 0; i < BODY_LENGTH; i += chunk.length) {
+                os.write(chunk);
+            }
+            os.flush();
+            os.close();
+        }
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new LargeBodyHandler();
+    }
+
+    private static class CountingHandler implements AsyncHandler<Long> {
+        private final long abortAfter;
+        private final AtomicInteger parts = new AtomicInteger();
+        private final AtomicInteger largestPart = new AtomicInteger();
+        private final AtomicLong received = new AtomicLong();
+
+        private CountingHandler(long abortAfter) {
+            this.abortAfter = abortAfter;
+        }
+
+        public void onThrowable(Throwable t) {
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            int length = bodyPart.getBodyPartBytes().length;
+            parts.incrementAndGet();
+            largestPart.set(Math.max(largestPart.get(), length));
+            return received.addAndGet(length) >= abortAfter ? STATE.ABORT : STATE.CONTINUE;
+        }
+
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            return STATE.CONTINUE;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            return STATE.CONTINUE;
+        }
+
+        public Long onCompleted() throws Exception {
+            return received.get();
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void bodyIsStreamedInParts() throws Throwable {
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().build();
+        JDKAsyncHttpProvider provider = new JDKAsyncHttpProvider(config);
+        AsyncHttpClient c = new AsyncHttpClient(provider, config);
+
+        CountingHandler handler = new CountingHandler(Long.MAX_VALUE);
+        assertEquals(c.prepareGet(getTargetUrl()).execute(handler).get(TIMEOUT, TimeUnit.SECONDS).longValue(), BODY_LENGTH);
+        assertTrue(handler.parts.get() > 1, "Body delivered in " + handler.parts.get() + " part(s)");
+        assertTrue(handler.largestPart.get() < BODY_LENGTH, "Largest part: " + handler.largestPart.get());
+
+        assertEquals(((JDKConnectionsPool) provider.getConnectionsPool()).size(), 1);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void abortStopsReadingTheBody() throws Throwable {
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().build();
+        JDKAsyncHttpProvider provider = new JDKAsyncHttpProvider(config);
+        AsyncHttpClient c = new AsyncHttpClient(provider, config);
+
+        CountingHandler handler = new CountingHandler(1);
+        long received = c.prepareGet(getTargetUrl()).execute(handler).get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(handler.parts.get(), 1);
+        assertTrue(received < BODY_LENGTH, "Received " + received + " bytes");
+
+        // The rest of the body hasn't been read, so the connection can't be reused.
+        assertEquals(((JDKConnectionsPool) provider.getConnectionsPool()).size(), 0);
+        c.close();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import com.ning.http.client.loadbalancer.LeastOutstandingRequestsLoadBalancer;
+import com.ning.http.client.loadbalancer.PowerOfTwoChoicesLoadBalancer;
+import com.ning.http.client.loadbalancer.RoundRobinLoadBalancer;
+import com.ning.http.client.providers.netty.NettyConnectionsPool;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+
+public class LoadBalancerTest extends AbstractBasicTest {
+
+    private static class PortHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            response.setStatus(200);
+            response.setHeader("X-Local-Port", String.valueOf(request.getLocalPort()));
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void roundRobinSpreadsRequestsOverEndpoints() throws Throwable {
+        AsyncHttpClientConfig.Builder b = new AsyncHttpClientConfig.Builder()
+                .setLoadBalancer(new RoundRobinLoadBalancer())
+                .addEndpoint(getTargetUrl(), "127.0.0.1", port1)
+                .addEndpoint(getTargetUrl(), "127.0.0.1", port2);
+        NettyConnectionsPool pool = new NettyConnectionsPool(b.build());
+        AsyncHttpClient c = new AsyncHttpClient(b.setConnectionsPool(pool).build());
+
+        Map<String, Integer> hits = new HashMap<String, Integer>();
+        for (int i = 0; i < 6; i++) {
+            Response response = c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getStatusCode(), 200);
+            String port = response.getHeader("X-Local-Port");
+            hits.put(port, hits.containsKey(port) ? hits.get(port) + 1 : 1);
+        }
+
+        assertEquals(hits.get(String.valueOf(port1)).intValue(), 3);
+        assertEquals(hits.get(String.valueOf(port2)).intValue(), 3);
+        // One pooled connection per endpoint
+        assertEquals(pool.size("http://127.0.0.1:" + port1), 2);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void powerOfTwoChoicesReleasesOutstandingRequests() throws Throwable {
+        PowerOfTwoChoicesLoadBalancer loadBalancer = new PowerOfTwoChoicesLoadBalancer();
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setLoadBalancer(loadBalancer)
+                .addEndpoint(getTargetUrl(), "127.0.0.1", port1)
+                .addEndpoint(getTargetUrl(), "127.0.0.1", port2).build());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        }
+        assertEquals(loadBalancer.getOutstandingRequests(new InetSocketAddress("127.0.0.1", port1)), 0);
+        assertEquals(loadBalancer.getOutstandingRequests(new InetSocketAddress("127.0.0.1", port2)), 0);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void leastOutstandingRequestsAvoidsBusyEndpoint() {
+        LeastOutstandingRequestsLoadBalancer loadBalancer = new LeastOutstandingRequestsLoadBalancer();
+        List<InetSocketAddress> endpoints = new ArrayList<InetSocketAddress>();
+        endpoints.add(new InetSocketAddress("127.0.0.1", port1));
+        endpoints.add(new InetSocketAddress("127.0.0.1", port2));
+
+        InetSocketAddress busy = loadBalancer.select(getTargetUrl(), endpoints);
+        loadBalancer.onRequestStarted(busy);
+        for (int i = 0; i < 4; i++) {
+            assertNotSame(loadBalancer.select(getTargetUrl(), endpoints), busy);
+        }
+
+        loadBalancer.onRequestCompleted(busy);
+        assertEquals(loadBalancer.getOutstandingRequests(busy), 0);
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new PortHandler();
+    }
+}
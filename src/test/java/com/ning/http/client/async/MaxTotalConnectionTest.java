@@ -17,9 +17,11 @@ package com.ning.http.client.async;
 
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.ConnectionPermits;
 import com.ning.http.client.Response;
 import com.ning.http.client.logging.LogManager;
 import com.ning.http.client.logging.Logger;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProvider;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -27,7 +29,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MaxTotalConnectionTest extends AbstractBasicTest {
     protected final Logger log = LogManager.getLogger(AbstractBasicTest.class);
@@ -147,6 +152,66 @@ public class MaxTotalConnectionTest extends AbstractBasicTest {
         }
         Assert.assertTrue(caughtError);
     }
-}
 
+    @Test(groups = "standalone")
+    public void testPermitsHoldUnderConcurrency() throws Throwable {
+        final ConnectionPermits permits = new ConnectionPermits(6, 2);
+        final String[] hosts = new String[]{"http://a:80", "http://b:80", "http://c:80", "http://d:80"};
+        final AtomicInteger violations = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(16);
+
+        for (int t = 0; t < 16; t++) {
+            final String host = hosts[t % hosts.length];
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            if (permits.tryAcquire(host)) {
+                                if (permits.getOpenConnections() > 6 || permits.getOpenConnections(host) > 2) {
+                                    violations.incrementAndGet();
+                                }
+                                permits.release(host);
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        Assert.assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+        Assert.assertEquals(violations.get(), 0);
+        Assert.assertEquals(permits.getOpenConnections(), 0);
+        for (String host : hosts) {
+            Assert.assertEquals(permits.getOpenConnections(host), 0);
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void testMaxConnectionsPerHostReleasedOnClose() throws Throwable {
+        AsyncHttpClient client = new AsyncHttpClient(
+                new AsyncHttpClientConfig.Builder()
+                        .setRequestTimeoutInMs(1000)
+                        .setMaximumConnectionsPerHost(1)
+                        .build()
+        );
+        ConnectionPermits permits = ((NettyAsyncHttpProvider) client.getProvider()).getConnectionPermits();
+
+        client.prepareGet(getTargetUrl()).addHeader("LockThread", "true").execute();
+        try {
+            client.prepareGet(getTargetUrl()).execute();
+            Assert.fail("Should throw exception. Too many connections per host issued.");
+        } catch (IOException ex) {
+            Assert.assertEquals(ex.getMessage(), "Too many connections per host 1");
+        }
 
+        // The locked request keeps its connection, only closing it gives the permit back.
+        client.close();
+        for (int i = 0; i < 50 && permits.getOpenConnections() > 0; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(permits.getOpenConnections(), 0);
+        Assert.assertEquals(permits.getRejectedCount(), 1);
+    }
+}
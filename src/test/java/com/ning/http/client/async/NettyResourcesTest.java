@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProviderConfig;
+import com.ning.http.client.providers.netty.NettyResources;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class NettyResourcesTest extends AbstractBasicTest {
+
+    private final static class RecordingThreadFactory implements ThreadFactory {
+        private final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+        /* @Override */
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            threads.add(t);
+            return t;
+        }
+    }
+
+    private AsyncHttpClient client(NettyAsyncHttpProviderConfig providerConfig) {
+        return new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setAsyncHttpClientProviderConfig(providerConfig).build());
+    }
+
+    /**
+     * Assert that the response is received by a thread of the factory. Netty renames its threads, so their names
+     * can't be checked.
+     */
+    private void assertReceivedBy(AsyncHttpClient c, RecordingThreadFactory threadFactory) throws Throwable {
+        Thread t = c.prepareGet(getTargetUrl()).execute(new AsyncCompletionHandler<Thread>() {
+            @Override
+            public Thread onCompleted(Response response) throws Exception {
+                assertEquals(response.getStatusCode(), 200);
+                return Thread.currentThread();
+            }
+        }).get(TIMEOUT, TimeUnit.SECONDS);
+        assertTrue(threadFactory.threads.contains(t), t.getName());
+    }
+
+    @Test(groups = "standalone")
+    public void workersUseThreadFactory() throws Throwable {
+        RecordingThreadFactory threadFactory = new RecordingThreadFactory();
+        AsyncHttpClient c = client(new NettyAsyncHttpProviderConfig().setWorkerCount(1).setThreadFactory(threadFactory));
+
+        for (int i = 0; i < 5; i++) {
+            assertReceivedBy(c, threadFactory);
+        }
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void clientsShareResources() throws Throwable {
+        RecordingThreadFactory threadFactory = new RecordingThreadFactory();
+        NettyResources resources = new NettyResources(2, threadFactory);
+        AsyncHttpClient c1 = client(new NettyAsyncHttpProviderConfig().setNettyResources(resources));
+        AsyncHttpClient c2 = client(new NettyAsyncHttpProviderConfig().setNettyResources(resources));
+
+        assertReceivedBy(c1, threadFactory);
+        assertReceivedBy(c2, threadFactory);
+
+        // Closing a client leaves the shared threads running for the other ones.
+        c1.close();
+        assertReceivedBy(c2, threadFactory);
+        c2.close();
+
+        resources.releaseExternalResources();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Realm;
+import com.ning.http.client.Response;
+import com.ning.http.util.Base64;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+
+public class NtlmTest extends AbstractBasicTest {
+
+    // NTOWFv2("User", "Password", "DOMAIN")
+    private final static String NTOWF = "f38efea48ada6afaa95ae44669e5634b";
+
+    private final static byte[] CHALLENGE = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    private final AtomicInteger handshakes = new AtomicInteger();
+
+    /**
+     * Authenticate the connections, identified by their remote port, with NTLMv2.
+     */
+    private class NtlmHandler extends AbstractHandler {
+        private final Map<Integer, Boolean> challenged = new ConcurrentHashMap<Integer, Boolean>();
+        private final Map<Integer, Boolean> authenticated = new ConcurrentHashMap<Integer, Boolean>();
+
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            int port = request.getRemotePort();
+            String authorization = request.getHeader("Authorization");
+
+            if (authorization == null && authenticated.containsKey(port)) {
+                response.setStatus(200);
+                response.setHeader("X-Remote-Port", String.valueOf(port));
+                response.setContentLength(0);
+            } else if (authorization == null) {
+                unauthorized(request, response, "NTLM");
+            } else {
+                byte[] msg = Base64.decode(authorization.substring(5));
+                if (msg[8] == 1) {
+                    handshakes.incrementAndGet();
+                    challenged.put(port, Boolean.TRUE);
+                    unauthorized(request, response, "NTLM " + Base64.encode(type2Msg()));
+                } else if (msg[8] == 3 && challenged.remove(port) != null && verify(msg)) {
+                    authenticated.put(port, Boolean.TRUE);
+                    response.setStatus(200);
+                    response.setHeader("X-Remote-Port", String.valueOf(port));
+                    response.setContentLength(0);
+                } else {
+                    unauthorized(request, response, "NTLM");
+                }
+            }
+            response.getOutputStream().flush();
+        }
+
+        private void unauthorized(HttpServletRequest request, HttpServletResponse response, String wwwAuth)
+                throws IOException {
+            response.setStatus(401);
+            response.setHeader("WWW-Authenticate", wwwAuth);
+            if (request.getHeader("X-Chunked") == null) {
+                response.setContentLength(0);
+            } else {
+                // No length: the body of the challenge is sent in chunks.
+                response.getOutputStream().write("Unauthorized".getBytes());
+                response.getOutputStream().flush();
+                response.getOutputStream().write(" access".getBytes());
+            }
+        }
+
+        private byte[] type2Msg() {
+            byte[] msg = new byte[48];
+            System.arraycopy("NTLMSSP\0".getBytes(), 0, msg, 0, 8);
+            msg[8] = 2;
+            msg[20] = 1;
+            System.arraycopy(CHALLENGE, 0, msg, 24, 8);
+            msg[44] = 48;
+            return msg;
+        }
+
+        private boolean verify(byte[] msg) throws IOException {
+            if (!"User".equals(new String(field(msg, 36), "UTF-16LE"))
+                    || !"DOMAIN".equals(new String(field(msg, 28), "UTF-16LE"))) {
+                return false;
+            }
+            byte[] ntResponse = field(msg, 20);
+            byte[] data = new byte[8 + ntResponse.length - 16];
+            System.arraycopy(CHALLENGE, 0, data, 0, 8);
+            System.arraycopy(ntResponse, 16, data, 8, ntResponse.length - 16);
+            try {
+                Mac mac = Mac.getInstance("HmacMD5");
+                mac.init(new SecretKeySpec(hex(NTOWF), "HmacMD5"));
+                byte[] proof = mac.doFinal(data);
+                for (int i = 0; i < 16; i++) {
+                    if (proof[i] != ntResponse[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (Exception ex) {
+                throw new IOException(ex.getMessage());
+            }
+        }
+
+        private byte[] field(byte[] msg, int i) {
+            int length = (msg[i] & 0xff) | (msg[i + 1] & 0xff) << 8;
+            int offset = (msg[i + 4] & 0xff) | (msg[i + 5] & 0xff) << 8;
+            byte[] b = new byte[length];
+            System.arraycopy(msg, offset, b, 0, length);
+            return b;
+        }
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] b = new byte[hex.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new NtlmHandler();
+    }
+
+    private static Realm realm(String principal, String password) {
+        return new Realm.RealmBuilder()
+                .setScheme(Realm.AuthScheme.NTLM)
+                .setPrincipal(principal)
+                .setPassword(password)
+                .setDomain("DOMAIN")
+                .build();
+    }
+
+    @Test(groups = "standalone")
+    public void ntlmHandshake() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient();
+        Response response = c.prepareGet(getTargetUrl()).setRealm(realm("User", "Password"))
+                .execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getStatusCode(), 200);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void ntlmHandshakeWithChunkedChallenges() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient();
+        int before = handshakes.get();
+        Response response = c.prepareGet(getTargetUrl()).setRealm(realm("User", "Password"))
+                .setHeader("X-Chunked", "true").execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(handshakes.get() - before, 1);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void authenticatedConnectionIsReused() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient();
+        int before = handshakes.get();
+
+        Set<String> ports = new HashSet<String>();
+        for (int i = 0; i < 5; i++) {
+            Response response = c.prepareGet(getTargetUrl()).setRealm(realm("User", "Password"))
+                    .execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getStatusCode(), 200);
+            ports.add(response.getHeader("X-Remote-Port"));
+        }
+        assertEquals(ports.size(), 1, ports.toString());
+        assertEquals(handshakes.get() - before, 1);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void wrongPasswordIsRejected() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient();
+        Response response = c.prepareGet(getTargetUrl()).setRealm(realm("User", "Wrong"))
+                .execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getStatusCode(), 401);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void connectionsArePooledPerPrincipal() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient();
+        assertEquals(c.prepareGet(getTargetUrl()).setRealm(realm("User", "Password"))
+                .execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+
+        // Another principal doesn't get the authenticated connection.
+        assertEquals(c.prepareGet(getTargetUrl()).setRealm(realm("Other", "Password"))
+                .execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 401);
+        // Nor does a request without credentials.
+        assertEquals(c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 401);
+        c.close();
+    }
+}
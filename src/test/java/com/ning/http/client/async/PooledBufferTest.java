@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProviderConfig;
+import com.ning.http.client.providers.netty.PooledChannelBufferFactory;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class PooledBufferTest extends AbstractBasicTest {
+
+    private static String body() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("0123456789");
+        }
+        return sb.toString();
+    }
+
+    private void sendBodies(boolean direct) throws Throwable {
+        PooledChannelBufferFactory factory = new PooledChannelBufferFactory(direct, 16, true);
+        NettyAsyncHttpProviderConfig providerConfig = new NettyAsyncHttpProviderConfig();
+        providerConfig.addProperty(NettyAsyncHttpProviderConfig.BUFFER_FACTORY, factory);
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setAsyncHttpClientProviderConfig(providerConfig).build());
+
+        for (int i = 0; i < 20; i++) {
+            Response response = c.preparePost(getTargetUrl()).setBody(body()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getResponseBody(), body());
+
+            response = c.preparePost(getTargetUrl()).setBody(body().getBytes("UTF-8")).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getResponseBody(), body());
+
+            response = c.preparePost(getTargetUrl()).setBody(new ByteArrayInputStream(body().getBytes("UTF-8")))
+                    .execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getResponseBody(), body());
+        }
+        c.close();
+
+        assertTrue(factory.getLeaks().isEmpty(), factory.getLeaks().toString());
+        // Netty's own buffers are allocated from the factory too, but never released.
+        assertTrue(factory.getReusedCount() >= 50);
+    }
+
+    @Test(groups = "standalone")
+    public void heapBuffersAreRecycled() throws Throwable {
+        sendBodies(false);
+    }
+
+    @Test(groups = "standalone")
+    public void directBuffersAreRecycled() throws Throwable {
+        sendBodies(true);
+    }
+
+    @Test(groups = "standalone")
+    public void cancelledQueuedBodiesAreRecycled() throws Throwable {
+        PooledChannelBufferFactory factory = new PooledChannelBufferFactory(false, 16, true);
+        NettyAsyncHttpProviderConfig providerConfig = new NettyAsyncHttpProviderConfig();
+        providerConfig.addProperty(NettyAsyncHttpProviderConfig.BUFFER_FACTORY, factory);
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setMaximumConnectionsPerHost(1)
+                .setMaxQueuedRequests(1)
+                .setAsyncHttpClientProviderConfig(providerConfig).build());
+
+        Future<Response> busy = c.prepareGet(getTargetUrl()).addHeader("LockThread", "true").execute();
+        Future<Response> queued = c.preparePost(getTargetUrl()).setBody(body()).execute();
+        assertFalse(queued.isDone());
+
+        // The body of the queued request has been built, but is never written.
+        queued.cancel(true);
+        busy.cancel(true);
+        c.close();
+
+        assertTrue(factory.getLeaks().isEmpty(), factory.getLeaks().toString());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.PerRequestConfig;
+import com.ning.http.client.Response;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class PriorityTest extends AbstractBasicTest {
+
+    private final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+
+    private class SlowHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            served.add(request.getHeader("X-Name"));
+            if (request.getHeader("X-Delay") != null) {
+                try {
+                    Thread.sleep(Long.parseLong(request.getHeader("X-Delay")));
+                } catch (InterruptedException e) {
+                    // ignored
+                }
+            }
+            response.setStatus(200);
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new SlowHandler();
+    }
+
+    private AsyncHttpClient client(int agingInMs) {
+        return new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setMaximumConnectionsPerHost(1)
+                .setMaxQueuedRequests(2)
+                .setQueuedRequestAgingInMs(agingInMs).build());
+    }
+
+    private static PerRequestConfig priority(PerRequestConfig.Priority priority) {
+        PerRequestConfig perRequestConfig = new PerRequestConfig();
+        perRequestConfig.setPriority(priority);
+        return perRequestConfig;
+    }
+
+    private List<String> sendWhileBusy(AsyncHttpClient c, PerRequestConfig.Priority... priorities) throws Throwable {
+        served.clear();
+        List<Future<Response>> responses = new ArrayList<Future<Response>>();
+        responses.add(c.prepareGet(getTargetUrl()).setHeader("X-Name", "busy").setHeader("X-Delay", "500").execute());
+        Thread.sleep(100);
+
+        for (PerRequestConfig.Priority p : priorities) {
+            responses.add(c.prepareGet(getTargetUrl()).setHeader("X-Name", p.name())
+                    .setPerRequestConfig(priority(p)).execute());
+            Thread.sleep(20);
+        }
+        for (Future<Response> response : responses) {
+            assertEquals(response.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        }
+        return served;
+    }
+
+    @Test(groups = "standalone")
+    public void highPriorityIsServedFirst() throws Throwable {
+        AsyncHttpClient c = client(60 * 1000);
+        assertEquals(sendWhileBusy(c, PerRequestConfig.Priority.LOW, PerRequestConfig.Priority.HIGH),
+                Arrays.asList("busy", "HIGH", "LOW"));
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void agedRequestIsServedFirst() throws Throwable {
+        AsyncHttpClient c = client(0);
+        assertEquals(sendWhileBusy(c, PerRequestConfig.Priority.LOW, PerRequestConfig.Priority.HIGH),
+                Arrays.asList("busy", "LOW", "HIGH"));
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void fullQueueFailsFast() throws Throwable {
+        AsyncHttpClient c = client(60 * 1000);
+        Future<Response> busy = c.prepareGet(getTargetUrl()).setHeader("X-Delay", "500").execute();
+        Thread.sleep(100);
+        Future<Response> first = c.prepareGet(getTargetUrl()).execute();
+        Future<Response> second = c.prepareGet(getTargetUrl()).execute();
+        try {
+            c.prepareGet(getTargetUrl()).execute();
+            fail("The queue should be full");
+        } catch (IOException ex) {
+            assertEquals(ex.getMessage(), "Too many connections per host 1");
+        }
+        busy.get(TIMEOUT, TimeUnit.SECONDS);
+        first.get(TIMEOUT, TimeUnit.SECONDS);
+        second.get(TIMEOUT, TimeUnit.SECONDS);
+        c.close();
+    }
+
+    private static PerRequestConfig timeout(int requestTimeoutInMs) {
+        PerRequestConfig perRequestConfig = new PerRequestConfig();
+        perRequestConfig.setRequestTimeoutInMs(requestTimeoutInMs);
+        return perRequestConfig;
+    }
+
+    private static void assertTimedOut(Future<Response> response) throws Throwable {
+        try {
+            response.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("The request should have timed out");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException, ex.getCause().toString());
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void queuedRequestTimesOut() throws Throwable {
+        AsyncHttpClient c = client(60 * 1000);
+        Future<Response> busy = c.prepareGet(getTargetUrl()).setHeader("X-Delay", "2000").execute();
+        Thread.sleep(100);
+        Future<Response> queued = c.prepareGet(getTargetUrl()).setPerRequestConfig(timeout(500)).execute();
+
+        assertTimedOut(queued);
+        assertFalse(busy.isDone());
+        assertEquals(busy.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void queuedTimeCountsAgainstTimeout() throws Throwable {
+        AsyncHttpClient c = client(60 * 1000);
+        Future<Response> busy = c.prepareGet(getTargetUrl()).setHeader("X-Delay", "1000").execute();
+        Thread.sleep(100);
+        // Would be answered in time if the timeout only started once the request is sent.
+        Future<Response> queued = c.prepareGet(getTargetUrl()).setHeader("X-Delay", "1000")
+                .setPerRequestConfig(timeout(1500)).execute();
+
+        assertEquals(busy.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        assertTimedOut(queued);
+        c.close();
+    }
+}
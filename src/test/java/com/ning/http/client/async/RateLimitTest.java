@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.PerRequestConfig;
+import com.ning.http.client.Response;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RateLimitTest extends AbstractBasicTest {
+
+    @Test(groups = "standalone")
+    public void requestsOverTheLimitAreDelayed() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setRateLimitPerSecond(5).build());
+
+        long start = System.currentTimeMillis();
+        List<Future<Response>> responses = new ArrayList<Future<Response>>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(c.prepareGet(getTargetUrl()).execute());
+        }
+        // Delayed requests never block the caller.
+        assertTrue(System.currentTimeMillis() - start < 500);
+
+        for (Future<Response> response : responses) {
+            assertEquals(response.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        }
+        // The first five requests use the initial burst, the other five wait for a second worth of tokens.
+        assertTrue(System.currentTimeMillis() - start >= 800);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void hostLimitDoesNotDelayOtherHosts() throws Throwable {
+        String limited = "http://127.0.0.1:" + port2 + "/foo/test";
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .addRateLimitPerSecondPerHost(limited, 1).build());
+
+        assertEquals(c.prepareGet(limited).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        Future<Response> delayed = c.prepareGet(limited).execute();
+
+        long start = System.currentTimeMillis();
+        assertEquals(c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertTrue(!delayed.isDone());
+
+        assertEquals(delayed.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void requestCostIsConsumed() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setRateLimitPerSecond(4).build());
+
+        PerRequestConfig expensive = new PerRequestConfig();
+        expensive.setRateLimitCost(4);
+
+        long start = System.currentTimeMillis();
+        assertEquals(c.prepareGet(getTargetUrl()).setPerRequestConfig(expensive).execute()
+                .get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        assertEquals(c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void delayedRequestTimesOut() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setRateLimitPerSecond(1).build());
+
+        PerRequestConfig shortTimeout = new PerRequestConfig();
+        shortTimeout.setRequestTimeoutInMs(300);
+
+        long start = System.currentTimeMillis();
+        assertEquals(c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        Future<Response> timedOut = c.prepareGet(getTargetUrl()).setPerRequestConfig(shortTimeout).execute();
+        Future<Response> delayed = c.prepareGet(getTargetUrl()).execute();
+        try {
+            timedOut.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("The delayed request should have timed out");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException, ex.getCause().toString());
+        }
+        assertTrue(System.currentTimeMillis() - start < 900);
+
+        // The request that timed out doesn't take the next token.
+        assertEquals(delayed.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        assertTrue(System.currentTimeMillis() - start < 1800);
+        c.close();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.Realm;
+import com.ning.http.util.AuthenticatorUtils;
+import org.testng.annotations.Test;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class RealmTest {
+
+    private static Realm digestRealm(String principal, String password, String nc) {
+        return new Realm.RealmBuilder()
+                .setScheme(Realm.AuthScheme.DIGEST)
+                .setPrincipal(principal)
+                .setPassword(password)
+                .setRealmName("testrealm@host.com")
+                .setNonce("dcd98b7102dd2f0e8b11d0f600bfb0c093")
+                .setNc(nc)
+                .setUri("/dir/index.html")
+                .setMethodName("GET")
+                .build();
+    }
+
+    private static String md5Hex(String s) throws Exception {
+        byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes("ISO-8859-1"));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * The response of RFC 2617 3.5, computed step by step.
+     */
+    private static String expectedResponse(Realm realm) throws Exception {
+        String ha1 = md5Hex(realm.getPrincipal() + ":" + realm.getRealmName() + ":" + realm.getPassword());
+        String ha2 = md5Hex(realm.getMethodName() + ":" + realm.getUri());
+        return md5Hex(ha1 + ":" + realm.getNonce() + ":" + realm.getNc() + ":" + realm.getCnonce() + ":"
+                + realm.getQop() + ":" + ha2);
+    }
+
+    @Test(groups = "standalone")
+    public void digestResponse() throws Exception {
+        Realm realm = digestRealm("Mufasa", "Circle Of Life", "00000001");
+        assertEquals(realm.getCnonce().length(), 32);
+        assertEquals(realm.getResponse(), expectedResponse(realm));
+
+        Realm other = digestRealm("Mufasa", "Circle Of Death", "00000002");
+        assertEquals(other.getResponse(), expectedResponse(other));
+    }
+
+    private static Realm clone(Realm realm, String realmName, String password) {
+        return new Realm.RealmBuilder().clone(realm)
+                .setRealmName(realmName)
+                .setPassword(password)
+                .setNonce("dcd98b7102dd2f0e8b11d0f600bfb0c093")
+                .setUri("/dir/index.html")
+                .build();
+    }
+
+    @Test(groups = "standalone")
+    public void digestResponseOfClones() throws Exception {
+        Realm realm = new Realm.RealmBuilder()
+                .setScheme(Realm.AuthScheme.DIGEST)
+                .setPrincipal("Mufasa")
+                .setPassword("Circle Of Life")
+                .build();
+
+        // The first hash computed for the first clone is reused only for the same credentials and realm name.
+        for (int i = 0; i < 2; i++) {
+            Realm clone = clone(realm, "testrealm@host.com", "Circle Of Life");
+            assertEquals(clone.getResponse(), expectedResponse(clone));
+            clone = clone(realm, "otherrealm@host.com", "Circle Of Life");
+            assertEquals(clone.getResponse(), expectedResponse(clone));
+            clone = clone(realm, "testrealm@host.com", "Circle Of Death");
+            assertEquals(clone.getResponse(), expectedResponse(clone));
+            clone = clone(clone, "testrealm@host.com", "Circle Of Life");
+            assertEquals(clone.getResponse(), expectedResponse(clone));
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void digestResponseOfUnmappableCharacters() throws Exception {
+        Realm realm = digestRealm("Mufasa", "\u00e9t\u00e9 \u20ac \ud83d\ude00", "00000001");
+        assertEquals(realm.getResponse(), expectedResponse(realm));
+
+        String header = AuthenticatorUtils.computeDigestAuthentication(
+                digestRealm("\u20ac\ud83d\ude00", "password", "00000001"));
+        assertTrue(header.startsWith("Digest username=\"??\", "), header);
+    }
+
+    @Test(groups = "standalone")
+    public void digestResponseFromManyThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 64; i++) {
+                final String password = "password" + (i % 4);
+                final String nc = String.format("%08x", i + 1);
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        for (int j = 0; j < 50; j++) {
+                            Realm realm = digestRealm("user", password, nc);
+                            if (!realm.getResponse().equals(expectedResponse(realm))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.Response;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that identical in-flight GET requests share a single upstream exchange.
+ */
+public class RequestCoalescingTest extends AbstractBasicTest {
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private class SlowHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            hits.incrementAndGet();
+            boolean stream = request.getHeader("X-Stream") != null;
+            try {
+                Thread.sleep(stream ? 0 : 1000);
+            } catch (InterruptedException e) {
+            }
+            response.setStatus(200);
+            response.setHeader("X-Path", request.getPathInfo());
+            if (stream) {
+                response.getOutputStream().write("coal".getBytes());
+                response.getOutputStream().flush();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                }
+            }
+            response.getOutputStream().write((stream ? "esced" : "coalesced").getBytes());
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void identicalGetsShareOneExchange() throws Throwable {
+        hits.set(0);
+        AsyncHttpClient client = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setRequestCoalescingEnabled(true).build());
+
+        List<Future<Response>> futures = new ArrayList<Future<Response>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(client.prepareGet(getTargetUrl()).execute());
+        }
+
+        for (Future<Response> f : futures) {
+            Response response = f.get(TIMEOUT, TimeUnit.SECONDS);
+            Assert.assertEquals(response.getStatusCode(), 200);
+            Assert.assertEquals(response.getResponseBody(), "coalesced");
+        }
+        Assert.assertEquals(hits.get(), 1);
+        client.close();
+    }
+
+    @Test(groups = "standalone")
+    public void everyHandlerReadsTheWholeBody() throws Throwable {
+        hits.set(0);
+        AsyncHttpClient client = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setRequestCoalescingEnabled(true).build());
+
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(client.prepareGet(getTargetUrl()).execute(new WriteToHandler()));
+        }
+
+        for (Future<String> f : futures) {
+            Assert.assertEquals(f.get(TIMEOUT, TimeUnit.SECONDS), "coalesced");
+        }
+        Assert.assertEquals(hits.get(), 1);
+        client.close();
+    }
+
+    @Test(groups = "standalone")
+    public void lateRequestsStartANewExchangeOnceTheBodyFlows() throws Throwable {
+        hits.set(0);
+        AsyncHttpClient client = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setRequestCoalescingEnabled(true).build());
+
+        final CountDownLatch bodyStarted = new CountDownLatch(1);
+        Future<String> f1 = client.prepareGet(getTargetUrl()).addHeader("X-Stream", "true")
+                .execute(new WriteToHandler() {
+                    @Override
+                    public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+                        bodyStarted.countDown();
+                        return super.onBodyPartReceived(bodyPart);
+                    }
+                });
+        Assert.assertTrue(bodyStarted.await(TIMEOUT, TimeUnit.SECONDS));
+
+        Future<String> f2 = client.prepareGet(getTargetUrl()).addHeader("X-Stream", "true")
+                .execute(new WriteToHandler());
+        Assert.assertEquals(f1.get(TIMEOUT, TimeUnit.SECONDS), "coalesced");
+        Assert.assertEquals(f2.get(TIMEOUT, TimeUnit.SECONDS), "coalesced");
+        Assert.assertEquals(hits.get(), 2);
+        client.close();
+    }
+
+    @Test(groups = "standalone")
+    public void differentHeadersAreNotCoalesced() throws Throwable {
+        hits.set(0);
+        AsyncHttpClient client = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setRequestCoalescingEnabled(true).build());
+
+        Future<Response> f1 = client.prepareGet(getTargetUrl()).addHeader("Accept", "text/plain").execute();
+        Future<Response> f2 = client.prepareGet(getTargetUrl()).addHeader("Accept", "text/html").execute();
+
+        Assert.assertEquals(f1.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        Assert.assertEquals(f2.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        Assert.assertEquals(hits.get(), 2);
+        client.close();
+    }
+
+    @Test(groups = "standalone")
+    public void coalescingIsDisabledByDefault() throws Throwable {
+        hits.set(0);
+        AsyncHttpClient client = new AsyncHttpClient();
+
+        Future<Response> f1 = client.prepareGet(getTargetUrl()).execute();
+        Future<Response> f2 = client.prepareGet(getTargetUrl()).execute();
+
+        Assert.assertEquals(f1.get(TIMEOUT, TimeUnit.SECONDS).getResponseBody(), "coalesced");
+        Assert.assertEquals(f2.get(TIMEOUT, TimeUnit.SECONDS).getResponseBody(), "coalesced");
+        Assert.assertEquals(hits.get(), 2);
+        client.close();
+    }
+
+    private static class WriteToHandler implements AsyncHandler<String> {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        public void onThrowable(Throwable t) {
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            bodyPart.writeTo(body);
+            return STATE.CONTINUE;
+        }
+
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            return STATE.CONTINUE;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            return STATE.CONTINUE;
+        }
+
+        public String onCompleted() throws Exception {
+            return body.toString();
+        }
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new SlowHandler();
+    }
+}
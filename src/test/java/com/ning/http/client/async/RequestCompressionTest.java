@@ -0,0 +1,163 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.PerRequestConfig;
+import com.ning.http.client.Response;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class RequestCompressionTest extends AbstractBasicTest {
+
+    private class DecompressingHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            String encoding = request.getHeader("Content-Encoding");
+            if (encoding != null) {
+                response.setHeader("X-Content-Encoding", encoding);
+            }
+
+            ByteArrayOutputStream wire = new ByteArrayOutputStream();
+            copy(request.getInputStream(), wire);
+            response.setHeader("X-Wire-Length", String.valueOf(wire.size()));
+
+            InputStream is = new java.io.ByteArrayInputStream(wire.toByteArray());
+            if ("gzip".equals(encoding)) {
+                is = new GZIPInputStream(is);
+            } else if ("deflate".equals(encoding)) {
+                is = new InflaterInputStream(is);
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            copy(is, body);
+
+            response.setStatus(200);
+            response.getOutputStream().write(body.toByteArray());
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+
+        private void copy(InputStream is, ByteArrayOutputStream os) throws IOException {
+            byte[] b = new byte[8192];
+            int read;
+            while ((read = is.read(b)) != -1) {
+                os.write(b, 0, read);
+            }
+        }
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new DecompressingHandler();
+    }
+
+    private static String body() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"async-http-client\"}");
+        }
+        return sb.toString();
+    }
+
+    private static PerRequestConfig compression(String compression) {
+        PerRequestConfig perRequestConfig = new PerRequestConfig();
+        perRequestConfig.setRequestCompression(compression);
+        return perRequestConfig;
+    }
+
+    @Test(groups = "standalone")
+    public void gzipBody() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setRequestCompression("gzip").build());
+        // Twice, to reuse the connection.
+        for (int i = 0; i < 2; i++) {
+            Response response = c.preparePost(getTargetUrl()).setBody(body()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+
+            assertEquals(response.getStatusCode(), 200);
+            assertEquals(response.getHeader("X-Content-Encoding"), "gzip");
+            assertTrue(Integer.parseInt(response.getHeader("X-Wire-Length")) < body().length() / 5);
+            assertEquals(response.getResponseBody(), body());
+        }
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void perRequestCompression() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setRequestCompression("gzip").build());
+        Response response = c.preparePost(getTargetUrl()).setBody(body())
+                .setPerRequestConfig(compression("deflate")).execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getHeader("X-Content-Encoding"), "deflate");
+        assertEquals(response.getResponseBody(), body());
+
+        response = c.preparePost(getTargetUrl()).setBody(body())
+                .setPerRequestConfig(compression("identity")).execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertNull(response.getHeader("X-Content-Encoding"));
+        assertEquals(response.getHeader("X-Wire-Length"), String.valueOf(body().length()));
+        assertEquals(response.getResponseBody(), body());
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void gzipFile() throws Throwable {
+        File file = File.createTempFile("async-http-client", ".json");
+        file.deleteOnExit();
+        FileOutputStream os = new FileOutputStream(file);
+        for (int i = 0; i < 10; i++) {
+            os.write(body().getBytes("UTF-8"));
+        }
+        os.close();
+
+        AsyncHttpClient c = new AsyncHttpClient();
+        Response response = c.preparePut(getTargetUrl()).setBody(file)
+                .setPerRequestConfig(compression("gzip")).execute().get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(response.getHeader("X-Content-Encoding"), "gzip");
+        assertEquals(response.getResponseBody().length(), body().length() * 10);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void gzipWithExpectContinue() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setRequestCompression("gzip")
+                .setExpectContinueEnabled(true).build());
+        Response response = c.preparePost(getTargetUrl()).setBody(body()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(response.getHeader("X-Content-Encoding"), "gzip");
+        assertEquals(response.getResponseBody(), body());
+        c.close();
+    }
+}
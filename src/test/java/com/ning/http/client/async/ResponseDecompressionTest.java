@@ -0,0 +1,226 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncCompletionHandlerBase;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.Response;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.jboss.netty.handler.codec.compression.CompressionException;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ResponseDecompressionTest extends AbstractBasicTest {
+
+    private class CompressingHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            String encoding = request.getHeader("X-Encoding");
+            int repeat = Integer.parseInt(request.getHeader("X-Repeat"));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputStream os = "gzip".equals(encoding) ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+            for (int i = 0; i < repeat; i++) {
+                os.write(body(1).getBytes("UTF-8"));
+            }
+            os.close();
+
+            byte[] body = bytes.toByteArray();
+            int length = body.length;
+            if (request.getHeader("X-Truncate") != null) {
+                length -= Integer.parseInt(request.getHeader("X-Truncate"));
+            }
+            if (request.getHeader("X-Corrupt") != null) {
+                // The first byte of the CRC-32 of the gzip trailer.
+                body[body.length - 8] ^= 0xff;
+            }
+
+            response.setStatus(200);
+            response.setHeader("Content-Encoding", encoding);
+            if (request.getHeader("X-Chunked") == null) {
+                response.setContentLength(length);
+            }
+            response.getOutputStream().write(body, 0, length);
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new CompressingHandler();
+    }
+
+    private static String body(int repeat) {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < repeat; r++) {
+            for (int i = 0; i < 100; i++) {
+                sb.append("{\"id\":").append(i).append(",\"name\":\"async-http-client\"}");
+            }
+        }
+        return sb.toString();
+    }
+
+    private AsyncHttpClient client(boolean deferred) {
+        return new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setCompressionEnabled(true)
+                .setDeferredDecompression(deferred).build());
+    }
+
+    private Response get(AsyncHttpClient c, String encoding, int repeat, boolean chunked) throws Throwable {
+        AsyncHttpClient.BoundRequestBuilder b = c.prepareGet(getTargetUrl())
+                .setHeader("X-Encoding", encoding)
+                .setHeader("X-Repeat", String.valueOf(repeat));
+        if (chunked) {
+            b.setHeader("X-Chunked", "true");
+        }
+        return b.execute().get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Test(groups = "standalone")
+    public void gzipResponses() throws Throwable {
+        AsyncHttpClient c = client(false);
+        for (int i = 0; i < 5; i++) {
+            Response response = get(c, "gzip", 1, false);
+            assertEquals(response.getStatusCode(), 200);
+            assertNull(response.getHeader("Content-Encoding"));
+            assertEquals(response.getResponseBody(), body(1));
+        }
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void largeChunkedResponses() throws Throwable {
+        AsyncHttpClient c = client(false);
+        assertEquals(get(c, "gzip", 200, true).getResponseBody(), body(200));
+        assertEquals(get(c, "deflate", 200, true).getResponseBody(), body(200));
+        c.close();
+    }
+
+    private void assertInvalid(AsyncHttpClient c, boolean chunked, String header, String value) throws Throwable {
+        AsyncHttpClient.BoundRequestBuilder b = c.prepareGet(getTargetUrl())
+                .setHeader("X-Encoding", "gzip")
+                .setHeader("X-Repeat", "10")
+                .setHeader(header, value);
+        if (chunked) {
+            b.setHeader("X-Chunked", "true");
+        }
+        try {
+            b.execute().get(TIMEOUT, TimeUnit.SECONDS);
+            fail("The body should have been rejected");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof CompressionException, String.valueOf(ex.getCause()));
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void corruptGzipTrailer() throws Throwable {
+        AsyncHttpClient c = client(false);
+        assertInvalid(c, false, "X-Corrupt", "true");
+        assertInvalid(c, true, "X-Corrupt", "true");
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void truncatedGzipResponses() throws Throwable {
+        AsyncHttpClient c = client(false);
+        // Within the trailer, then within the compressed stream.
+        assertInvalid(c, false, "X-Truncate", "4");
+        assertInvalid(c, true, "X-Truncate", "4");
+        assertInvalid(c, false, "X-Truncate", "20");
+        assertInvalid(c, true, "X-Truncate", "20");
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void deferredDecompression() throws Throwable {
+        AsyncHttpClient c = client(true);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        Response response = c.prepareGet(getTargetUrl())
+                .setHeader("X-Encoding", "gzip")
+                .setHeader("X-Repeat", "10")
+                .execute(new AsyncCompletionHandlerBase() {
+                    @Override
+                    public STATE onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+                        received.write(content.getBodyPartBytes());
+                        return super.onBodyPartReceived(content);
+                    }
+                }).get(TIMEOUT, TimeUnit.SECONDS);
+
+        byte[] bytes = received.toByteArray();
+        assertEquals(bytes[0], (byte) 0x1f);
+        assertEquals(bytes[1], (byte) 0x8b);
+        assertEquals(response.getHeader("Content-Encoding"), "gzip");
+        assertEquals(response.getResponseBody(), body(10));
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void deferredDecompressionReadsTheBodyAgain() throws Throwable {
+        AsyncHttpClient c = client(true);
+        for (String encoding : new String[]{"gzip", "deflate"}) {
+            Response response = get(c, encoding, 10, true);
+            assertEquals(response.getHeader("Content-Encoding"), encoding);
+            assertEquals(response.getResponseBody(), body(10));
+            assertEquals(response.getResponseBody(), body(10));
+
+            InputStream is = response.getResponseBodyAsStream();
+            try {
+                assertEquals(is.read(), (int) '{');
+            } finally {
+                is.close();
+            }
+        }
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void deferredDecompressionChecksTheGzipTrailer() throws Throwable {
+        AsyncHttpClient c = client(true);
+        Response response = c.prepareGet(getTargetUrl())
+                .setHeader("X-Encoding", "gzip")
+                .setHeader("X-Repeat", "10")
+                .setHeader("X-Corrupt", "true")
+                .execute().get(TIMEOUT, TimeUnit.SECONDS);
+        try {
+            response.getResponseBody();
+            fail("The body should have been rejected");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("CRC-32"), ex.getMessage());
+        }
+        c.close();
+    }
+}
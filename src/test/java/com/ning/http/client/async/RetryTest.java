@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import com.ning.http.client.RetryBudget;
+import com.ning.http.client.RetryPolicy;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProvider;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RetryTest extends AbstractBasicTest {
+
+    private final AtomicInteger received = new AtomicInteger();
+    private volatile int failures;
+
+    private class UnavailableHandler extends AbstractHandler {
+        public void handle(String s,
+                           org.eclipse.jetty.server.Request r,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException, ServletException {
+            response.setStatus(received.incrementAndGet() <= failures ? 503 : 200);
+            response.getOutputStream().flush();
+            response.getOutputStream().close();
+        }
+    }
+
+    @Override
+    public AbstractHandler configureHandler() throws Exception {
+        return new UnavailableHandler();
+    }
+
+    private AsyncHttpClient client(RetryPolicy retryPolicy) {
+        return new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setRetryPolicy(retryPolicy).build());
+    }
+
+    private static RetryBudget budget(AsyncHttpClient c) {
+        return ((NettyAsyncHttpProvider) c.getProvider()).getRetryBudget();
+    }
+
+    @Test(groups = "standalone")
+    public void unavailableIsRetried() throws Throwable {
+        received.set(0);
+        failures = 2;
+        AsyncHttpClient c = client(new RetryPolicy.RetryPolicyBuilder().setMaxRetries(3).build());
+
+        Response response = c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(received.get(), 3);
+        assertEquals(budget(c).getRetryCount(), 2);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void retriesAreLimited() throws Throwable {
+        received.set(0);
+        failures = Integer.MAX_VALUE;
+        AsyncHttpClient c = client(new RetryPolicy.RetryPolicyBuilder().setMaxRetries(2).build());
+
+        Response response = c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getStatusCode(), 503);
+        assertEquals(received.get(), 3);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void nonIdempotentRequestIsNotRetried() throws Throwable {
+        received.set(0);
+        failures = 1;
+        AsyncHttpClient c = client(new RetryPolicy.RetryPolicyBuilder().build());
+
+        Response response = c.preparePost(getTargetUrl()).setBody("body").execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getStatusCode(), 503);
+        assertEquals(received.get(), 1);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void retriesDoNotExceedTheBudget() throws Throwable {
+        received.set(0);
+        failures = Integer.MAX_VALUE;
+        AsyncHttpClient c = client(new RetryPolicy.RetryPolicyBuilder()
+                .setMaxRetries(1)
+                .setBudgetPercent(0)
+                .setBudgetMinRetries(1).build());
+
+        for (int i = 0; i < 3; i++) {
+            Response response = c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getStatusCode(), 503);
+        }
+        assertEquals(received.get(), 4);
+        assertEquals(budget(c).getRetryCount(), 1);
+        assertEquals(budget(c).getRejectedCount(), 2);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void connectFailureIsRetried() throws Throwable {
+        AsyncHttpClient c = client(new RetryPolicy.RetryPolicyBuilder().setMaxRetries(2).build());
+
+        try {
+            c.preparePost(String.format("http://127.0.0.1:%d/", findFreePort())).setBody("body").execute().get(TIMEOUT, TimeUnit.SECONDS);
+            fail("Connection should have been refused");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ConnectException);
+        }
+        assertEquals(budget(c).getRetryCount(), 2);
+        c.close();
+    }
+}
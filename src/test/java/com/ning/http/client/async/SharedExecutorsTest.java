@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class SharedExecutorsTest extends AbstractBasicTest {
+
+    private static int reaperThreads() {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if ("AsyncHttpClient-Reaper".equals(t.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test(groups = "standalone")
+    public void buildStartsNoThread() {
+        int threads = reaperThreads();
+        for (int i = 0; i < 100; i++) {
+            AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().build();
+            config.reaper().shutdown();
+            config.executorService().shutdown();
+        }
+        assertEquals(reaperThreads(), threads);
+    }
+
+    @Test(groups = "standalone")
+    public void closingAClientLeavesTheSharedExecutorsRunning() throws Throwable {
+        AsyncHttpClient c1 = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().build());
+        AsyncHttpClient c2 = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().build());
+
+        assertEquals(c1.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        assertEquals(c2.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        c1.close();
+
+        ExecutorService executor = c1.getConfig().executorService();
+        assertTrue(executor.isShutdown());
+        try {
+            executor.submit(new Runnable() {
+                public void run() {
+                }
+            });
+            fail("A closed client must reject tasks");
+        } catch (RejectedExecutionException ex) {
+        }
+
+        Response response = c2.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getStatusCode(), 200);
+        String result = c2.getConfig().executorService().submit(new Callable<String>() {
+            public String call() {
+                return "ok";
+            }
+        }).get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(result, "ok");
+        c2.close();
+    }
+
+    @Test(groups = "standalone")
+    public void periodicTasksAreCancelledOnShutdown() throws Throwable {
+        ScheduledExecutorService reaper = new AsyncHttpClientConfig.Builder().build().reaper();
+        ScheduledFuture<?> task = reaper.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+            }
+        }, 10, 10, TimeUnit.MILLISECONDS);
+
+        reaper.shutdown();
+        assertTrue(task.isCancelled());
+    }
+
+    @Test(groups = "standalone")
+    public void closedReaperRejectsTasks() throws Throwable {
+        ScheduledExecutorService other = new AsyncHttpClientConfig.Builder().build().reaper();
+        ScheduledExecutorService reaper = new AsyncHttpClientConfig.Builder().build().reaper();
+        Runnable task = new Runnable() {
+            public void run() {
+            }
+        };
+        // The shared reaper keeps running for the other handle.
+        other.schedule(task, 10, TimeUnit.MILLISECONDS);
+        reaper.schedule(task, 10, TimeUnit.MILLISECONDS);
+        reaper.shutdown();
+
+        try {
+            reaper.schedule(task, 10, TimeUnit.MILLISECONDS);
+            fail("A closed reaper must reject tasks");
+        } catch (RejectedExecutionException ex) {
+        }
+        try {
+            reaper.schedule(new Callable<String>() {
+                public String call() {
+                    return "ok";
+                }
+            }, 10, TimeUnit.MILLISECONDS);
+            fail("A closed reaper must reject tasks");
+        } catch (RejectedExecutionException ex) {
+        }
+        try {
+            reaper.scheduleWithFixedDelay(task, 10, 10, TimeUnit.MILLISECONDS);
+            fail("A closed reaper must reject tasks");
+        } catch (RejectedExecutionException ex) {
+        }
+        other.shutdown();
+    }
+}
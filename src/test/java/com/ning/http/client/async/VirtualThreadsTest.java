@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import com.ning.http.client.providers.jdk.JDKAsyncHttpProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class VirtualThreadsTest extends AbstractBasicTest {
+
+    private static boolean isVirtual(Thread t) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(t);
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    @Test(groups = "standalone")
+    public void jdkProviderRunsOnVirtualOrBoundedThreads() throws Throwable {
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().setVirtualThreadsEnabled(true).build();
+        assertTrue(config.isVirtualThreadsEnabled());
+        AsyncHttpClient c = new AsyncHttpClient(new JDKAsyncHttpProvider(config), config);
+
+        List<Future<Thread>> futures = new ArrayList<Future<Thread>>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(c.prepareGet(getTargetUrl()).execute(new AsyncCompletionHandler<Thread>() {
+                @Override
+                public Thread onCompleted(Response response) throws Exception {
+                    assertEquals(response.getStatusCode(), 200);
+                    return Thread.currentThread();
+                }
+            }));
+        }
+
+        for (Future<Thread> future : futures) {
+            Thread t = future.get(TIMEOUT, TimeUnit.SECONDS);
+            assertTrue(isVirtual(t) || t.getName().startsWith("AsyncHttpClient-Worker-"), t.getName());
+        }
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void nettyProviderWithVirtualThreads() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setVirtualThreadsEnabled(true).build());
+
+        for (int i = 0; i < 5; i++) {
+            Response response = c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getStatusCode(), 200);
+        }
+        c.close();
+    }
+}
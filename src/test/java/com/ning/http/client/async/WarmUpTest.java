@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.client.async;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+import com.ning.http.client.loadbalancer.RoundRobinLoadBalancer;
+import com.ning.http.client.providers.jdk.JDKAsyncHttpProvider;
+import com.ning.http.client.providers.netty.NettyConnectionsPool;
+import org.jboss.netty.channel.Channel;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class WarmUpTest extends AbstractBasicTest {
+
+    @Test(groups = "standalone")
+    public void warmUpFillsThePool() throws Throwable {
+        AsyncHttpClientConfig.Builder b = new AsyncHttpClientConfig.Builder();
+        NettyConnectionsPool pool = new NettyConnectionsPool(b.build());
+        AsyncHttpClient c = new AsyncHttpClient(b.setConnectionsPool(pool).build());
+
+        String baseUrl = "http://127.0.0.1:" + port1;
+        Integer pooled = c.warmUp(getTargetUrl(), 3).get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(pooled.intValue(), 3);
+        assertEquals(pool.size(baseUrl), 3);
+
+        Response response = c.prepareGet(getTargetUrl()).execute().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(pool.size(baseUrl), 3);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void warmUpUnreachableHostFails() throws Throwable {
+        AsyncHttpClient c = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setConnectionTimeoutInMs(1000).build());
+
+        boolean failed = false;
+        try {
+            c.warmUp(String.format("http://127.0.0.1:%d/", findFreePort()), 2).get(TIMEOUT, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            failed = true;
+        }
+        assertTrue(failed);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void warmUpIsANoOpWithOtherProviders() throws Throwable {
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().build();
+        AsyncHttpClient c = new AsyncHttpClient(new JDKAsyncHttpProvider(config), config);
+
+        Future<Integer> pooled = c.warmUp(getTargetUrl(), 3);
+        assertTrue(pooled.isDone());
+        assertEquals(pooled.get().intValue(), 0);
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void minIdleConnectionsAreMaintained() throws Throwable {
+        AsyncHttpClientConfig.Builder b = new AsyncHttpClientConfig.Builder()
+                .addMinIdleConnectionsPerHost(getTargetUrl(), 3)
+                .setIdleConnectionsMaintenanceIntervalInMs(100);
+        NettyConnectionsPool pool = new NettyConnectionsPool(b.build());
+        AsyncHttpClient c = new AsyncHttpClient(b.setConnectionsPool(pool).build());
+
+        String baseUrl = "http://127.0.0.1:" + port1;
+        assertTrue(waitForIdleConnections(pool, baseUrl, 3));
+
+        Channel channel = pool.removeConnection(baseUrl);
+        channel.close().awaitUninterruptibly();
+        assertTrue(waitForIdleConnections(pool, baseUrl, 3));
+        c.close();
+    }
+
+    @Test(groups = "standalone")
+    public void minIdleConnectionsAreMaintainedOverEndpoints() throws Throwable {
+        AsyncHttpClientConfig.Builder b = new AsyncHttpClientConfig.Builder()
+                .setLoadBalancer(new RoundRobinLoadBalancer())
+                .addEndpoint(getTargetUrl(), "127.0.0.1", port1)
+                .addEndpoint(getTargetUrl(), "127.0.0.1", port2)
+                .addMinIdleConnectionsPerHost(getTargetUrl(), 3)
+                .setIdleConnectionsMaintenanceIntervalInMs(100);
+        NettyConnectionsPool pool = new NettyConnectionsPool(b.build());
+        AsyncHttpClient c = new AsyncHttpClient(b.setConnectionsPool(pool).build());
+
+        String baseUrl = "http://127.0.0.1:" + port1;
+        assertTrue(waitForIdleConnections(pool, baseUrl, 3));
+
+        // The floor holds over the endpoints, it isn't topped up again on every run
+        Thread.sleep(1000);
+        assertEquals(pool.size(baseUrl), 3);
+        assertEquals(pool.size(), 3);
+        c.close();
+    }
+
+    private static boolean waitForIdleConnections(NettyConnectionsPool pool, String baseUrl, int count)
+            throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (pool.size(baseUrl) == count) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+}
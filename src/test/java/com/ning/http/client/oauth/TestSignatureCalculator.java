@@ -4,9 +4,22 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.ning.http.client.FluentStringsMap;
+import com.ning.http.client.logging.LogManager;
+import com.ning.http.client.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TestSignatureCalculator
 {
+    private final Logger log = LogManager.getLogger(TestSignatureCalculator.class);
+
+    private static final int SIGNATURES_PER_THREAD = 20000;
+
     private static final String CONSUMER_KEY = "dpf43f3p2l4k3l03";
 
     private static final String CONSUMER_SECRET = "kd94hf93k423kf44";
@@ -35,4 +48,63 @@ public class TestSignatureCalculator
 
         Assert.assertEquals("tR3+Ty81lMeYAr/Fid0kMTYa/WM=", sig);
     }
+
+    /**
+     * Sign from several threads sharing a calculator: every signature must still be the expected one.
+     */
+    private static void signConcurrently(int threads, final int signaturesPerThread) throws Exception
+    {
+        ConsumerKey consumer = new ConsumerKey(CONSUMER_KEY, CONSUMER_SECRET);
+        RequestToken user = new RequestToken(TOKEN_KEY, TOKEN_SECRET);
+        final OAuthSignatureCalculator calc = new OAuthSignatureCalculator(consumer, user);
+        final FluentStringsMap queryParams = new FluentStringsMap();
+        queryParams.add("file", "vacation.jpg");
+        queryParams.add("size", "original");
+        final String url = "http://photos.example.net/photos";
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        for (int j = 0; j < signaturesPerThread; j++) {
+                            String sig = calc.calculateSignature("GET", url, TIMESTAMP, NONCE, null, queryParams);
+                            if (!"tR3+Ty81lMeYAr/Fid0kMTYa/WM=".equals(sig)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(groups="fast")
+    public void testConcurrentSignatures() throws Exception
+    {
+        signConcurrently(4, 500);
+    }
+
+    /**
+     * Log the throughput of signing from an increasing number of threads, to show how signing scales with them.
+     */
+    @Test(groups="scalability")
+    public void testConcurrentSignaturesThroughput() throws Exception
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            long start = System.nanoTime();
+            signConcurrently(threads, SIGNATURES_PER_THREAD);
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            log.info(String.format("%d threads: %d signatures in %d ms, %d per second", threads,
+                    threads * SIGNATURES_PER_THREAD, elapsed, threads * SIGNATURES_PER_THREAD * 1000L / Math.max(elapsed, 1)));
+        }
+    }
 }
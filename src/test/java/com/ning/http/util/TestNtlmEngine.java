@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.http.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * The test vectors of RFC 1320 and of the NTLMv2 authentication example of [MS-NLMP] 4.2.4.
+ */
+public class TestNtlmEngine
+{
+    private final static byte[] SERVER_CHALLENGE = bytes("0123456789abcdef");
+    private final static byte[] CLIENT_CHALLENGE = bytes("aaaaaaaaaaaaaaaa");
+    private final static byte[] TARGET_INFO = bytes("02000c0044006f006d00610069006e00"
+            + "01000c00530065007200760065007200" + "00000000");
+
+    @Test(groups="fast")
+    public void testMd4()
+    {
+        Assert.assertEquals(hex(NtlmEngine.md4(new byte[0])), "31d6cfe0d16ae931b73c59d7e0c089c0");
+        Assert.assertEquals(hex(NtlmEngine.md4("abc".getBytes())), "a448017aaf21d8525fc10ae87aa6729d");
+        Assert.assertEquals(hex(NtlmEngine.md4("12345678901234567890123456789012345678901234567890123456789012345678901234567890".getBytes())),
+                "e33b4ddc9c38f2199c3e7b164fcc0536");
+    }
+
+    @Test(groups="fast")
+    public void testNtowf()
+    {
+        Assert.assertEquals(hex(NtlmEngine.ntowfv1("Password")), "a4f49c406510bdcab6824ee7c30fd852");
+        Assert.assertEquals(hex(NtlmEngine.ntowfv2("User", "Password", "Domain")), "0c868a403bfd7a93a3001ef22ef02e3f");
+    }
+
+    @Test(groups="fast")
+    public void testNtlmv2Responses()
+    {
+        byte[] ntowf = NtlmEngine.ntowfv2("User", "Password", "Domain");
+        Assert.assertEquals(hex(NtlmEngine.lmv2Response(ntowf, SERVER_CHALLENGE, CLIENT_CHALLENGE)),
+                "86c35097ac9cec102554764a57cccc19aaaaaaaaaaaaaaaa");
+
+        byte[] response = NtlmEngine.ntlmv2Response(ntowf, SERVER_CHALLENGE, CLIENT_CHALLENGE, new byte[8], TARGET_INFO);
+        Assert.assertEquals(hex(response).substring(0, 32), "68cd0ab851e51c96aabc927bebef6a1c");
+    }
+
+    @Test(groups="fast")
+    public void testType3Msg()
+    {
+        byte[] type2 = new byte[48 + TARGET_INFO.length];
+        System.arraycopy("NTLMSSP\0".getBytes(), 0, type2, 0, 8);
+        type2[8] = 2;
+        type2[20] = 1;
+        System.arraycopy(SERVER_CHALLENGE, 0, type2, 24, 8);
+        type2[40] = (byte) TARGET_INFO.length;
+        type2[42] = (byte) TARGET_INFO.length;
+        type2[44] = 48;
+        System.arraycopy(TARGET_INFO, 0, type2, 48, TARGET_INFO.length);
+
+        byte[] type3 = Base64.decode(NtlmEngine.generateType3Msg("Domain\\User", "Password", null, "Client", Base64.encode(type2)));
+        Assert.assertEquals(new String(type3, 0, 8), "NTLMSSP\0");
+        Assert.assertEquals(type3[8], 3);
+        Assert.assertEquals(field(type3, 28), "Domain");
+        Assert.assertEquals(field(type3, 36), "User");
+        Assert.assertEquals(field(type3, 44), "CLIENT");
+        // The NTLMv2 response embeds the target information of the challenge.
+        Assert.assertEquals(type3[20] & 0xff, 16 + 28 + TARGET_INFO.length + 4);
+    }
+
+    @Test(groups="fast", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidType2Msg()
+    {
+        NtlmEngine.generateType3Msg("User", "Password", "Domain", null, Base64.encode(new byte[40]));
+    }
+
+    private static String field(byte[] msg, int i) {
+        int length = (msg[i] & 0xff) | (msg[i + 1] & 0xff) << 8;
+        int offset = (msg[i + 4] & 0xff) | (msg[i + 5] & 0xff) << 8;
+        try {
+            return new String(msg, offset, length, "UTF-16LE");
+        } catch (java.io.UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] b = new byte[hex.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder s = new StringBuilder();
+        for (byte x : b) {
+            s.append(Integer.toHexString((x & 0xff) | 0x100).substring(1));
+        }
+        return s.toString();
+    }
+}